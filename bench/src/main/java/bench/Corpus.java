@@ -0,0 +1,58 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Programs the benchmarks run on: the test programs of the repository, packaged under
+ * corpus/, each made of many renamed copies of itself to get a large input.
+ */
+final class Corpus {
+    private static final Pattern FUNCTION = Pattern.compile("\\bfunc\\s+(\\w+)");
+
+    private Corpus() {
+    }
+
+    /**
+     * Copies of the program, each with its functions renamed, so that they can be declared together.
+     *
+     * @param name path of the program under test/, e.g. ilcode/all.yan
+     */
+    static String load(String name, int copies) {
+        return scale(read(name), copies);
+    }
+
+    private static String read(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+            if (in == null)
+                throw new IllegalArgumentException("no program " + name + " in the corpus");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String scale(String source, int copies) {
+        Set<String> functions = new LinkedHashSet<>();
+        Matcher matcher = FUNCTION.matcher(source);
+        while (matcher.find())
+            functions.add(matcher.group(1));
+        if (functions.isEmpty())
+            return String.join("\n", Collections.nCopies(copies, source));
+
+        Pattern names = Pattern.compile("\\b(" + String.join("|", functions) + ")\\b");
+        StringBuilder builder = new StringBuilder(source.length() * copies);
+        for (int i = 0; i < copies; i++) {
+            builder.append(names.matcher(source).replaceAll("$1_" + i));
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import error.ErrorCollector;
+import frontend.Lexer;
+import frontend.SourceBuffer;
+import frontend.Token;
+import frontend.TokenType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokens per second of {@link Lexer#scan} over a large corpus, the figure --lex --bench
+ * reports, to compare changes to the lexer.
+ *
+ * <pre>
+ * java -jar bench/target/benchmarks.jar LexerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({"power.yan", "ilcode/all.yan", "bench/fib.yan"})
+    public String program;
+
+    // hundreds of KB of source for each of the programs
+    @Param({"4000"})
+    public int copies;
+
+    String source;
+
+    /**
+     * Tokens scanned, reported by JMH as a rate next to the files lexed per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            tokens = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void load() {
+        source = Corpus.load(program, copies);
+    }
+
+    @Benchmark
+    public void scan(Tokens counter) {
+        Lexer lexer = new Lexer(new SourceBuffer(source), new ErrorCollector(program));
+        int tokens = 0;
+        for (Token token = lexer.scan(); token.type != TokenType.EOF; token = lexer.scan())
+            tokens++;
+        counter.tokens += tokens;
+    }
+}
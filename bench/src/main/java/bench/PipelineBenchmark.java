@@ -0,0 +1,165 @@
+package bench;
+
+import compiler.ILGen;
+import compiler.semantic.Resolver;
+import error.ErrorCollector;
+import frontend.Lexer;
+import frontend.Parser;
+import frontend.SourceBuffer;
+import frontend.Token;
+import frontend.TokenStream;
+import frontend.TokenType;
+import frontend.ast.StmtNode;
+import interpreter.Interpreter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Throughput of every stage of the pipeline on its own: lexing, parsing, resolving, IL
+ * generation and interpretation, over programs of the corpus scaled to many copies.
+ *
+ * <pre>
+ * java -jar bench/target/benchmarks.jar PipelineBenchmark -prof gc
+ * </pre>
+ *
+ * Resolving and IL generation run on statements parsed and resolved once: the resolver only
+ * sets again the types and declarations it set before, and ILGen only its labels. The
+ * interpreter and its inliner change the statements, so interpret gets them parsed and
+ * resolved again before every call, outside of the measured time but inside what -prof gc
+ * counts. interpretInput does that work alone, to subtract from the figures of interpret.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"power.yan", "ilcode/all.yan", "bench/fib.yan"})
+    public String program;
+
+    @Param({"100"})
+    public int copies;
+
+    String source;
+    List<StmtNode> resolved;
+
+    @Setup(Level.Trial)
+    public void load() {
+        source = Corpus.load(program, copies);
+        // the copies must compile, or every stage would measure errors.
+        ErrorCollector errorCollector = new ErrorCollector(program);
+        resolved = resolve(parse(source, errorCollector), errorCollector);
+        if (errorCollector.hasError()) {
+            errorCollector.show();
+            throw new IllegalStateException(program + " doesn't compile");
+        }
+    }
+
+    // region Inputs
+
+    /**
+     * Statements parsed and resolved again for every call.
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        List<StmtNode> statements;
+
+        @Setup(Level.Invocation)
+        public void resolve(PipelineBenchmark benchmark) {
+            statements = benchmark.interpretInput();
+        }
+    }
+
+    /**
+     * The output of the programs, which has nowhere to go.
+     */
+    @State(Scope.Thread)
+    public static class Silenced {
+        private PrintStream out;
+
+        @Setup(Level.Trial)
+        public void silence() {
+            out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+        }
+
+        @TearDown(Level.Trial)
+        public void restore() {
+            System.setOut(out);
+        }
+    }
+
+    // endregion
+
+    // region Stages
+
+    @Benchmark
+    public int lex() {
+        Lexer lexer = new Lexer(new SourceBuffer(source), new ErrorCollector(program));
+        int tokens = 0;
+        for (Token token = lexer.scan(); token.type != TokenType.EOF; token = lexer.scan())
+            tokens++;
+        return tokens;
+    }
+
+    @Benchmark
+    public List<StmtNode> parse() {
+        return parse(source, new ErrorCollector(program));
+    }
+
+    @Benchmark
+    public List<StmtNode> resolve() {
+        return resolve(resolved, new ErrorCollector(program));
+    }
+
+    @Benchmark
+    public ILGen ilgen() {
+        ILGen il_generator = new ILGen();
+        for (StmtNode stmt : resolved)
+            il_generator.gen(stmt);
+        return il_generator;
+    }
+
+    @Benchmark
+    public Interpreter interpret(Fresh input, Silenced output) {
+        Interpreter interpreter = new Interpreter(new ErrorCollector(program));
+        interpreter.interpret(input.statements);
+        return interpreter;
+    }
+
+    // the setup of every call of interpret.
+    @Benchmark
+    public List<StmtNode> interpretInput() {
+        ErrorCollector errorCollector = new ErrorCollector(program);
+        return resolve(parse(source, errorCollector), errorCollector);
+    }
+
+    // endregion
+
+    static List<StmtNode> parse(String source, ErrorCollector errorCollector) {
+        Lexer lexer = new Lexer(new SourceBuffer(source), errorCollector);
+        return new Parser(new TokenStream(lexer), errorCollector).parse();
+    }
+
+    static List<StmtNode> resolve(List<StmtNode> statements, ErrorCollector errorCollector) {
+        Resolver resolver = new Resolver(errorCollector);
+        for (StmtNode stmt : statements)
+            resolver.execute(stmt);
+        return statements;
+    }
+}
@@ -1,24 +1,53 @@
+import compiler.CallProfile;
+import compiler.IL2Asm;
+import compiler.IL2JVM;
+import compiler.ILFile;
+import compiler.ILCache;
 import compiler.ILGen;
+import compiler.ILInterpreter;
+import compiler.PassManager;
+import compiler.SSA;
 import compiler.semantic.Resolver;
+import error.BaseError;
 import error.ErrorCollector;
 import frontend.*;
 import frontend.ast.StmtNode;
 import interpreter.Interpreter;
 import interpreter.error.RuntimeError;
+import vm.BytecodeCompiler;
+import vm.Program;
+import vm.VM;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 
 public class Yan {
+    // IL of the functions compiled before, null to compile everything
+    private ILCache cache = null;
+    // where the compiler reports its statistics, a buffer per file in a batch
+    private PrintStream log = System.out;
+
     public static void main(String[] args) throws IOException {
-        String source = null;
+        List<String> sources = new ArrayList<>();
         String out = null;
+        String engine = null;
+        String emit = "il";
+        int bench = 0;
+        int opt_level = 0;
+        boolean stats = false;
+        boolean lex = false;
+        int inline_budget = Interpreter.INLINE_BUDGET;
+        int jit_threshold = Interpreter.JIT_THRESHOLD;
+        CallProfile inline_profile = null;
+        String profile_calls = null;
 
         Yan runner = new Yan();
         if (args.length == 0) {
@@ -27,24 +56,66 @@ public class Yan {
             for (int i = 0; i < args.length; ) {
                 if (args[i].equals("-o")) {
                     out = args[i + 1];
+                    i += 2;
+                } else if (args[i].equals("-emit")) {
+                    emit = args[i + 1];
+                    i += 2;
+                } else if (args[i].startsWith("--engine=")) {
+                    engine = args[i].substring("--engine=".length());
+                    i++;
+                } else if (args[i].startsWith("--bench=")) {
+                    bench = Integer.parseInt(args[i].substring("--bench=".length()));
+                    i++;
+                } else if (args[i].startsWith("--jit=")) {
+                    jit_threshold = Integer.parseInt(args[i].substring("--jit=".length()));
+                    i++;
+                } else if (args[i].matches("-O[0-2]")) {
+                    opt_level = args[i].charAt(2) - '0';
+                    i++;
+                } else if (args[i].startsWith("--inline=")) {
+                    inline_budget = Integer.parseInt(args[i].substring("--inline=".length()));
+                    i++;
+                } else if (args[i].startsWith("--inline-profile=")) {
+                    inline_profile = CallProfile.load(args[i].substring("--inline-profile=".length()));
+                    i++;
+                } else if (args[i].startsWith("--profile-calls=")) {
+                    profile_calls = args[i].substring("--profile-calls=".length());
+                    i++;
+                } else if (args[i].startsWith("--cache=")) {
+                    runner.cache = new ILCache(Paths.get(args[i].substring("--cache=".length())));
+                    i++;
+                } else if (args[i].equals("--stats")) {
+                    stats = true;
+                    i++;
+                } else if (args[i].equals("--lex")) {
+                    lex = true;
                     i++;
                 } else if(args[i].equals("--help")) {
                     printUsage();
+                    return;
                 } else {
-                    if (source == null)
-                        source = args[i];
+                    sources.add(args[i]);
                     i++;
                 }
             }
-            runner.runCompiler(source, out);
+            if (sources.isEmpty()) {
+                printUsage();
+                return;
+            }
+            String source = sources.get(0);
+            if (lex)
+                runner.runLexer(source, bench);
+            else if (engine == null && (sources.size() > 1 || new File(source).isDirectory()))
+                runner.runBatch(sources, emit, opt_level, stats, inline_budget, inline_profile);
+            else if (engine == null)
+                runner.runCompiler(source, out, emit, opt_level, stats, inline_budget, inline_profile);
+            else if (engine.equals("il"))
+                runner.runIL(source, bench, opt_level, inline_budget, inline_profile);
+            else
+                runner.runFile(source, engine, bench, profile_calls, inline_budget, inline_profile, jit_threshold);
         }
     }
 
-    private static String readFile(String path, Charset encoding) throws IOException {
-        byte[] encoded = Files.readAllBytes(Paths.get(path));
-        return new String(encoded, encoding);
-    }
-
     private static void saveFile(String path, String content) throws IOException {
         BufferedWriter writer = new BufferedWriter(new FileWriter(path));
         writer.write(content);
@@ -53,80 +124,419 @@ public class Yan {
 
     private static void printUsage() {
         String usage = "OVERVIEW: Yan Compiler\n\n" +
-                "USAGE: Yan [options] <input>\n\n" +
+                "USAGE: Yan [options] <input>\n" +
+                "       Yan [options] <input|dir>...\tCompile many files, and the .yan files under dirs, in parallel\n\n" +
                 "OPTIONS:\n" +
-                "\t-o <file>\tWrite output to <file>.xml";
+                "\t-o <file>\tWrite output to <file>.xml\n" +
+                "\t-emit <il|ilb|ssa|jar|asm>\tWrite the textual IL, the binary IL, its control flow graphs in SSA form, a runnable jar or x86-64 assembler of the program\n" +
+                "\t--engine=<interp|vm|il>\tRun <input> with the tree-walking interpreter, the bytecode vm or the IL interpreter, which also runs .ilb files and takes -O\n" +
+                "\t--bench=<n>\tRun <input> <n> times with the chosen engine and report time per run\n" +
+                "\t-O<0|1|2>\tOptimize the IL: none, single pass of folding, propagation and DCE, or all passes to a fixpoint\n" +
+                "\t--stats\tPrint the number of IL commands after each optimization pass\n" +
+                "\t--lex\tOnly lex <input> and print its tokens, with --bench=<n> lex it <n> times and report tokens per second\n" +
+                "\t--cache=<dir>\tKeep the IL of every function in <dir> and only compile the functions changed since\n" +
+                "\t--inline=<n>\tInline functions of at most <n> nodes in the interpreter and <n> IL commands at -O2, 0 to disable\n" +
+                "\t--profile-calls=<file>\tCount the calls at every call site with --engine=interp and write them to <file>\n" +
+                "\t--inline-profile=<file>\tOnly inline the call sites making at least 1% of the calls counted in <file>\n" +
+                "\t--jit=<n>\tCompile a function to JVM bytecode after <n> interpreted calls, -1 to disable";
         System.out.println(usage);
     }
 
-    private void runCompiler(String source_path, String out) {
+    /**
+     * Compile the file to the target chosen with -emit.
+     *
+     * @return true if it compiled without errors
+     */
+    private boolean runCompiler(String source_path, String out, String emit, int opt_level, boolean stats,
+                                int inline_budget, CallProfile inline_profile) {
         File f = new File(source_path);
         String file_name = f.getName();
         if (out == null) out = file_name;
 
-        String source = null;
+        ErrorCollector errorCollector = new ErrorCollector(file_name);
+        errorCollector.setOutput(log);
+
+        ILGen il_generator = load(source_path, errorCollector);
+        if (il_generator == null)
+            return false;
+        // a batch reports the cache once, for all its files.
+        if (stats && cache != null && log == System.out)
+            log.print(cache.report());
+
+        /* Optimization */
+        if (opt_level > 0 && !errorCollector.hasError()) {
+            PassManager pass_manager = new PassManager(il_generator, opt_level, inline_budget, inline_profile);
+            pass_manager.run();
+            if (stats)
+                log.print(pass_manager.report());
+        }
+
+        String name = file_name.substring(0, file_name.lastIndexOf("."));
+        if (emit.equals("jar")) {
+            if (errorCollector.hasError())
+                return false;
+            String jar_path = Paths.get(f.getAbsoluteFile().getParent(), name + ".jar").toString();
+            String class_name = Character.isJavaIdentifierStart(name.charAt(0))
+                    && name.chars().allMatch(Character::isJavaIdentifierPart) ? name : "Main";
+            // the jar is built in memory, so a failure leaves no truncated file behind.
+            ByteArrayOutputStream jar = new ByteArrayOutputStream();
+            try {
+                new IL2JVM(il_generator, class_name).toJar(jar);
+                Files.write(Paths.get(jar_path), jar.toByteArray());
+            } catch (IOException e) {
+                return writeFailed(jar_path, e);
+            }
+            return true;
+        }
+        if (emit.equals("asm")) {
+            if (errorCollector.hasError())
+                return false;
+            String asm_path = Paths.get(f.getAbsoluteFile().getParent(), name + ".s").toString();
+            try {
+                saveFile(asm_path, new IL2Asm(il_generator, file_name).toAsm());
+            } catch (IOException e) {
+                return writeFailed(asm_path, e);
+            }
+            return true;
+        }
+        if (emit.equals("ilb")) {
+            if (errorCollector.hasError())
+                return false;
+            String ilb_path = Paths.get(f.getAbsoluteFile().getParent(), name + ".ilb").toString();
+            try (OutputStream stream = new FileOutputStream(ilb_path)) {
+                ILFile.write(il_generator, stream);
+            } catch (IOException e) {
+                return writeFailed(ilb_path, e);
+            }
+            return true;
+        }
+        if (emit.equals("ssa")) {
+            if (errorCollector.hasError())
+                return false;
+            String ssa_path = Paths.get(f.getAbsoluteFile().getParent(), name + ".ssa").toString();
+            try {
+                saveFile(ssa_path, SSA.dump(il_generator));
+            } catch (IOException e) {
+                return writeFailed(ssa_path, e);
+            }
+            return true;
+        }
+        String out_path = Paths.get(f.getAbsoluteFile().getParent(), name + ".il").toString();
+        try (Writer writer = new BufferedWriter(new FileWriter(out_path))) {
+            il_generator.write(writer);
+        } catch (IOException e) {
+            return writeFailed(out_path, e);
+        }
+        return !errorCollector.hasError();
+    }
+
+    // the output is part of the report of the file, which didn't compile then.
+    private boolean writeFailed(String path, IOException e) {
+        log.println(path + ": could not be written: " + e.getMessage());
+        return false;
+    }
+
+    /**
+     * Compile the files, and the .yan files under the directories, in parallel on a
+     * work-stealing pool, each one through its own pipeline. The report of every file is
+     * printed once it is compiled, in the order of the files.
+     */
+    private void runBatch(List<String> sources, String emit, int opt_level, boolean stats,
+                          int inline_budget, CallProfile inline_profile) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (String source : sources) {
+            if (!new File(source).isDirectory()) {
+                files.add(source);
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(Paths.get(source))) {
+                paths.filter(path -> path.toString().endsWith(".yan") && Files.isRegularFile(path))
+                        .map(Path::toString).sorted().forEach(files::add);
+            }
+        }
+
+        long begin = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool();
+        String[] reports = new String[files.size()];
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            tasks.add(pool.submit(() -> {
+                String file = files.get(index);
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                PrintStream report = new PrintStream(buffer, true);
+                boolean ok = compileOne(file, report, emit, opt_level, stats, inline_budget, inline_profile);
+                reports[index] = file + ": " + (ok ? "ok" : "failed") + "\n" + buffer;
+                return ok;
+            }));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            if (!tasks.get(i).join())
+                failed++;
+            log.print(reports[i]);
+        }
+        pool.shutdown();
+        if (stats && cache != null)
+            log.print(cache.report());
+        log.printf("%d files compiled, %d failed, in %.3f s on %d threads%n",
+                files.size(), failed, (System.nanoTime() - begin) / 1e9, pool.getParallelism());
+    }
+
+    /**
+     * Compile one file of a batch on the current thread, with its errors and statistics
+     * written to the report.
+     *
+     * @return true if it compiled without errors
+     */
+    private boolean compileOne(String file, PrintStream report, String emit, int opt_level, boolean stats,
+                               int inline_budget, CallProfile inline_profile) {
+        if (!new File(file).isFile()) {
+            report.println(file + ": no such file.");
+            return false;
+        }
+        Yan compiler = new Yan();
+        compiler.cache = cache;
+        compiler.log = report;
         try {
-            source = readFile(source_path, StandardCharsets.UTF_8);
+            return compiler.runCompiler(file, null, emit, opt_level, stats, inline_budget, inline_profile);
+        } catch (RuntimeException e) {
+            report.println(file + ": internal compiler error: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * IL of a source file, or of a precompiled .ilb file without going through the front end.
+     *
+     * @return null if it can't be read or parsed
+     */
+    private ILGen load(String source_path, ErrorCollector errorCollector) {
+        String file_name = new File(source_path).getName();
+        if (!file_name.endsWith(".ilb"))
+            return generate(source_path, errorCollector);
+        try {
+            return ILFile.read(Paths.get(source_path));
+        } catch (IOException e) {
+            System.err.println(file_name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Front end of the compiler, from the source file to the IL.
+     *
+     * @return the IL of the source, or null if it can't be parsed or resolved
+     */
+    private ILGen generate(String source_path, ErrorCollector errorCollector) {
+        SourceBuffer source;
+        try {
+            source = SourceBuffer.open(Paths.get(source_path));
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
 
-        ErrorCollector errorCollector = ErrorCollector.getInstance();
-        errorCollector.setFile_name(file_name);
+        List<StmtNode> statements = parse(source, errorCollector);
+        if (statements == null)
+            return null;
 
-        /* Lexical Analysis */
-        Vector<Token> tokens = new Vector<>();
-        assert source != null;
-        SourceBuffer buff = new SourceBuffer(source);
-        Lexer lexer = new Lexer(buff);
-        Token token = lexer.scan();
-        while (token.type != TokenType.EOF) {
-            tokens.add(token);
-            token = lexer.scan();
+        Resolver resolver = new Resolver(errorCollector);
+        ILGen il_generator = new ILGen();
+        if (cache != null) {
+            cache.generate(statements, resolver, il_generator, errorCollector);
+            if (errorCollector.hasError()) {
+                errorCollector.show();
+                return null;
+            }
+            return il_generator;
         }
 
+        /* Semantic Analysis */
+        for(StmtNode stmt : statements) {
+            resolver.execute(stmt);
+        }
+
+        // the IL can't be generated from a program that failed to resolve.
         if (errorCollector.hasError()) {
             errorCollector.show();
-            return;
+            return null;
+        }
+
+        /* Intermediate Code Generation */
+        for(StmtNode stmt : statements) {
+            try {
+                il_generator.gen(stmt);
+            } catch (BaseError error) {
+                errorCollector.add(error);
+            }
         }
 
-        /* Grammar Parsing */
-        Parser parser = new Parser(tokens);
+        if (errorCollector.hasError()) {
+            errorCollector.show();
+        }
+        return il_generator;
+    }
+
+    /**
+     * Lexical analysis and grammar parsing.
+     *
+     * @return statements of the source, or null if there is any error, which has been shown.
+     */
+    private List<StmtNode> parse(SourceBuffer source, ErrorCollector errorCollector) {
+
+        /* Lexical Analysis and Grammar Parsing, the tokens are scanned as they are parsed */
+        Lexer lexer = new Lexer(source, errorCollector);
+        Parser parser = new Parser(new TokenStream(lexer), errorCollector);
         List<StmtNode> statements = parser.parse();
 
         if (errorCollector.hasError()) {
             errorCollector.show();
-            return;
+            return null;
         }
+        return statements;
+    }
 
-        /* Semantic Analysis */
-        Resolver resolver = new Resolver();
-        for(StmtNode stmt : statements) {
-            resolver.execute(stmt);
+    /**
+     * Run the IL of the source, optimized at the level, with the {@link ILInterpreter}.
+     */
+    private void runIL(String source_path, int bench, int opt_level, int inline_budget, CallProfile inline_profile) {
+        ErrorCollector errorCollector = new ErrorCollector(new File(source_path).getName());
+
+        ILGen il_generator = load(source_path, errorCollector);
+        if (il_generator == null || errorCollector.hasError())
+            return;
+        if (opt_level > 0)
+            new PassManager(il_generator, opt_level, inline_budget, inline_profile).run();
+        ILInterpreter machine = new ILInterpreter(il_generator);
+
+        int runs = Math.max(bench, 1);
+        long begin = System.nanoTime();
+        for (int i = 0; i < runs && !errorCollector.hasError(); i++) {
+            try {
+                machine.run();
+            } catch (RuntimeError error) {
+                errorCollector.add(error);
+            }
         }
+        long elapsed = System.nanoTime() - begin;
 
         if (errorCollector.hasError()) {
             errorCollector.show();
+        } else if (bench > 0) {
+            System.out.printf("%s: %d runs, %.3f ms/run%n", "il", runs, elapsed / 1e6 / runs);
         }
+    }
 
-        /* Intermediate Code Generation */
-        ILGen il_generator = new ILGen();
-        for(StmtNode stmt : statements) {
-            il_generator.gen(stmt);
+    /**
+     * Only lex the source: print its tokens, or with --bench lex it several times and report the rate.
+     */
+    private void runLexer(String source_path, int bench) {
+        ErrorCollector errorCollector = new ErrorCollector(new File(source_path).getName());
+
+        int runs = Math.max(bench, 1);
+        long tokens = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < runs && !errorCollector.hasError(); i++) {
+            Lexer lexer;
+            try {
+                lexer = new Lexer(SourceBuffer.open(Paths.get(source_path)), errorCollector);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            for (Token token = lexer.scan(); token.type != TokenType.EOF; token = lexer.scan()) {
+                if (bench == 0)
+                    System.out.println(token.line + ":" + token.column + " " + token);
+                tokens++;
+            }
         }
+        long elapsed = System.nanoTime() - begin;
 
         if (errorCollector.hasError()) {
             errorCollector.show();
+        } else if (bench > 0) {
+            System.out.printf("lex: %d runs, %d tokens/run, %.3f ms/run, %.0f tokens/s%n",
+                    runs, tokens / runs, elapsed / 1e6 / runs, tokens / (elapsed / 1e9));
         }
-        String name = file_name.substring(0, file_name.lastIndexOf("."));
-        String out_path = Paths.get(f.getParent(), name + ".il").toString();
+    }
+
+    private void runFile(String source_path, String engine, int bench, String profile_calls,
+                         int inline_budget, CallProfile inline_profile, int jit_threshold) {
+        File f = new File(source_path);
+        SourceBuffer source;
         try {
-            saveFile(out_path, il_generator.get_il_code());
+            source = SourceBuffer.open(Paths.get(source_path));
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
 
+        ErrorCollector errorCollector = new ErrorCollector(f.getName());
+
+        List<StmtNode> statements = parse(source, errorCollector);
+        if (statements == null)
+            return;
+
+        if (!engine.equals("interp") && !engine.equals("vm")) {
+            printUsage();
+            return;
+        }
 
+        /* Semantic Analysis, both engines rely on the static types */
+        Resolver resolver = new Resolver(errorCollector);
+        for (StmtNode stmt : statements) {
+            resolver.execute(stmt);
+        }
+        if (errorCollector.hasError()) {
+            errorCollector.show();
+            return;
+        }
+
+        Program program = null;
+        if (engine.equals("vm")) {
+            program = new BytecodeCompiler(errorCollector).compile(statements);
+            if (errorCollector.hasError()) {
+                errorCollector.show();
+                return;
+            }
+        }
+
+        // with --bench the program is run several times and only the execution is timed.
+        int runs = Math.max(bench, 1);
+        long begin = System.nanoTime();
+        Interpreter interpreter = null;
+        for (int i = 0; i < runs && !errorCollector.hasError(); i++) {
+            try {
+                if (program != null) {
+                    new VM(program).run();
+                } else {
+                    // every call is counted by the interpreter when profiling, none is inlined or compiled.
+                    interpreter = profile_calls != null
+                            ? new Interpreter(errorCollector, 0, null, -1)
+                            : new Interpreter(errorCollector, inline_budget, inline_profile, jit_threshold);
+                    interpreter.interpret(statements);
+                }
+            } catch (RuntimeError error) {
+                errorCollector.add(error);
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        if (profile_calls != null && interpreter != null) {
+            try {
+                interpreter.callProfile().save(profile_calls);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (errorCollector.hasError()) {
+            errorCollector.show();
+        } else if (bench > 0) {
+            System.out.printf("%s: %d runs, %.3f ms/run%n", engine, runs, elapsed / 1e6 / runs);
+        }
     }
 
     // region interpreter
@@ -178,44 +588,26 @@ public class Yan {
     }
 
     private void runInterpreter() throws IOException {
-        final Interpreter interpreter = new Interpreter();
+        ErrorCollector errorCollector = new ErrorCollector("<stdin>");
+        final Interpreter interpreter = new Interpreter(errorCollector);
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
         Date date = new Date();
         System.out.println("Yan 1.0.0 (default, "+date.toString()+")");
         while (true) {
             System.out.print(">>> ");
-            run(interpreter, readConsole(reader), "<stdin>");
+            run(interpreter, readConsole(reader), errorCollector);
         }
     }
 
-    private void run(Interpreter interpreter, String source, String file_name) {
-        ErrorCollector errorCollector = ErrorCollector.getInstance();
+    // errors are reported for every input, the collector is shared with the interpreter.
+    private void run(Interpreter interpreter, String source, ErrorCollector errorCollector) {
         errorCollector.clear();
-        errorCollector.setFile_name(file_name);
 
-        Vector<Token> tokens = new Vector<>();
         assert source != null;
-        SourceBuffer buff = new SourceBuffer(source);
-        Lexer lexer = new Lexer(buff);
-        Token token = lexer.scan();
-        while (token.type != TokenType.EOF) {
-            tokens.add(token);
-            token = lexer.scan();
-        }
-
-        if (errorCollector.hasError()) {
-            errorCollector.show();
+        List<StmtNode> statements = parse(new SourceBuffer(source), errorCollector);
+        if (statements == null)
             return;
-        }
-
-        Parser parser = new Parser(tokens);
-        List<StmtNode> statements = parser.parse();
-
-        if (errorCollector.hasError()) {
-            errorCollector.show();
-            return;
-        }
         interpreter.interpret(statements);
 
         if (errorCollector.hasError()) {
@@ -0,0 +1,116 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Basic block of a {@link CFG}.
+ *
+ * Commands are packed four ints each: the ordinal of the {@link ILOP}, then arg1, arg2 and
+ * result as operand ids, -1 if absent. Jumps keep the id of the target block in result,
+ * calls the argument count in arg2.
+ */
+class BasicBlock {
+    static final ILOP[] OPS = ILOP.values();
+    private static final int WIDTH = 4;
+
+    final int id;
+    final List<String> labels = new ArrayList<>();
+    private int[] code = new int[WIDTH * 8];
+    private int size = 0;
+
+    // phi functions: result, then one argument per predecessor
+    final List<int[]> phis = new ArrayList<>();
+
+    int next = -1;      // block executed after falling through the end, -1 if none
+    int target = -1;    // block jumped to by the last command, -1 if none
+    final List<Integer> preds = new ArrayList<>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(ILOP op, int arg1, int arg2, int result) {
+        insert(size, op, arg1, arg2, result);
+    }
+
+    void insert(int index, ILOP op, int arg1, int arg2, int result) {
+        if (WIDTH * (size + 1) > code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        System.arraycopy(code, WIDTH * index, code, WIDTH * (index + 1), WIDTH * (size - index));
+        code[WIDTH * index] = op.ordinal();
+        code[WIDTH * index + 1] = arg1;
+        code[WIDTH * index + 2] = arg2;
+        code[WIDTH * index + 3] = result;
+        size++;
+    }
+
+    void remove(int index) {
+        System.arraycopy(code, WIDTH * (index + 1), code, WIDTH * index, WIDTH * (size - index - 1));
+        size--;
+    }
+
+    ILOP op(int index) {
+        return OPS[code[WIDTH * index]];
+    }
+
+    int arg1(int index) {
+        return code[WIDTH * index + 1];
+    }
+
+    int arg2(int index) {
+        return code[WIDTH * index + 2];
+    }
+
+    int result(int index) {
+        return code[WIDTH * index + 3];
+    }
+
+    void setArg1(int index, int value) {
+        code[WIDTH * index + 1] = value;
+    }
+
+    void setArg2(int index, int value) {
+        code[WIDTH * index + 2] = value;
+    }
+
+    void setResult(int index, int value) {
+        code[WIDTH * index + 3] = value;
+    }
+
+    // whether arg1 and arg2 of the command are operands read by it
+    static boolean readsArgs(ILOP op) {
+        return op != ILOP.jmp && op != ILOP.call && op != ILOP.label;
+    }
+
+    // whether result of the command is an operand written by it
+    static boolean writesResult(ILOP op) {
+        switch (op) {
+            case jmp: case jf: case jt: case param: case ret: case print: case label:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // the last command if it is a jump or ret, -1 otherwise
+    int terminator() {
+        if (size == 0)
+            return -1;
+        return ILPass.endsBlock(op(size - 1)) ? size - 1 : -1;
+    }
+
+    List<Integer> successors() {
+        List<Integer> successors = new ArrayList<>(2);
+        if (next >= 0)
+            successors.add(next);
+        if (target >= 0)
+            successors.add(target);
+        return successors;
+    }
+}
@@ -0,0 +1,379 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Control flow graph of an IL function.
+ *
+ * The commands are split into {@link BasicBlock}s, with names replaced by ids of an
+ * {@link OperandTable} and labels by block ids. Blocks unreachable from the entry are
+ * dropped. {@link #lower()} writes the blocks back as commands of the function.
+ *
+ * Dominators are computed with the iterative algorithm of Cooper, Harvey and Kennedy
+ * over the reverse postorder of the blocks.
+ */
+class CFG {
+    final ILGen il_generator;
+    final ILGen.ILFunction function;
+    final OperandTable operands = new OperandTable();
+    final List<BasicBlock> blocks = new ArrayList<>();
+    // order the blocks are written in by lower()
+    final List<Integer> layout = new ArrayList<>();
+
+    // dominator tree, see dominators()
+    int[] idom;
+    List<List<Integer>> dom_children;
+    List<Set<Integer>> frontiers;
+    int[] rpo;
+
+    CFG(ILGen il_generator, ILGen.ILFunction function) {
+        this.il_generator = il_generator;
+        this.function = function;
+        build();
+        removeUnreachable();
+        computePreds();
+    }
+
+    BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    // region Construction
+
+    private void build() {
+        Map<String, Integer> label_blocks = new HashMap<>();
+        // (block, command) of the jumps, patched with the target block
+        List<int[]> jumps = new ArrayList<>();
+        List<String> jump_labels = new ArrayList<>();
+
+        // the entry is an empty block no jump goes to, it holds the definitions of the
+        // parameters and local variables coming from before the first command.
+        BasicBlock current = newBlock();
+        for (ILGen.Command cmd : function.commands) {
+            if (cmd.op == ILOP.label) {
+                if (current == null || current.size() > 0 || current == entry())
+                    current = append();
+                current.labels.add(cmd.arg1);
+                label_blocks.put(cmd.arg1, current.id);
+                continue;
+            }
+            if (current == null || current == entry())
+                current = append();
+
+            switch (cmd.op) {
+                case jmp:
+                case jf:
+                case jt:
+                    jumps.add(new int[]{current.id, current.size()});
+                    jump_labels.add(ILPass.target(cmd));
+                    current.add(cmd.op, cmd.op == ILOP.jmp ? -1 : operand(cmd.arg1), -1, -1);
+                    break;
+                case call:
+                    current.add(cmd.op, operands.id(cmd.arg1, OperandTable.FUNCTION, null),
+                            Integer.parseInt(cmd.arg2), operand(cmd.result));
+                    break;
+                default:
+                    current.add(cmd.op, operand(cmd.arg1), operand(cmd.arg2), operand(cmd.result));
+                    break;
+            }
+            if (ILPass.endsBlock(cmd.op))
+                current = null;
+        }
+
+        for (int i = 0; i < jumps.size(); i++) {
+            BasicBlock block = blocks.get(jumps.get(i)[0]);
+            int target = label_blocks.get(jump_labels.get(i));
+            block.setResult(jumps.get(i)[1], target);
+            block.target = target;
+        }
+    }
+
+    // a new block, following the last one if it falls through its end.
+    private BasicBlock append() {
+        BasicBlock previous = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        BasicBlock block = newBlock();
+        if (previous != null) {
+            ILOP op = previous.size() > 0 ? previous.op(previous.size() - 1) : null;
+            if (op != ILOP.jmp && op != ILOP.ret)
+                previous.next = block.id;
+        }
+        return block;
+    }
+
+    private int operand(String name) {
+        return operands.id(il_generator, function, name);
+    }
+
+    private void removeUnreachable() {
+        boolean[] reachable = new boolean[blocks.size()];
+        List<Integer> work = new ArrayList<>();
+        work.add(0);
+        reachable[0] = true;
+        while (!work.isEmpty()) {
+            BasicBlock block = blocks.get(work.remove(work.size() - 1));
+            for (int successor : block.successors()) {
+                if (!reachable[successor]) {
+                    reachable[successor] = true;
+                    work.add(successor);
+                }
+            }
+        }
+
+        int[] ids = new int[blocks.size()];
+        List<BasicBlock> kept = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            ids[block.id] = reachable[block.id] ? kept.size() : -1;
+            if (reachable[block.id])
+                kept.add(block);
+        }
+        blocks.clear();
+        for (BasicBlock old : kept) {
+            BasicBlock block = newBlock();
+            block.labels.addAll(old.labels);
+            for (int i = 0; i < old.size(); i++) {
+                ILOP op = old.op(i);
+                int result = ILPass.isJump(op) ? ids[old.result(i)] : old.result(i);
+                block.add(op, old.arg1(i), old.arg2(i), result);
+            }
+            block.next = old.next >= 0 ? ids[old.next] : -1;
+            block.target = old.target >= 0 ? ids[old.target] : -1;
+        }
+        layout.clear();
+        for (BasicBlock block : blocks)
+            layout.add(block.id);
+    }
+
+    void computePreds() {
+        for (BasicBlock block : blocks)
+            block.preds.clear();
+        for (BasicBlock block : blocks) {
+            for (int successor : block.successors())
+                blocks.get(successor).preds.add(block.id);
+        }
+    }
+
+    // endregion
+
+    // region Dominators
+
+    void dominators() {
+        int n = blocks.size();
+        rpo = reversePostorder();
+        int[] order = new int[n];
+        for (int i = 0; i < rpo.length; i++)
+            order[rpo[i]] = i;
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.length; i++) {
+                BasicBlock block = blocks.get(rpo[i]);
+                int new_idom = -1;
+                for (int pred : block.preds) {
+                    if (idom[pred] < 0)
+                        continue;
+                    new_idom = new_idom < 0 ? pred : intersect(pred, new_idom, order);
+                }
+                if (idom[block.id] != new_idom) {
+                    idom[block.id] = new_idom;
+                    changed = true;
+                }
+            }
+        }
+
+        dom_children = new ArrayList<>();
+        frontiers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            dom_children.add(new ArrayList<>());
+            frontiers.add(new HashSet<>());
+        }
+        for (int id : rpo) {
+            if (id != 0)
+                dom_children.get(idom[id]).add(id);
+        }
+        for (BasicBlock block : blocks) {
+            if (block.preds.size() < 2)
+                continue;
+            for (int pred : new HashSet<>(block.preds)) {
+                for (int runner = pred; runner != idom[block.id]; runner = idom[runner])
+                    frontiers.get(runner).add(block.id);
+            }
+        }
+    }
+
+    private int intersect(int a, int b, int[] order) {
+        while (a != b) {
+            while (order[a] > order[b])
+                a = idom[a];
+            while (order[b] > order[a])
+                b = idom[b];
+        }
+        return a;
+    }
+
+    private int[] reversePostorder() {
+        int n = blocks.size();
+        int[] postorder = new int[n];
+        int count = 0;
+        boolean[] visited = new boolean[n];
+        // explicit stack of (block, index of the next successor to visit)
+        List<int[]> stack = new ArrayList<>();
+        stack.add(new int[]{0, 0});
+        visited[0] = true;
+        while (!stack.isEmpty()) {
+            int[] top = stack.get(stack.size() - 1);
+            List<Integer> successors = blocks.get(top[0]).successors();
+            if (top[1] < successors.size()) {
+                int successor = successors.get(top[1]++);
+                if (!visited[successor]) {
+                    visited[successor] = true;
+                    stack.add(new int[]{successor, 0});
+                }
+            } else {
+                postorder[count++] = top[0];
+                stack.remove(stack.size() - 1);
+            }
+        }
+        int[] rpo = new int[count];
+        for (int i = 0; i < count; i++)
+            rpo[i] = postorder[count - 1 - i];
+        return rpo;
+    }
+
+    // whether block a dominates block b, dominators() must have been computed.
+    boolean dominates(int a, int b) {
+        while (true) {
+            if (a == b)
+                return true;
+            if (b == 0)
+                return false;
+            b = idom[b];
+        }
+    }
+
+    // endregion
+
+    // region Lowering
+
+    /**
+     * Replace the commands of the function with the blocks. New SSA versions of local
+     * variables are declared in the function.
+     */
+    void lower() {
+        Set<String> declared = new HashSet<>();
+        for (ILGen.ILVar var : function.vars)
+            declared.add(var.name);
+        for (int id = 0; id < operands.size(); id++) {
+            if (operands.kind(id) == OperandTable.LOCAL && declared.add(operands.name(id)))
+                function.vars.add(new ILGen.ILVar(operands.type(id), operands.name(id), null, false, false));
+        }
+
+        // blocks jumped to, or fallen through from a block not right before them, need a label.
+        for (int i = 0; i < layout.size(); i++) {
+            BasicBlock block = blocks.get(layout.get(i));
+            if (block.target >= 0)
+                label(blocks.get(block.target));
+            if (block.next >= 0 && (i + 1 == layout.size() || layout.get(i + 1) != block.next))
+                label(blocks.get(block.next));
+        }
+
+        Vector<ILGen.Command> commands = new Vector<>();
+        for (int i = 0; i < layout.size(); i++) {
+            BasicBlock block = blocks.get(layout.get(i));
+            if (!block.labels.isEmpty())
+                commands.add(new ILGen.Command(ILOP.label, block.labels.get(0), null, null));
+            if (!block.phis.isEmpty())
+                throw new IllegalStateException("lowering a CFG in SSA form");
+            for (int k = 0; k < block.size(); k++)
+                commands.add(command(block, k));
+            if (block.next >= 0 && (i + 1 == layout.size() || layout.get(i + 1) != block.next))
+                commands.add(new ILGen.Command(ILOP.jmp, blocks.get(block.next).labels.get(0), null, null));
+        }
+        function.commands = commands;
+    }
+
+    private String label(BasicBlock block) {
+        if (block.labels.isEmpty())
+            block.labels.add(il_generator.get_new_label());
+        return block.labels.get(0);
+    }
+
+    private ILGen.Command command(BasicBlock block, int index) {
+        ILOP op = block.op(index);
+        switch (op) {
+            case jmp:
+                return new ILGen.Command(op, label(blocks.get(block.result(index))), null, null);
+            case jf:
+            case jt:
+                return new ILGen.Command(op, name(block.arg1(index)), null, label(blocks.get(block.result(index))));
+            case call:
+                return new ILGen.Command(op, name(block.arg1(index)), String.valueOf(block.arg2(index)),
+                        name(block.result(index)));
+            default:
+                return new ILGen.Command(op, name(block.arg1(index)), name(block.arg2(index)), name(block.result(index)));
+        }
+    }
+
+    private String name(int id) {
+        return id < 0 ? null : operands.name(id);
+    }
+
+    // endregion
+
+    String toText() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[Begin CFG ").append(function.name).append("]\n");
+        for (int id : layout) {
+            BasicBlock block = blocks.get(id);
+            builder.append("B").append(id);
+            if (!block.labels.isEmpty())
+                builder.append(" ").append(block.labels);
+            builder.append(" preds ").append(blocks(block.preds));
+            if (idom != null)
+                builder.append(" idom B").append(idom[id]);
+            builder.append('\n');
+            for (int[] phi : block.phis) {
+                builder.append('\t').append(name(phi[0])).append(" = phi(");
+                for (int k = 1; k < phi.length; k++)
+                    builder.append(k > 1 ? ", " : "").append(name(phi[k]));
+                builder.append(")\n");
+            }
+            for (int k = 0; k < block.size(); k++) {
+                ILOP op = block.op(k);
+                if (ILPass.isJump(op))
+                    builder.append('\t').append(op).append(' ')
+                            .append(op == ILOP.jmp ? "" : name(block.arg1(k)) + ", ")
+                            .append('B').append(block.result(k)).append('\n');
+                else
+                    builder.append('\t').append(command(block, k)).append('\n');
+            }
+            if (block.next >= 0)
+                builder.append("\t-> B").append(block.next).append('\n');
+        }
+        builder.append("[End CFG ").append(function.name).append("]\n");
+        return builder.toString();
+    }
+
+    private static String blocks(List<Integer> ids) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < ids.size(); i++)
+            builder.append(i > 0 ? ", " : "").append('B').append(ids.get(i));
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,63 @@
+package compiler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Number of calls made at each call site, counted by the interpreter with --profile-calls.
+ *
+ * A site is the calling function ("@global" outside functions), the line of the call and
+ * the called function, so calls of the same function on one line share their count. The
+ * inliners only inline the hot sites of a profile, those making at least 1% of all calls.
+ *
+ * The file has a line "caller line callee calls" per site.
+ */
+public class CallProfile {
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+    private long total = 0;
+
+    public void add(String caller, int line, String callee, long calls) {
+        counts.merge(key(caller, line, callee), calls, Long::sum);
+        total += calls;
+    }
+
+    public long count(String caller, int line, String callee) {
+        return counts.getOrDefault(key(caller, line, callee), 0L);
+    }
+
+    public boolean isHot(String caller, int line, String callee) {
+        long count = count(caller, line, callee);
+        return count > 0 && count * 100 >= total;
+    }
+
+    public static CallProfile load(String path) throws IOException {
+        CallProfile profile = new CallProfile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 4 || fields[0].startsWith("#"))
+                    continue;
+                profile.add(fields[0], Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3]));
+            }
+        }
+        return profile;
+    }
+
+    public void save(String path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            writer.write("# caller line callee calls\n");
+            for (Map.Entry<String, Long> entry : counts.entrySet())
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+    }
+
+    private static String key(String caller, int line, String callee) {
+        return caller + " " + line + " " + callee;
+    }
+}
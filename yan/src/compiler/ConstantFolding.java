@@ -0,0 +1,202 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Constant folding and propagation inside basic blocks.
+ *
+ * Commands with constant operands are replaced by an assign of a new constant, variables
+ * assigned a constant are replaced by it until they are written again. Conditional jumps
+ * on a constant become a jmp or are dropped. Folding follows the interpreter: ints wrap at
+ * 32 bits and a division by a zero int is left to fail at run time.
+ */
+class ConstantFolding extends ILPass {
+    ConstantFolding(ILGen il_generator) {
+        super(il_generator);
+    }
+
+    @Override
+    String name() {
+        return "constant-folding";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        boolean changed = false;
+        // variable -> constant it holds
+        Map<String, String> known = new HashMap<>();
+
+        Iterator<ILGen.Command> iterator = function.commands.iterator();
+        while (iterator.hasNext()) {
+            ILGen.Command cmd = iterator.next();
+            if (cmd.op == ILOP.label) {
+                known.clear();
+                continue;
+            }
+
+            if (cmd.op != ILOP.jmp && cmd.op != ILOP.call) {
+                if (cmd.arg1 != null && known.containsKey(cmd.arg1)) {
+                    cmd.arg1 = known.get(cmd.arg1);
+                    changed = true;
+                }
+                if (cmd.arg2 != null && known.containsKey(cmd.arg2)) {
+                    cmd.arg2 = known.get(cmd.arg2);
+                    changed = true;
+                }
+            }
+
+            if (cmd.op == ILOP.jf || cmd.op == ILOP.jt) {
+                ILGen.ILVar cond = constant(function, cmd.arg1);
+                if (cond != null && cond.init_value instanceof Boolean) {
+                    if ((Boolean) cond.init_value == (cmd.op == ILOP.jt)) {
+                        cmd.op = ILOP.jmp;
+                        cmd.arg1 = null;
+                    } else {
+                        iterator.remove();
+                    }
+                    changed = true;
+                }
+            }
+
+            String value = fold(function, cmd);
+            if (value != null) {
+                cmd.op = ILOP.assign;
+                cmd.arg1 = value;
+                cmd.arg2 = null;
+                changed = true;
+            }
+
+            String def = def(cmd);
+            if (def != null) {
+                known.remove(def);
+                ILGen.ILVar constant = cmd.op == ILOP.assign ? constant(function, cmd.arg1) : null;
+                // a named variable converts the value to its own type.
+                if (constant != null && (isTmp(def) || var(function, def).type == constant.type))
+                    known.put(def, constant.name);
+            }
+            // the callee may write globals.
+            if (cmd.op == ILOP.call)
+                known.keySet().removeIf(name -> isGlobal(function, name));
+            if (endsBlock(cmd.op))
+                known.clear();
+        }
+        return changed;
+    }
+
+    // constant computed by the command, null if it can't be folded.
+    private String fold(ILGen.ILFunction function, ILGen.Command cmd) {
+        ILGen.ILVar a = constant(function, cmd.arg1);
+        ILGen.ILVar b = constant(function, cmd.arg2);
+        if (a == null || cmd.op == ILOP.assign || cmd.op == ILOP.jf || cmd.op == ILOP.jt || cmd.op == ILOP.param
+                || cmd.op == ILOP.ret || cmd.op == ILOP.print)
+            return null;
+
+        DataType type;
+        switch (cmd.op) {
+            case add:
+            case sub:
+            case multi:
+            case div:
+                if (b == null)
+                    return null;
+                type = DataType.implicitConversion(a.type, b.type);
+                if (type == DataType.FLOAT) {
+                    double x = toDouble(a), y = toDouble(b);
+                    switch (cmd.op) {
+                        case add: return constant(function, type, x + y);
+                        case sub: return constant(function, type, x - y);
+                        case multi: return constant(function, type, x * y);
+                        default: return constant(function, type, x / y);
+                    }
+                }
+                if (type != DataType.INT)
+                    return null;
+                int x = (int) toLong(a), y = (int) toLong(b);
+                switch (cmd.op) {
+                    case add: return constant(function, type, x + y);
+                    case sub: return constant(function, type, x - y);
+                    case multi: return constant(function, type, x * y);
+                    default: return y == 0 ? null : constant(function, type, x / y);
+                }
+
+            case and:
+            case or:
+                if (b == null || a.type != DataType.BOOL || b.type != DataType.BOOL)
+                    return null;
+                boolean p = (Boolean) a.init_value, q = (Boolean) b.init_value;
+                return constant(function, DataType.BOOL, cmd.op == ILOP.and ? p && q : p || q);
+
+            case equ:
+            case nequ:
+            case ge:
+            case g:
+            case l:
+            case le: {
+                if (b == null || !isNumber(a) || !isNumber(b))
+                    return null;
+                double u = toDouble(a), v = toDouble(b);
+                // NaN makes every comparison but != false.
+                if (Double.isNaN(u) || Double.isNaN(v))
+                    return constant(function, DataType.BOOL, cmd.op == ILOP.nequ);
+                int order = DataType.implicitConversion(a.type, b.type) == DataType.FLOAT
+                        ? (u < v ? -1 : u > v ? 1 : 0) : Long.compare(toLong(a), toLong(b));
+                boolean result;
+                switch (cmd.op) {
+                    case equ: result = order == 0; break;
+                    case nequ: result = order != 0; break;
+                    case ge: result = order >= 0; break;
+                    case g: result = order > 0; break;
+                    case l: result = order < 0; break;
+                    default: result = order <= 0; break;
+                }
+                return constant(function, DataType.BOOL, result);
+            }
+
+            case not:
+                return a.type == DataType.BOOL ? constant(function, DataType.BOOL, !(Boolean) a.init_value) : null;
+            case neg:
+                if (a.type == DataType.INT)
+                    return constant(function, DataType.INT, -(int) toLong(a));
+                return a.type == DataType.FLOAT ? constant(function, DataType.FLOAT, -toDouble(a)) : null;
+
+            case i2f:
+                return isNumber(a) ? constant(function, DataType.FLOAT, toDouble(a)) : null;
+            case f2i:
+                return a.type == DataType.FLOAT ? constant(function, DataType.INT, (int) toDouble(a)) : null;
+            case b2i:
+                return isNumber(a) ? constant(function, DataType.INT, (int) toLong(a)) : null;
+            case i2b:
+                return isNumber(a) ? constant(function, DataType.BOOL, toLong(a) != 0) : null;
+
+            default:
+                return null;
+        }
+    }
+
+    private String constant(ILGen.ILFunction function, DataType type, Object value) {
+        return il_generator.get_const(function, type, value);
+    }
+
+    private static boolean isNumber(ILGen.ILVar constant) {
+        return constant.type == DataType.INT || constant.type == DataType.FLOAT || constant.type == DataType.BOOL;
+    }
+
+    private static double toDouble(ILGen.ILVar constant) {
+        if (constant.init_value instanceof Double)
+            return (Double) constant.init_value;
+        return toLong(constant);
+    }
+
+    private static long toLong(ILGen.ILVar constant) {
+        Object value = constant.init_value;
+        if (value instanceof Boolean)
+            return (Boolean) value ? 1 : 0;
+        if (value instanceof Double)
+            return (long) (double) (Double) value;
+        return ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,108 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copy propagation inside basic blocks.
+ *
+ * After "assign a, b" uses of b read a until either is written again. A temporary only
+ * computed to be assigned to a variable by the next command is replaced by the variable,
+ * "add x, y, @tmp1; assign @tmp1, z" becomes "add x, y, z".
+ */
+class CopyPropagation extends ILPass {
+    CopyPropagation(ILGen il_generator) {
+        super(il_generator);
+    }
+
+    @Override
+    String name() {
+        return "copy-propagation";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        boolean changed = propagate(function);
+        return coalesce(function) || changed;
+    }
+
+    private boolean propagate(ILGen.ILFunction function) {
+        boolean changed = false;
+        DataType[] types = resultTypes(function);
+        // copy -> variable it was copied from
+        Map<String, String> copies = new HashMap<>();
+
+        for (int i = 0; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            if (cmd.op == ILOP.label) {
+                copies.clear();
+                continue;
+            }
+
+            if (cmd.op != ILOP.jmp && cmd.op != ILOP.call) {
+                if (cmd.arg1 != null && copies.containsKey(cmd.arg1)) {
+                    cmd.arg1 = copies.get(cmd.arg1);
+                    changed = true;
+                }
+                if (cmd.arg2 != null && copies.containsKey(cmd.arg2)) {
+                    cmd.arg2 = copies.get(cmd.arg2);
+                    changed = true;
+                }
+            }
+
+            String def = def(cmd);
+            if (def != null) {
+                copies.remove(def);
+                copies.values().removeIf(def::equals);
+                // a named variable converts the value to its own type.
+                if (cmd.op == ILOP.assign && !cmd.arg1.equals(def)
+                        && (isTmp(def) || var(function, def).type == types[i]))
+                    copies.put(def, cmd.arg1);
+            }
+            // the callee may write globals.
+            if (cmd.op == ILOP.call)
+                copies.entrySet().removeIf(entry ->
+                        isGlobal(function, entry.getKey()) || isGlobal(function, entry.getValue()));
+            if (endsBlock(cmd.op))
+                copies.clear();
+        }
+        return changed;
+    }
+
+    private boolean coalesce(ILGen.ILFunction function) {
+        boolean changed = false;
+        DataType[] types = resultTypes(function);
+
+        for (int i = 0; i + 1 < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            ILGen.Command next = function.commands.get(i + 1);
+            String def = def(cmd);
+            if (!isTmp(def) || next.op != ILOP.assign || !def.equals(next.arg1) || isTmp(next.result))
+                continue;
+            if (types[i] != var(function, next.result).type || isLiveAfter(function, def, i + 1))
+                continue;
+
+            cmd.result = next.result;
+            function.commands.remove(i + 1);
+            System.arraycopy(types, i + 2, types, i + 1, types.length - i - 2);
+            changed = true;
+        }
+        return changed;
+    }
+
+    // whether the temporary is read after the command before being written again.
+    static boolean isLiveAfter(ILGen.ILFunction function, String tmp, int index) {
+        for (int i = index + 1; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            if (cmd.op == ILOP.label)
+                return false;
+            if (uses(cmd).contains(tmp))
+                return true;
+            if (tmp.equals(def(cmd)) || endsBlock(cmd.op))
+                return false;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,121 @@
+package compiler;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Dead code elimination.
+ *
+ * Removes commands following a jmp or ret up to the next label, jumps to the next
+ * command, labels no jump goes to, pure commands whose result is never read and the
+ * constants no longer referenced.
+ */
+class DeadCodeElimination extends ILPass {
+    DeadCodeElimination(ILGen il_generator) {
+        super(il_generator);
+    }
+
+    @Override
+    String name() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        boolean changed = removeUnreachable(function);
+        changed |= removeJumps(function);
+        changed |= removeLabels(function);
+        changed |= removeDeadStores(function);
+        changed |= removeConstants(function);
+        return changed;
+    }
+
+    private boolean removeUnreachable(ILGen.ILFunction function) {
+        boolean changed = false;
+        boolean reachable = true;
+        Iterator<ILGen.Command> iterator = function.commands.iterator();
+        while (iterator.hasNext()) {
+            ILGen.Command cmd = iterator.next();
+            if (cmd.op == ILOP.label)
+                reachable = true;
+            if (!reachable) {
+                iterator.remove();
+                changed = true;
+            } else if (cmd.op == ILOP.jmp || cmd.op == ILOP.ret) {
+                reachable = false;
+            }
+        }
+        return changed;
+    }
+
+    // jumps to a label right after them
+    private boolean removeJumps(ILGen.ILFunction function) {
+        boolean changed = false;
+        for (int i = 0; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            if (!isJump(cmd.op))
+                continue;
+            for (int j = i + 1; j < function.commands.size() && function.commands.get(j).op == ILOP.label; j++) {
+                if (function.commands.get(j).arg1.equals(target(cmd))) {
+                    function.commands.remove(i--);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean removeLabels(ILGen.ILFunction function) {
+        Set<String> targets = new HashSet<>();
+        for (ILGen.Command cmd : function.commands) {
+            if (isJump(cmd.op))
+                targets.add(target(cmd));
+        }
+        return function.commands.removeIf(cmd -> cmd.op == ILOP.label && !targets.contains(cmd.arg1));
+    }
+
+    private boolean removeDeadStores(ILGen.ILFunction function) {
+        // named variables of the function never read
+        Set<String> read = new HashSet<>();
+        for (ILGen.Command cmd : function.commands)
+            read.addAll(uses(cmd));
+
+        boolean changed = false;
+        for (int i = function.commands.size() - 1; i >= 0; i--) {
+            ILGen.Command cmd = function.commands.get(i);
+            String def = def(cmd);
+            if (def == null || !isPure(cmd) || mayFail(function, cmd))
+                continue;
+            boolean dead = isTmp(def) ? !CopyPropagation.isLiveAfter(function, def, i)
+                    : !isGlobal(function, def) && !read.contains(def);
+            if (dead) {
+                function.commands.remove(i);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // an int division by zero is an error at run time.
+    private boolean mayFail(ILGen.ILFunction function, ILGen.Command cmd) {
+        if (cmd.op != ILOP.div)
+            return false;
+        ILGen.ILVar divisor = constant(function, cmd.arg2);
+        return divisor == null || divisor.init_value instanceof Integer && (Integer) divisor.init_value == 0;
+    }
+
+    private boolean removeConstants(ILGen.ILFunction function) {
+        Set<String> referenced = new HashSet<>();
+        for (ILGen.ILFunction func : il_generator.functions) {
+            for (ILGen.Command cmd : func.commands)
+                referenced.addAll(uses(cmd));
+            for (ILGen.ILVar var : func.vars) {
+                if (var.init_value instanceof String && !var.is_constant)
+                    referenced.add((String) var.init_value);
+            }
+        }
+        return function.vars.removeIf(var -> var.is_constant && !referenced.contains(var.name));
+    }
+}
@@ -1,11 +1,65 @@
 package compiler;
 
+import frontend.DataType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lower the IL of {@link ILGen} into x86-64 GNU assembler (Intel syntax, System V ABI).
+ *
+ * The code of @global becomes the C main function, Yan functions are prefixed with
+ * "yan_fn_" and globals with "yan_gv_" so they can't clash with the C library. Named
+ * variables live in stack slots of the frame, temporaries are kept in registers by
+ * {@link LinearScan}. All values take 8 bytes: ints are computed in 32 bits and kept sign
+ * extended, bools are 0 or 1, floats are doubles and strings are pointers to C strings.
+ *
+ * The output is linked with the C library, e.g. "gcc -o program program.s".
+ */
 public class IL2Asm {
     ILGen il_generator;
     String filename;
 
     StringBuilder asm_code;
 
+    private static final String[] INT_ARGS = {"rdi", "rsi", "rdx", "rcx", "r8", "r9"};
+    private static final int FLOAT_ARGS = 8;
+
+    // operand kinds
+    private static final int REG = 0, XMM = 1, MEM = 2, IMM = 3, ADDR = 4;
+
+    // region Inner Class
+
+    private static class Operand {
+        final int kind;
+        final String text;
+        final DataType type;
+
+        Operand(int kind, String text, DataType type) {
+            this.kind = kind;
+            this.text = text;
+            this.type = type;
+        }
+    }
+
+    // endregion
+
+    private final Map<String, ILGen.ILFunction> functions = new HashMap<>();
+    private final Map<String, ILGen.ILVar> globals = new HashMap<>();
+    private final StringBuilder rodata = new StringBuilder();
+    private final Map<String, String> literals = new HashMap<>();
+    private int next_label = 0;
+
+    // state of the function being translated
+    private ILGen.ILFunction function;
+    private String symbol;
+    private Map<String, ILGen.ILVar> vars;
+    private Map<String, Integer> slots;
+    private LinearScan allocation;
+    private int saved, spill_base, pending;
+
     public IL2Asm(ILGen il_generator, String filename) {
         this.il_generator = il_generator;
         this.filename = filename;
@@ -13,38 +67,761 @@ public class IL2Asm {
     }
 
     public String toAsm() {
-        emit(".file","\"" + filename + "\"");
+        emit(".file", "\"" + filename + "\"");
+        emit(".intel_syntax", "noprefix");
+        for (ILGen.ILFunction func : il_generator.functions)
+            functions.put(func.name, func);
+
         translateGlobal();
         emit(".text");
-        for(int i=0; i<il_generator.functions.size()-1; i++) {
+        for (int i = 1; i < il_generator.functions.size(); i++)
             translateFunction(il_generator.functions.get(i));
+        translateFunction(il_generator.functions.firstElement());
+        translateRuntime();
+
+        if (rodata.length() > 0) {
+            emit(".section", ".rodata");
+            asm_code.append(rodata);
         }
+        emit(".section", ".note.GNU-stack,\"\",@progbits");
         return asm_code.toString();
     }
 
+    private void translateGlobal() {
+        ILGen.ILFunction global = il_generator.functions.firstElement();
+        Map<String, ILGen.ILVar> constants = new HashMap<>();
+        for (ILGen.ILVar var : global.vars) {
+            if (var.is_constant)
+                constants.put(var.name, var);
+        }
+        List<ILGen.ILVar> data = new ArrayList<>();
+        for (ILGen.ILVar var : global.vars) {
+            if (var.is_constant || globals.containsKey(var.name))
+                continue;
+            globals.put(var.name, var);
+            data.add(var);
+        }
+        if (data.isEmpty())
+            return;
+
+        emit(".data");
+        emit(".p2align", "3");
+        for (ILGen.ILVar var : data) {
+            ILGen.ILVar init = var.init_value instanceof String ? constants.get(var.init_value) : null;
+            emitLabel(global(var.name));
+            if (init != null && init.type == var.type)
+                emit(".quad", dataValue(init.type, init.init_value));
+            else
+                emit(".quad", defaultValue(var.type));
+        }
+    }
+
+    // region Function
+
     private void translateFunction(ILGen.ILFunction ilFunction) {
-        emit(".global", ilFunction.name);
-        emit(".type", ilFunction.name, "@function");
-        emitLabel(ilFunction.name);
-        emit("pushq", "%rbp");
-        emit("movq", "rsp", "rbp");
+        function = ilFunction;
+        boolean is_main = ilFunction == il_generator.functions.firstElement();
+        symbol = is_main ? "main" : function(ilFunction.name);
+        vars = new HashMap<>();
+        slots = new HashMap<>();
+        pending = 0;
+
+        // globals are the variables of main, the others get a stack slot.
+        List<ILGen.ILVar> params = new ArrayList<>();
+        List<ILGen.ILVar> locals = new ArrayList<>();
+        for (ILGen.ILVar var : ilFunction.vars) {
+            if (var.is_constant) {
+                vars.put(var.name, var);
+            } else if (!is_main && !vars.containsKey(var.name)) {
+                vars.put(var.name, var);
+                slots.put(var.name, slots.size());
+                (var.is_param ? params : locals).add(var);
+            }
+        }
+
+        allocation = new LinearScan(ilFunction, this::typeOf, name -> functions.get(name).return_type);
+        saved = allocation.callee_saved.size();
+        spill_base = slots.size();
+        int frame = 8 * (spill_base + allocation.spill_slots);
+        // rsp is aligned to 16 bytes after pushing rbp.
+        if ((8 * saved + frame) % 16 != 0)
+            frame += 8;
+
+        emit(".globl", symbol);
+        emit(".type", symbol + ", @function");
+        emit(".p2align", "4, 0x90");
+        emitLabel(symbol);
+        emit("push", "rbp");
+        emit("mov", "rbp", "rsp");
+        for (String register : allocation.callee_saved)
+            emit("push", register);
+        if (frame > 0)
+            emit("sub", "rsp", String.valueOf(frame));
 
         // parameters
+        int ints = 0, floats = 0;
+        for (ILGen.ILVar var : params) {
+            if (var.type == DataType.FLOAT) {
+                if (floats == FLOAT_ARGS)
+                    throw new RuntimeException("too many float parameters in " + ilFunction.name);
+                emit("movsd", slot(slots.get(var.name)), "xmm" + floats++);
+            } else {
+                if (ints == INT_ARGS.length)
+                    throw new RuntimeException("too many parameters in " + ilFunction.name);
+                emit("mov", slot(slots.get(var.name)), INT_ARGS[ints++]);
+            }
+        }
 
-        // local variables
+        // local variables, initialized with their constant or the default value
+        for (ILGen.ILVar var : locals) {
+            ILGen.ILVar init = var.init_value instanceof String ? vars.get(var.init_value) : null;
+            if (init != null && init.is_constant && init.type == var.type)
+                load(constantOperand(init.type, init.init_value));
+            else
+                load(constantOperand(var.type, null));
+            store(new Operand(MEM, slot(slots.get(var.name)), var.type), var.type);
+        }
 
         // commands
+        for (int i = 0; i < ilFunction.commands.size(); i++)
+            translate(ilFunction.commands.get(i), i);
+
+        // falling off the end of the function
+        if (is_main || ilFunction.return_type == null)
+            emit("xor", "eax", "eax");
+        else
+            load(constantOperand(ilFunction.return_type, null));
 
-        emit("leaveq");
-        emit("retq");
+        emitLabel(".L" + symbol + "_ret");
+        if (saved > 0) {
+            emit("lea", "rsp", "[rbp - " + 8 * saved + "]");
+            List<String> registers = new ArrayList<>(allocation.callee_saved);
+            for (int i = registers.size() - 1; i >= 0; i--)
+                emit("pop", registers.get(i));
+        } else if (frame > 0) {
+            emit("mov", "rsp", "rbp");
+        }
+        emit("pop", "rbp");
+        emit("ret");
+        emit(".size", symbol + ", .-" + symbol);
     }
 
-    private void translateGlobal() {
-        
+    private void translate(ILGen.Command cmd, int index) {
+        // arguments of labels, jumps and calls are names
+        boolean named = cmd.op == ILOP.label || cmd.op == ILOP.jmp || cmd.op == ILOP.call;
+        Operand a = named || cmd.arg1 == null ? null : operand(cmd.arg1, allocation.arg1[index]);
+        Operand b = named || cmd.arg2 == null ? null : operand(cmd.arg2, allocation.arg2[index]);
+        Operand result = null;
+        if (allocation.result[index] != null)
+            result = operand(cmd.result, allocation.result[index]);
+        else if (cmd.result != null && !LinearScan.isTmp(cmd.result)
+                && cmd.op != ILOP.jf && cmd.op != ILOP.jt && cmd.op != ILOP.jmp)
+            result = operand(cmd.result, null);
+
+        DataType type;
+        switch (cmd.op) {
+            case add:
+            case sub:
+            case multi:
+            case div:
+                type = DataType.implicitConversion(a.type, b.type);
+                if (type == DataType.FLOAT) {
+                    loadFloat("xmm0", a);
+                    loadFloat("xmm1", b);
+                    switch (cmd.op) {
+                        case add: emit("addsd", "xmm0", "xmm1"); break;
+                        case sub: emit("subsd", "xmm0", "xmm1"); break;
+                        case multi: emit("mulsd", "xmm0", "xmm1"); break;
+                        default: emit("divsd", "xmm0", "xmm1"); break;
+                    }
+                } else {
+                    loadInt("rax", a);
+                    loadInt("rcx", b);
+                    switch (cmd.op) {
+                        case add: emit("add", "eax", "ecx"); break;
+                        case sub: emit("sub", "eax", "ecx"); break;
+                        case multi: emit("imul", "eax", "ecx"); break;
+                        default: divide(); break;
+                    }
+                    emit("movsxd", "rax", "eax");
+                }
+                store(result, type);
+                break;
+
+            case and:
+            case or:
+                loadInt("rax", a);
+                loadInt("rcx", b);
+                emit(cmd.op == ILOP.and ? "and" : "or", "rax", "rcx");
+                store(result, a.type);
+                break;
+
+            case equ:
+            case nequ:
+            case ge:
+            case g:
+            case l:
+            case le:
+                compare(cmd.op, a, b);
+                store(result, DataType.BOOL);
+                break;
+
+            case not:
+                loadInt("rax", a);
+                emit("test", "rax", "rax");
+                emit("sete", "al");
+                emit("movzx", "eax", "al");
+                store(result, DataType.BOOL);
+                break;
+            case neg:
+                if (a.type == DataType.FLOAT) {
+                    loadFloat("xmm0", a);
+                    emit("movq", "rax", "xmm0");
+                    emit("btc", "rax", "63");
+                    emit("movq", "xmm0", "rax");
+                } else {
+                    loadInt("rax", a);
+                    emit("neg", "eax");
+                    emit("movsxd", "rax", "eax");
+                }
+                store(result, a.type);
+                break;
+
+            // conversions are done by storing into the result of another type.
+            case assign:
+            case i2f:
+            case f2i:
+            case b2i:
+            case i2b:
+                load(a);
+                store(result, a.type);
+                break;
+
+            case param:
+                push(a);
+                break;
+            case call:
+                call(cmd, result);
+                break;
+            case ret:
+                if (function == il_generator.functions.firstElement() || function.return_type == null) {
+                    emit("xor", "eax", "eax");
+                } else if (a == null) {
+                    load(constantOperand(function.return_type, null));
+                } else {
+                    load(a);
+                    convert(a.type, function.return_type);
+                }
+                emit("jmp", ".L" + symbol + "_ret");
+                break;
+
+            case jf:
+            case jt:
+                branch(a, cmd.op == ILOP.jt, label(cmd.result));
+                break;
+            case jmp:
+                // the target is the result of jumps of an if and the argument of the others.
+                emit("jmp", label(cmd.result != null ? cmd.result : cmd.arg1));
+                break;
+            case label:
+                emitLabel(label(cmd.arg1));
+                break;
+
+            case print:
+                print(a);
+                break;
+
+            default:
+                throw new RuntimeException("unsupported IL command " + cmd);
+        }
     }
 
-    private void emit(String inst, String src, String des) {
-        emit(inst + "\t" + src + ", " + des);
+    // eax = eax / ecx
+    private void divide() {
+        int n = next_label++;
+        emit("test", "ecx", "ecx");
+        emit("je", "yan_div_zero");
+        // INT_MIN / -1 traps in idiv.
+        emit("cmp", "ecx", "-1");
+        emit("je", ".Lneg" + n);
+        emit("cdq");
+        emit("idiv", "ecx");
+        emit("jmp", ".Ldiv" + n);
+        emitLabel(".Lneg" + n);
+        emit("neg", "eax");
+        emitLabel(".Ldiv" + n);
+    }
+
+    private void compare(ILOP op, Operand a, Operand b) {
+        DataType type = DataType.implicitConversion(a.type, b.type);
+        if (type != DataType.FLOAT) {
+            loadInt("rax", a);
+            loadInt("rcx", b);
+            emit("cmp", "rax", "rcx");
+            switch (op) {
+                case l: emit("setl", "al"); break;
+                case le: emit("setle", "al"); break;
+                case g: emit("setg", "al"); break;
+                case ge: emit("setge", "al"); break;
+                case equ: emit("sete", "al"); break;
+                default: emit("setne", "al"); break;
+            }
+        } else {
+            loadFloat("xmm0", a);
+            loadFloat("xmm1", b);
+            // ucomisd sets the carry flag for NaN, only != is true then.
+            switch (op) {
+                case l: emit("ucomisd", "xmm1", "xmm0"); emit("seta", "al"); break;
+                case le: emit("ucomisd", "xmm1", "xmm0"); emit("setae", "al"); break;
+                case g: emit("ucomisd", "xmm0", "xmm1"); emit("seta", "al"); break;
+                case ge: emit("ucomisd", "xmm0", "xmm1"); emit("setae", "al"); break;
+                case equ:
+                    emit("ucomisd", "xmm0", "xmm1");
+                    emit("sete", "al");
+                    emit("setnp", "cl");
+                    emit("and", "al", "cl");
+                    break;
+                default:
+                    emit("ucomisd", "xmm0", "xmm1");
+                    emit("setne", "al");
+                    emit("setp", "cl");
+                    emit("or", "al", "cl");
+                    break;
+            }
+        }
+        emit("movzx", "eax", "al");
+    }
+
+    private void branch(Operand cond, boolean if_true, String label) {
+        switch (cond.kind) {
+            case IMM:
+                if ((Long.parseLong(cond.text) != 0) == if_true)
+                    emit("jmp", label);
+                return;
+            case REG:
+                emit("test", cond.text, cond.text);
+                break;
+            default:
+                emit("cmp", cond.text, "0");
+                break;
+        }
+        emit(if_true ? "jne" : "je", label);
+    }
+
+    // arguments are pushed on the stack, and popped into the argument registers at the call.
+    private void push(Operand value) {
+        switch (value.kind) {
+            case XMM:
+                emit("sub", "rsp", "8");
+                emit("movsd", "qword ptr [rsp]", value.text);
+                break;
+            case IMM:
+                long imm = Long.parseLong(value.text);
+                if (imm == (int) imm) {
+                    emit("push", value.text);
+                } else {
+                    loadInt("rax", value);
+                    emit("push", "rax");
+                }
+                break;
+            case ADDR:
+                loadInt("rax", value);
+                emit("push", "rax");
+                break;
+            default:
+                emit("push", value.text);
+                break;
+        }
+        pending++;
+    }
+
+    private void call(ILGen.Command cmd, Operand result) {
+        ILGen.ILFunction callee = functions.get(cmd.arg1);
+        int count = callee.param_types.size();
+        String[] registers = new String[count];
+        int ints = 0, floats = 0;
+        for (int i = 0; i < count; i++) {
+            if (callee.param_types.get(i) == DataType.FLOAT) {
+                if (floats == FLOAT_ARGS)
+                    throw new RuntimeException("too many float parameters in " + callee.name);
+                registers[i] = "xmm" + floats++;
+            } else {
+                if (ints == INT_ARGS.length)
+                    throw new RuntimeException("too many parameters in " + callee.name);
+                registers[i] = INT_ARGS[ints++];
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (registers[i].startsWith("xmm")) {
+                emit("movsd", registers[i], "qword ptr [rsp]");
+                emit("add", "rsp", "8");
+            } else {
+                emit("pop", registers[i]);
+            }
+        }
+        pending -= count;
+
+        callAligned(function(callee.name));
+        if (callee.return_type != null && result != null)
+            store(result, callee.return_type);
+    }
+
+    private void print(Operand value) {
+        switch (value.type) {
+            case INT:
+                loadInt("rsi", value);
+                emit("lea", "rdi", "[rip + .Lfmt_int]");
+                emit("xor", "eax", "eax");
+                callAligned("printf@PLT");
+                break;
+            case FLOAT:
+                loadFloat("xmm0", value);
+                callAligned("yan_print_float");
+                break;
+            case BOOL:
+                loadInt("rax", value);
+                emit("lea", "rdi", "[rip + .Lstr_true]");
+                emit("lea", "rcx", "[rip + .Lstr_false]");
+                emit("test", "rax", "rax");
+                emit("cmove", "rdi", "rcx");
+                callAligned("puts@PLT");
+                break;
+            default:
+                loadInt("rdi", value);
+                callAligned("puts@PLT");
+                break;
+        }
+    }
+
+    // calls need rsp aligned to 16 bytes, which arguments pushed for an outer call may break.
+    private void callAligned(String target) {
+        if (pending % 2 != 0)
+            emit("sub", "rsp", "8");
+        emit("call", target);
+        if (pending % 2 != 0)
+            emit("add", "rsp", "8");
+    }
+
+    // endregion
+
+    // region Runtime
+
+    private void translateRuntime() {
+        literal(".Lfmt_int", "%d\\n");
+        literal(".Lfmt_fixed", "%.*f");
+        literal(".Lfmt_sci", "%.*e");
+        literal(".Lfmt_java_sci", "%s%sE%d\\n");
+        literal(".Lstr_true", "true");
+        literal(".Lstr_false", "false");
+        literal(".Lstr_empty", "");
+        literal(".Lstr_dot_zero", ".0");
+        literal(".Lstr_nan", "NaN");
+        literal(".Lstr_inf", "Infinity");
+        literal(".Lstr_neg_inf", "-Infinity");
+        literal(".Lstr_div_zero", "division by zero.");
+        String min = constant(DataType.FLOAT, 1e-3);
+        String max = constant(DataType.FLOAT, 1e7);
+        String inf = constant(DataType.FLOAT, Double.POSITIVE_INFINITY);
+
+        emit(".p2align", "4, 0x90");
+        emitLabel("yan_div_zero");
+        emit("and", "rsp", "-16");
+        emit("lea", "rdi", "[rip + .Lstr_div_zero]");
+        emit("call", "puts@PLT");
+        emit("mov", "edi", "1");
+        emit("call", "exit@PLT");
+
+        // print a double like Java does: the fewest digits that read back as the same value,
+        // in plain notation from 1e-3 to 1e7 and as "1.5E-5" outside.
+        emit(".p2align", "4, 0x90");
+        emitLabel("yan_print_float");
+        emit("push", "rbp");
+        emit("mov", "rbp", "rsp");
+        emit("push", "rbx");
+        emit("push", "r12");
+        emit("sub", "rsp", "80");
+        emit("movsd", "qword ptr [rbp - 24]", "xmm0");
+        emit("movq", "rax", "xmm0");
+        emit("btr", "rax", "63");
+        emit("movq", "xmm1", "rax");
+        emit("ucomisd", "xmm1", "xmm1");
+        emit("jp", ".Lpf_nan");
+        emit("ucomisd", "xmm1", "qword ptr [rip + " + inf + "]");
+        emit("je", ".Lpf_inf");
+        emit("mov", "ebx", "1");
+        emit("lea", "r12", "[rip + .Lfmt_fixed]");
+        emit("xorpd", "xmm2", "xmm2");
+        emit("ucomisd", "xmm1", "xmm2");
+        emit("je", ".Lpf_loop");
+        emit("ucomisd", "xmm1", "qword ptr [rip + " + min + "]");
+        emit("jb", ".Lpf_sci");
+        emit("ucomisd", "xmm1", "qword ptr [rip + " + max + "]");
+        emit("jb", ".Lpf_loop");
+        emitLabel(".Lpf_sci");
+        emit("xor", "ebx", "ebx");
+        emit("lea", "r12", "[rip + .Lfmt_sci]");
+        emitLabel(".Lpf_loop");
+        emit("lea", "rdi", "[rbp - 96]");
+        emit("mov", "esi", "64");
+        emit("mov", "rdx", "r12");
+        emit("mov", "ecx", "ebx");
+        emit("movsd", "xmm0", "qword ptr [rbp - 24]");
+        emit("mov", "eax", "1");
+        emit("call", "snprintf@PLT");
+        emit("cmp", "ebx", "20");
+        emit("jge", ".Lpf_found");
+        emit("lea", "rdi", "[rbp - 96]");
+        emit("xor", "esi", "esi");
+        emit("call", "strtod@PLT");
+        emit("ucomisd", "xmm0", "qword ptr [rbp - 24]");
+        emit("jp", ".Lpf_next");
+        emit("je", ".Lpf_found");
+        emitLabel(".Lpf_next");
+        emit("inc", "ebx");
+        emit("jmp", ".Lpf_loop");
+        emitLabel(".Lpf_found");
+        emit("lea", "rdi", "[rbp - 96]");
+        emit("mov", "esi", "101");
+        emit("call", "strchr@PLT");
+        emit("test", "rax", "rax");
+        emit("jne", ".Lpf_exponent");
+        emit("lea", "rdi", "[rbp - 96]");
+        emit("call", "puts@PLT");
+        emit("jmp", ".Lpf_done");
+        // "1.5e-05" is printed as "1.5E-5", "1e+08" as "1.0E8"
+        emitLabel(".Lpf_exponent");
+        emit("mov", "byte ptr [rax]", "0");
+        emit("lea", "rdi", "[rax + 1]");
+        emit("xor", "esi", "esi");
+        emit("mov", "edx", "10");
+        emit("call", "strtol@PLT");
+        emit("mov", "rbx", "rax");
+        emit("lea", "rdi", "[rbp - 96]");
+        emit("mov", "esi", "46");
+        emit("call", "strchr@PLT");
+        emit("lea", "rdx", "[rip + .Lstr_empty]");
+        emit("lea", "rcx", "[rip + .Lstr_dot_zero]");
+        emit("test", "rax", "rax");
+        emit("cmove", "rdx", "rcx");
+        emit("lea", "rdi", "[rip + .Lfmt_java_sci]");
+        emit("lea", "rsi", "[rbp - 96]");
+        emit("mov", "ecx", "ebx");
+        emit("xor", "eax", "eax");
+        emit("call", "printf@PLT");
+        emit("jmp", ".Lpf_done");
+        emitLabel(".Lpf_nan");
+        emit("lea", "rdi", "[rip + .Lstr_nan]");
+        emit("call", "puts@PLT");
+        emit("jmp", ".Lpf_done");
+        emitLabel(".Lpf_inf");
+        emit("lea", "rdi", "[rip + .Lstr_inf]");
+        emit("lea", "rcx", "[rip + .Lstr_neg_inf]");
+        emit("cmp", "qword ptr [rbp - 24]", "0");
+        emit("cmovl", "rdi", "rcx");
+        emit("call", "puts@PLT");
+        emitLabel(".Lpf_done");
+        emit("mov", "rbx", "qword ptr [rbp - 8]");
+        emit("mov", "r12", "qword ptr [rbp - 16]");
+        emit("leave");
+        emit("ret");
+    }
+
+    private void literal(String label, String value) {
+        rodata.append(label).append(":\n");
+        rodata.append("\t.string\t\"").append(value).append("\"\n");
+    }
+
+    // endregion
+
+    // region Operands
+
+    private Operand operand(String name, LinearScan.Interval value) {
+        if (value != null) {
+            if (value.register != null)
+                return new Operand(value.isFloat() ? XMM : REG, value.register, value.type);
+            return new Operand(MEM, slot(spill_base + value.slot), value.type);
+        }
+        ILGen.ILVar var = vars.get(name);
+        if (var != null && var.is_constant)
+            return constantOperand(var.type, var.init_value);
+        if (var != null)
+            return new Operand(MEM, slot(slots.get(name)), var.type);
+        var = globals.get(name);
+        if (var == null)
+            throw new RuntimeException("undefined IL variable " + name);
+        return new Operand(MEM, "qword ptr [rip + " + global(name) + "]", var.type);
+    }
+
+    // a null value is the default value of the type.
+    private Operand constantOperand(DataType type, Object value) {
+        switch (type) {
+            case FLOAT:
+                return new Operand(MEM, "qword ptr [rip + " + constant(type, value == null ? 0.0 : value) + "]", type);
+            case STRING:
+                return new Operand(ADDR, constant(type, value == null ? "" : value), type);
+            default:
+                return new Operand(IMM, value == null ? "0" : constant(type, value), type);
+        }
+    }
+
+    // immediate of an int or bool, label of a float or string in .rodata
+    private String constant(DataType type, Object value) {
+        switch (type) {
+            case INT:
+                return String.valueOf(value);
+            case BOOL:
+                return (Boolean) value ? "1" : "0";
+            case FLOAT: {
+                long bits = Double.doubleToRawLongBits((Double) value);
+                return literals.computeIfAbsent("F" + bits, k -> {
+                    String label = ".LC" + literals.size();
+                    rodata.append("\t.p2align\t3\n");
+                    rodata.append(label).append(":\n");
+                    rodata.append("\t.quad\t").append(bits).append("\t# double ").append(value).append("\n");
+                    return label;
+                });
+            }
+            case STRING:
+                return literals.computeIfAbsent("S" + value, k -> {
+                    String label = ".LC" + literals.size();
+                    literal(label, escape((String) value));
+                    return label;
+                });
+            default:
+                throw new RuntimeException("unsupported constant " + value);
+        }
+    }
+
+    // the value itself in .data, constant() gives the label of floats instead.
+    private String dataValue(DataType type, Object value) {
+        if (type == DataType.FLOAT)
+            return Double.doubleToRawLongBits((Double) value) + "\t# double " + value;
+        return constant(type, value);
+    }
+
+    private String defaultValue(DataType type) {
+        switch (type) {
+            case FLOAT: return "0";
+            case STRING: return constant(type, "");
+            default: return "0";
+        }
+    }
+
+    private DataType typeOf(String name) {
+        ILGen.ILVar var = vars.get(name);
+        if (var == null)
+            var = globals.get(name);
+        if (var == null)
+            throw new RuntimeException("undefined IL variable " + name);
+        return var.type;
+    }
+
+    // load an int, bool or string into a general purpose register.
+    private void loadInt(String register, Operand value) {
+        switch (value.kind) {
+            case IMM:
+                if (value.text.equals("0"))
+                    emit("xor", reg32(register), reg32(register));
+                else
+                    emit("mov", register, value.text);
+                break;
+            case ADDR:
+                emit("lea", register, "[rip + " + value.text + "]");
+                break;
+            default:
+                if (!value.text.equals(register))
+                    emit("mov", register, value.text);
+                break;
+        }
+    }
+
+    // load a float into an xmm register, converting ints and bools.
+    private void loadFloat(String register, Operand value) {
+        if (value.type != DataType.FLOAT) {
+            loadInt("rax", value);
+            emit("cvtsi2sd", register, "rax");
+        } else if (!value.text.equals(register)) {
+            emit("movsd", register, value.text);
+        }
+    }
+
+    // load a value into rax, or xmm0 for floats.
+    private void load(Operand value) {
+        if (value.type == DataType.FLOAT)
+            loadFloat("xmm0", value);
+        else
+            loadInt("rax", value);
+    }
+
+    // store rax, or xmm0 for floats, converting it to the type of the destination.
+    private void store(Operand dest, DataType type) {
+        convert(type, dest.type);
+        if (dest.type == DataType.FLOAT)
+            emit("movsd", dest.text, "xmm0");
+        else
+            emit("mov", dest.text, "rax");
+    }
+
+    private void convert(DataType from, DataType to) {
+        if (from == to)
+            return;
+        if ((from == DataType.INT || from == DataType.BOOL) && to == DataType.FLOAT) {
+            emit("cvtsi2sd", "xmm0", "rax");
+        } else if (from == DataType.FLOAT && to == DataType.INT) {
+            emit("cvttsd2si", "eax", "xmm0");
+            emit("movsxd", "rax", "eax");
+        } else if (from == DataType.BOOL && to == DataType.INT) {
+            return;
+        } else if (from == DataType.INT && to == DataType.BOOL) {
+            emit("test", "rax", "rax");
+            emit("setne", "al");
+            emit("movzx", "eax", "al");
+        } else {
+            throw new RuntimeException("invalid conversion " + from + " " + to);
+        }
+    }
+
+    private String slot(int index) {
+        return "qword ptr [rbp - " + (8 * saved + 8 * (index + 1)) + "]";
+    }
+
+    private static String reg32(String register) {
+        if (Character.isDigit(register.charAt(1)))
+            return register + "d";
+        return "e" + register.substring(1);
+    }
+
+    private static String function(String name) {
+        return "yan_fn_" + name;
+    }
+
+    // '#' starts a comment in GNU assembler, '@' a symbol type
+    private static String global(String name) {
+        return "yan_gv_" + name.replace('#', '.').replace('@', '.');
+    }
+
+    private static String label(String name) {
+        return ".L" + name.substring(1);
+    }
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\t': builder.append("\\t"); break;
+                default: builder.append(c); break;
+            }
+        }
+        return builder.toString();
+    }
+
+    // endregion
+
+    private void emit(String inst, String des, String src) {
+        emit(inst + "\t" + des + ", " + src);
     }
 
     private void emit(String inst, String des) {
@@ -0,0 +1,492 @@
+package compiler;
+
+import compiler.jvm.ClassFile;
+import compiler.jvm.Code;
+import compiler.jvm.Code.Label;
+import frontend.DataType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static compiler.jvm.Code.*;
+
+/**
+ * Lower the IL of {@link ILGen} into a JVM class with a main method.
+ *
+ * Globals become static fields, functions static methods and the code of @global the body
+ * of main. Named variables and temporaries are mapped to JVM locals; temporaries are not
+ * declared in the IL, their types are followed through the commands defining them.
+ */
+public class IL2JVM {
+    ILGen il_generator;
+    String class_name;
+
+    private ClassFile file;
+    private final Map<String, ILGen.ILFunction> functions = new HashMap<>();
+    private final Map<String, ILGen.ILVar> globals = new HashMap<>();
+
+    // state of the function being translated
+    private ILGen.ILFunction function;
+    private Code code;
+    private Map<String, ILGen.ILVar> vars;
+    private Map<String, Integer> locals;
+    private Map<String, DataType> tmp_types;
+    private Map<String, Label> labels;
+    private int next_local;
+
+    public IL2JVM(ILGen il_generator, String class_name) {
+        this.il_generator = il_generator;
+        this.class_name = class_name;
+    }
+
+    public byte[] toClass() {
+        file = new ClassFile(class_name, "java/lang/Object");
+        for (ILGen.ILFunction func : il_generator.functions)
+            functions.put(func.name, func);
+
+        ILGen.ILFunction global = il_generator.functions.firstElement();
+        for (ILGen.ILVar var : global.vars) {
+            if (var.is_constant || globals.containsKey(var.name))
+                continue;
+            globals.put(var.name, var);
+            file.field(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, var.name, descriptor(var.type));
+        }
+
+        translateFunction(global);
+        for (int i = 1; i < il_generator.functions.size(); i++)
+            translateFunction(il_generator.functions.get(i));
+        return file.toByteArray();
+    }
+
+    public void toJar(OutputStream out) throws IOException {
+        byte[] bytes = toClass();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, class_name.replace('/', '.'));
+        try (JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            jar.putNextEntry(new JarEntry(class_name + ".class"));
+            jar.write(bytes);
+            jar.closeEntry();
+        }
+    }
+
+    private void translateFunction(ILGen.ILFunction ilFunction) {
+        function = ilFunction;
+        vars = new HashMap<>();
+        locals = new HashMap<>();
+        tmp_types = new HashMap<>();
+        labels = new HashMap<>();
+
+        boolean is_main = ilFunction == il_generator.functions.firstElement();
+        Label body = new Label();
+        if (is_main) {
+            code = file.method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "main", "([Ljava/lang/String;)V");
+            next_local = 1;
+            code.mark(body);
+        } else {
+            code = file.method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, ilFunction.name, descriptor(ilFunction));
+            next_local = 0;
+        }
+
+        // parameters and constants
+        for (ILGen.ILVar var : ilFunction.vars) {
+            if (var.is_param) {
+                vars.put(var.name, var);
+                allocate(var.name, var.type);
+            } else if (var.is_constant) {
+                vars.put(var.name, var);
+            }
+        }
+
+        // local variables, initialized with their constant or the default value
+        for (ILGen.ILVar var : ilFunction.vars) {
+            if (var.is_param || var.is_constant || vars.containsKey(var.name))
+                continue;
+            if (is_main) {
+                // globals
+                initialize(var);
+                code.field(PUTSTATIC, class_name, var.name, descriptor(var.type));
+            } else {
+                vars.put(var.name, var);
+                initialize(var);
+                code.local(storeOp(var.type), allocate(var.name, var.type));
+            }
+        }
+
+        // commands
+        for (ILGen.Command cmd : ilFunction.commands)
+            translate(cmd);
+
+        // falling off the end of the function
+        if (is_main || ilFunction.return_type == null) {
+            code.op(RETURN);
+        } else {
+            pushDefault(ilFunction.return_type);
+            code.op(returnOp(ilFunction.return_type));
+        }
+        if (is_main)
+            handleErrors(body);
+    }
+
+    // the errors at run time are reported as by the other engines, and the program exits with 1.
+    private void handleErrors(Label body) {
+        Label end = new Label();
+        code.mark(end);
+        String[][] errors = {
+                {"java/lang/ArithmeticException", "division by zero."},
+                {"java/lang/StackOverflowError", "maximum recursion depth exceeded."},
+        };
+        for (String[] error : errors) {
+            Label handler = new Label();
+            code.handler(body, end, handler, error[0]);
+            code.mark(handler);
+            code.op(POP);
+            code.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+            code.sconst(error[1]);
+            code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+            code.iconst(1);
+            code.invoke(INVOKESTATIC, "java/lang/System", "exit", "(I)V");
+            code.op(RETURN);
+        }
+    }
+
+    private void translate(ILGen.Command cmd) {
+        DataType type;
+        switch (cmd.op) {
+            case add:
+            case sub:
+            case multi:
+            case div:
+                type = DataType.implicitConversion(typeOf(cmd.arg1), typeOf(cmd.arg2));
+                load(cmd.arg1, type);
+                load(cmd.arg2, type);
+                switch (cmd.op) {
+                    case add: code.op(type == DataType.FLOAT ? DADD : IADD); break;
+                    case sub: code.op(type == DataType.FLOAT ? DSUB : ISUB); break;
+                    case multi: code.op(type == DataType.FLOAT ? DMUL : IMUL); break;
+                    default: code.op(type == DataType.FLOAT ? DDIV : IDIV); break;
+                }
+                store(cmd.result, type);
+                break;
+
+            case and:
+            case or:
+                type = typeOf(cmd.arg1);
+                load(cmd.arg1, type);
+                load(cmd.arg2, type);
+                code.op(cmd.op == ILOP.and ? IAND : IOR);
+                store(cmd.result, type);
+                break;
+
+            case equ:
+            case nequ:
+            case ge:
+            case g:
+            case l:
+            case le:
+                compare(cmd);
+                break;
+
+            case not: {
+                Label is_zero = new Label();
+                Label end = new Label();
+                load(cmd.arg1);
+                code.jump(IFEQ, is_zero);
+                code.iconst(0);
+                code.jump(GOTO, end);
+                code.mark(is_zero);
+                code.iconst(1);
+                code.mark(end);
+                store(cmd.result, DataType.BOOL);
+                break;
+            }
+            case neg:
+                type = typeOf(cmd.arg1);
+                load(cmd.arg1);
+                code.op(type == DataType.FLOAT ? DNEG : INEG);
+                store(cmd.result, type);
+                break;
+
+            case assign:
+                load(cmd.arg1);
+                store(cmd.result, typeOf(cmd.arg1));
+                break;
+
+            case param:
+                // arguments stay on the operand stack until the call.
+                load(cmd.arg1);
+                break;
+            case call: {
+                ILGen.ILFunction callee = functions.get(cmd.arg1);
+                code.invoke(INVOKESTATIC, class_name, callee.name, descriptor(callee));
+                if (callee.return_type != null)
+                    store(cmd.result, callee.return_type);
+                break;
+            }
+            case ret:
+                if (function.return_type == null || function == il_generator.functions.firstElement()) {
+                    code.op(RETURN);
+                } else if (cmd.arg1 == null) {
+                    pushDefault(function.return_type);
+                    code.op(returnOp(function.return_type));
+                } else {
+                    load(cmd.arg1, function.return_type);
+                    code.op(returnOp(function.return_type));
+                }
+                break;
+
+            case jf:
+                load(cmd.arg1);
+                code.jump(IFEQ, label(cmd.result));
+                break;
+            case jt:
+                load(cmd.arg1);
+                code.jump(IFNE, label(cmd.result));
+                break;
+            case jmp:
+                // the target is the result of jumps of an if and the argument of the others.
+                code.jump(GOTO, label(cmd.result != null ? cmd.result : cmd.arg1));
+                break;
+            case label:
+                code.mark(label(cmd.arg1));
+                break;
+
+            case print:
+                type = typeOf(cmd.arg1);
+                code.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+                load(cmd.arg1);
+                code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + descriptor(type) + ")V");
+                break;
+
+            case i2f:
+                load(cmd.arg1, DataType.FLOAT);
+                store(cmd.result, DataType.FLOAT);
+                break;
+            case f2i:
+            case b2i:
+                load(cmd.arg1, DataType.INT);
+                store(cmd.result, DataType.INT);
+                break;
+            case i2b:
+                load(cmd.arg1, DataType.BOOL);
+                store(cmd.result, DataType.BOOL);
+                break;
+
+            default:
+                throw new RuntimeException("unsupported IL command " + cmd);
+        }
+    }
+
+    private void compare(ILGen.Command cmd) {
+        DataType type = DataType.implicitConversion(typeOf(cmd.arg1), typeOf(cmd.arg2));
+        load(cmd.arg1, type);
+        load(cmd.arg2, type);
+
+        Label is_false = new Label();
+        Label end = new Label();
+        if (type == DataType.FLOAT) {
+            // NaN makes every comparison but != false.
+            switch (cmd.op) {
+                case l: code.op(DCMPG); code.jump(IFGE, is_false); break;
+                case le: code.op(DCMPG); code.jump(IFGT, is_false); break;
+                case g: code.op(DCMPL); code.jump(IFLE, is_false); break;
+                case ge: code.op(DCMPL); code.jump(IFLT, is_false); break;
+                case equ: code.op(DCMPL); code.jump(IFNE, is_false); break;
+                default: code.op(DCMPL); code.jump(IFEQ, is_false); break;
+            }
+        } else {
+            switch (cmd.op) {
+                case l: code.jump(IF_ICMPGE, is_false); break;
+                case le: code.jump(IF_ICMPGT, is_false); break;
+                case g: code.jump(IF_ICMPLE, is_false); break;
+                case ge: code.jump(IF_ICMPLT, is_false); break;
+                case equ: code.jump(IF_ICMPNE, is_false); break;
+                default: code.jump(IF_ICMPEQ, is_false); break;
+            }
+        }
+        code.iconst(1);
+        code.jump(GOTO, end);
+        code.mark(is_false);
+        code.iconst(0);
+        code.mark(end);
+        store(cmd.result, DataType.BOOL);
+    }
+
+    // region Utils
+
+    private static boolean isTmp(String name) {
+        return name.startsWith("@tmp");
+    }
+
+    private Label label(String name) {
+        return labels.computeIfAbsent(name, k -> new Label());
+    }
+
+    private int allocate(String key, DataType type) {
+        int index = next_local;
+        next_local += type == DataType.FLOAT ? 2 : 1;
+        locals.put(key, index);
+        return index;
+    }
+
+    // temporaries are reused for values of different types, each type gets its own local.
+    private int tmpLocal(String name, DataType type) {
+        Integer index = locals.get(name + ":" + type);
+        if (index == null)
+            index = allocate(name + ":" + type, type);
+        return index;
+    }
+
+    private DataType typeOf(String name) {
+        if (isTmp(name))
+            return tmp_types.get(name);
+        ILGen.ILVar var = vars.get(name);
+        if (var == null)
+            var = globals.get(name);
+        if (var == null)
+            throw new RuntimeException("undefined IL variable " + name);
+        return var.type;
+    }
+
+    private void load(String name) {
+        if (isTmp(name)) {
+            DataType type = tmp_types.get(name);
+            code.local(loadOp(type), tmpLocal(name, type));
+            return;
+        }
+        ILGen.ILVar var = vars.get(name);
+        if (var != null && var.is_constant) {
+            pushConstant(var.type, var.init_value);
+        } else if (var != null) {
+            code.local(loadOp(var.type), locals.get(name));
+        } else {
+            var = globals.get(name);
+            code.field(GETSTATIC, class_name, name, descriptor(var.type));
+        }
+    }
+
+    private void load(String name, DataType type) {
+        load(name);
+        convert(typeOf(name), type);
+    }
+
+    private void store(String name, DataType type) {
+        if (isTmp(name)) {
+            tmp_types.put(name, type);
+            code.local(storeOp(type), tmpLocal(name, type));
+            return;
+        }
+        ILGen.ILVar var = vars.get(name);
+        if (var != null) {
+            convert(type, var.type);
+            code.local(storeOp(var.type), locals.get(name));
+        } else {
+            var = globals.get(name);
+            convert(type, var.type);
+            code.field(PUTSTATIC, class_name, name, descriptor(var.type));
+        }
+    }
+
+    private void initialize(ILGen.ILVar var) {
+        ILGen.ILVar init = var.init_value instanceof String ? vars.get(var.init_value) : null;
+        if (init == null)
+            init = var.init_value instanceof String ? globals.get(var.init_value) : null;
+        if (init != null && init.is_constant && init.type == var.type)
+            pushConstant(init.type, init.init_value);
+        else
+            pushDefault(var.type);
+    }
+
+    private void pushConstant(DataType type, Object value) {
+        switch (type) {
+            case INT: code.iconst((Integer) value); break;
+            case FLOAT: code.dconst((Double) value); break;
+            case BOOL: code.iconst((Boolean) value ? 1 : 0); break;
+            case STRING: code.sconst((String) value); break;
+            default:
+                throw new RuntimeException("unsupported constant " + value);
+        }
+    }
+
+    private void pushDefault(DataType type) {
+        switch (type) {
+            case FLOAT: code.dconst(0); break;
+            case STRING: code.sconst(""); break;
+            default: code.iconst(0); break;
+        }
+    }
+
+    private void convert(DataType from, DataType to) {
+        if (from == to)
+            return;
+        if (from == DataType.INT && to == DataType.FLOAT) code.op(I2D);
+        else if (from == DataType.BOOL && to == DataType.FLOAT) code.op(I2D);
+        else if (from == DataType.FLOAT && to == DataType.INT) code.op(D2I);
+        else if (from == DataType.BOOL && to == DataType.INT) return;
+        else if (from == DataType.INT && to == DataType.BOOL) {
+            Label zero = new Label();
+            Label end = new Label();
+            code.jump(IFEQ, zero);
+            code.iconst(1);
+            code.jump(GOTO, end);
+            code.mark(zero);
+            code.iconst(0);
+            code.mark(end);
+        }
+        else throw new RuntimeException("invalid conversion " + from + " " + to);
+    }
+
+    private static int loadOp(DataType type) {
+        switch (type) {
+            case FLOAT: return DLOAD;
+            case STRING: return ALOAD;
+            default: return ILOAD;
+        }
+    }
+
+    private static int storeOp(DataType type) {
+        switch (type) {
+            case FLOAT: return DSTORE;
+            case STRING: return ASTORE;
+            default: return ISTORE;
+        }
+    }
+
+    private static int returnOp(DataType type) {
+        switch (type) {
+            case FLOAT: return DRETURN;
+            case STRING: return ARETURN;
+            default: return IRETURN;
+        }
+    }
+
+    private static String descriptor(DataType type) {
+        switch (type) {
+            case INT: return "I";
+            case FLOAT: return "D";
+            case BOOL: return "Z";
+            case STRING: return "Ljava/lang/String;";
+            default:
+                throw new RuntimeException("unsupported type " + type);
+        }
+    }
+
+    private static String descriptor(ILGen.ILFunction function) {
+        StringBuilder builder = new StringBuilder("(");
+        if (function.param_types != null) {
+            for (DataType type : function.param_types)
+                builder.append(descriptor(type));
+        }
+        builder.append(')');
+        builder.append(function.return_type == null ? "V" : descriptor(function.return_type));
+        return builder.toString();
+    }
+
+    // endregion
+}
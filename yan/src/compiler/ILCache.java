@@ -0,0 +1,393 @@
+package compiler;
+
+import compiler.semantic.Resolver;
+import error.BaseError;
+import error.ErrorCollector;
+import frontend.ast.ExprNode;
+import frontend.ast.StmtNode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the IL of functions, so a rebuild only resolves and generates the functions
+ * that changed.
+ *
+ * A function is looked up by the SHA-256 of its source, without line numbers, and of what it
+ * sees of the names it refers to: the signature of a called function or the type and IL name
+ * of a global variable. Changing a function thus also rebuilds the functions calling it with a
+ * new signature, but not the others. A function found in the cache is only declared to the
+ * {@link Resolver}, its IL read back from {@code <key>.ilf}: the counters of {@link ILGen}
+ * around its generation, then an {@link ILFile} with this one function whose call lines are
+ * relative to the line of its name. Its labels and constants are numbered again on the way
+ * in, so the IL is the same as a build without the cache.
+ *
+ * Functions declared inside blocks or containing other functions are always compiled, and
+ * nothing is stored if the program has errors.
+ */
+public class ILCache {
+    private static final String VERSION = "yan-il-1";
+    // labels, constants and temporaries, see ILGen.counts()
+    private static final int COUNTERS = 3;
+
+    private final Path directory;
+    // shared by the files compiled in parallel, entries are only ever replaced whole.
+    private final AtomicInteger reused = new AtomicInteger();
+    private final AtomicInteger compiled = new AtomicInteger();
+
+    public ILCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Resolve the statements and generate their IL, as the front end does one statement after
+     * the other, with the IL of unchanged functions taken from the cache.
+     */
+    public void generate(List<StmtNode> statements, Resolver resolver, ILGen il_generator,
+                         ErrorCollector errorCollector) {
+        Map<String, Entry> misses = new LinkedHashMap<>();
+        for (StmtNode stmt : statements) {
+            String key = stmt instanceof StmtNode.Function
+                    ? key((StmtNode.Function) stmt, resolver, il_generator) : null;
+            Entry cached = key != null ? load(key, (StmtNode.Function) stmt) : null;
+            if (cached != null) {
+                resolver.declare((StmtNode.Function) stmt);
+                il_generator.add(cached.function, cached.before, cached.after);
+                reused.incrementAndGet();
+                continue;
+            }
+            int[] before = il_generator.counts();
+            resolver.execute(stmt);
+            // the rest is still resolved to report its errors, but not generated.
+            if (errorCollector.hasError())
+                continue;
+            try {
+                il_generator.gen(stmt);
+            } catch (BaseError error) {
+                errorCollector.add(error);
+            }
+            if (key != null) {
+                Entry entry = new Entry();
+                entry.function = il_generator.functions.lastElement();
+                entry.line = ((StmtNode.Function) stmt).name.line;
+                entry.before = before;
+                entry.after = il_generator.counts();
+                misses.put(key, entry);
+                compiled.incrementAndGet();
+            }
+        }
+        if (errorCollector.hasError())
+            return;
+
+        for (Map.Entry<String, Entry> miss : misses.entrySet())
+            store(miss.getKey(), miss.getValue());
+    }
+
+    public String report() {
+        return "IL cache: " + reused.get() + " functions reused, " + compiled.get() + " compiled\n";
+    }
+
+    // region Store
+
+    /**
+     * The IL of a function and the label, constant and temporary counters of {@link ILGen}
+     * before and after generating it, to number them again.
+     */
+    private static class Entry {
+        ILGen.ILFunction function;
+        int[] before;
+        int[] after;
+        int line;   // of the name of the function, call lines are stored relative to it
+    }
+
+    // an entry is the counters, then an ILFile with the function.
+    private Entry load(String key, StmtNode.Function stmt) {
+        Path path = directory.resolve(key + ".ilf");
+        if (!Files.isRegularFile(path))
+            return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Entry entry = new Entry();
+            entry.before = new int[COUNTERS];
+            entry.after = new int[COUNTERS];
+            for (int i = 0; i < COUNTERS; i++) {
+                entry.before[i] = buffer.getInt();
+                entry.after[i] = buffer.getInt();
+            }
+            List<ILGen.ILFunction> functions = ILFile.read(buffer);
+            if (functions.size() != 1 || !functions.get(0).name.equals(stmt.name.lexeme))
+                return null;
+            entry.function = functions.get(0);
+            for (ILGen.Command cmd : entry.function.commands) {
+                if (cmd.op == ILOP.call)
+                    cmd.line += stmt.name.line;
+            }
+            return entry;
+        } catch (IOException | BufferUnderflowException e) {
+            // a damaged entry is compiled again and overwritten.
+            return null;
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        ILGen.ILFunction func = entry.function;
+        ILGen.ILFunction copy = new ILGen.ILFunction(func.name, func.param_types, func.return_type);
+        copy.vars = func.vars;
+        for (ILGen.Command cmd : func.commands) {
+            ILGen.Command relative = new ILGen.Command(cmd.op, cmd.arg1, cmd.arg2, cmd.result);
+            if (cmd.op == ILOP.call)
+                relative.line = cmd.line - entry.line;
+            copy.commands.add(relative);
+        }
+
+        // written aside and moved, so an interrupted build never leaves half an entry.
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream stream = new DataOutputStream(Files.newOutputStream(tmp))) {
+                for (int i = 0; i < COUNTERS; i++) {
+                    stream.writeInt(entry.before[i]);
+                    stream.writeInt(entry.after[i]);
+                }
+                ILFile.write(Collections.singletonList(copy), stream);
+            }
+            Files.move(tmp, directory.resolve(key + ".ilf"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("IL cache: " + e.getMessage());
+        }
+    }
+
+    // endregion
+
+    // region Key
+
+    private String key(StmtNode.Function stmt, Resolver resolver, ILGen il_generator) {
+        Hasher hasher = new Hasher();
+        stmt.accept(hasher);
+        if (!hasher.cacheable)
+            return null;
+
+        StringBuilder text = new StringBuilder(VERSION).append('\n').append(hasher.text).append('\n');
+        for (String name : hasher.names) {
+            text.append(name).append(' ').append(resolver.signature(name))
+                    .append(' ').append(il_generator.resolve(name)).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Canonical text of a function, without lines, and the names it refers to.
+     */
+    private static class Hasher implements StmtNode.Visitor<Void>, ExprNode.Visitor<Void> {
+        final StringBuilder text = new StringBuilder();
+        final TreeSet<String> names = new TreeSet<>();
+        boolean cacheable = true;
+        private int depth = 0;
+
+        private void add(ExprNode expr) {
+            if (expr == null)
+                text.append('_');
+            else
+                expr.accept(this);
+        }
+
+        private void add(StmtNode stmt) {
+            if (stmt == null)
+                text.append('_');
+            else
+                stmt.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(ExprNode.Assign expr) {
+            names.add(expr.name.lexeme);
+            text.append("(= ").append(expr.name.lexeme).append(' ').append(expr.operator.type).append(' ');
+            add(expr.value);
+            text.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(ExprNode.Binary expr) {
+            return operation(expr.operator.type, expr.left, expr.right);
+        }
+
+        @Override
+        public Void visitCallExpr(ExprNode.FunCall expr) {
+            names.add(expr.name.lexeme);
+            text.append("(call ").append(expr.name.lexeme);
+            for (ExprNode argument : expr.arguments) {
+                text.append(' ');
+                add(argument);
+            }
+            text.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(ExprNode.Grouping expr) {
+            text.append("(group ");
+            add(expr.expression);
+            text.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(ExprNode.Literal expr) {
+            String value = String.valueOf(expr.value);
+            text.append("(").append(expr.value == null ? "null" : expr.value.getClass().getSimpleName())
+                    .append(' ').append(value.length()).append(':').append(value).append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(ExprNode.Logical expr) {
+            return operation(expr.operator.type, expr.left, expr.right);
+        }
+
+        @Override
+        public Void visitRelationExpr(ExprNode.Relation expr) {
+            return operation(expr.operator.type, expr.left, expr.right);
+        }
+
+        @Override
+        public Void visitUnaryExpr(ExprNode.Unary expr) {
+            return operation(expr.operator.type, expr.right, null);
+        }
+
+        @Override
+        public Void visitVariableExpr(ExprNode.Variable expr) {
+            names.add(expr.name.lexeme);
+            text.append(expr.name.lexeme);
+            return null;
+        }
+
+        private Void operation(Object operator, ExprNode left, ExprNode right) {
+            text.append('(').append(operator).append(' ');
+            add(left);
+            if (right != null) {
+                text.append(' ');
+                add(right);
+            }
+            text.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(StmtNode.Block stmt) {
+            text.append("{\n");
+            for (StmtNode item : stmt.items)
+                add(item);
+            text.append("}\n");
+            return null;
+        }
+
+        @Override
+        public Void visitEmptyStmt(StmtNode.Empty stmt) {
+            text.append(";\n");
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(StmtNode.Expression stmt) {
+            add(stmt.expr);
+            text.append(";\n");
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(StmtNode.Function stmt) {
+            if (depth > 0)
+                cacheable = false;
+            depth++;
+            text.append("func ").append(stmt.name.lexeme).append('(');
+            for (int i = 0; i < stmt.params.size(); i++)
+                text.append(stmt.params.get(i).lexeme).append(':').append(stmt.types.get(i)).append(',');
+            text.append(")->").append(stmt.return_type).append(' ');
+            add(stmt.body);
+            depth--;
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(StmtNode.If stmt) {
+            text.append("if ");
+            add(stmt.cond);
+            add(stmt.if_body);
+            text.append("else ");
+            add(stmt.else_body);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(StmtNode.Print stmt) {
+            text.append("print ");
+            add(stmt.value);
+            text.append(";\n");
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(StmtNode.Return stmt) {
+            text.append("return ");
+            add(stmt.value);
+            text.append(";\n");
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(StmtNode.Var stmt) {
+            text.append("var ").append(stmt.name.lexeme).append(':').append(stmt.type).append(" = ");
+            add(stmt.initializer);
+            text.append(";\n");
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(StmtNode.While stmt) {
+            text.append("while ");
+            add(stmt.cond);
+            add(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(StmtNode.Break stmt) {
+            text.append("break;\n");
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(StmtNode.Continue stmt) {
+            text.append("continue;\n");
+            return null;
+        }
+    }
+
+    // endregion
+}
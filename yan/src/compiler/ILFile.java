@@ -0,0 +1,274 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Binary form of the IL of a program, loaded back without going through the front end.
+ *
+ * The file starts with "YIL" and a version byte, followed by a table of all the names and
+ * string values, then the functions. Operands refer to the table by index, numbers are
+ * varints (signed ones zigzag encoded) and floats their 8 raw bytes:
+ * <pre>
+ *   file     = "YIL" version strings functions
+ *   strings  = count (length utf8-bytes)*
+ *   function = name return-type param-count param-type* var-count var* command-count command*
+ *   var      = type name flags init
+ *   command  = op operand operand operand [line, for call]
+ * </pre>
+ * A type is its ordinal plus one, 0 for none. An operand is its index plus one, 0 if absent.
+ * The param count is also one more than the number of params, 0 for "@global".
+ */
+public class ILFile {
+    private static final byte[] MAGIC = {'Y', 'I', 'L'};
+    private static final int VERSION = 1;
+
+    // flags of a var
+    private static final int PARAM = 1, CONSTANT = 2;
+    // kinds of initial value
+    private static final int NONE = 0, NAME = 1, INT = 2, FLOAT = 3, FALSE = 4, TRUE = 5;
+
+    private static final ILOP[] OPS = ILOP.values();
+    private static final DataType[] TYPES = DataType.values();
+
+    // region Write
+
+    public static void write(ILGen il_generator, OutputStream stream) throws IOException {
+        write(il_generator.functions, stream);
+    }
+
+    // functions without the global code, as stored by ILCache.
+    static void write(List<ILGen.ILFunction> functions, OutputStream stream) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        writeVarint(out, functions.size());
+        for (ILGen.ILFunction function : functions) {
+            writeVarint(out, intern(ids, strings, function.name));
+            writeType(out, function.return_type);
+            if (function.param_types == null) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, function.param_types.size() + 1);
+                for (DataType type : function.param_types)
+                    writeType(out, type);
+            }
+
+            writeVarint(out, function.vars.size());
+            for (ILGen.ILVar var : function.vars) {
+                writeType(out, var.type);
+                writeVarint(out, intern(ids, strings, var.name));
+                writeVarint(out, (var.is_param ? PARAM : 0) | (var.is_constant ? CONSTANT : 0));
+                writeValue(out, ids, strings, var.init_value);
+            }
+
+            writeVarint(out, function.commands.size());
+            for (ILGen.Command cmd : function.commands) {
+                writeVarint(out, cmd.op.ordinal());
+                writeOperand(out, ids, strings, cmd.arg1);
+                writeOperand(out, ids, strings, cmd.arg2);
+                writeOperand(out, ids, strings, cmd.result);
+                if (cmd.op == ILOP.call)
+                    writeVarint(out, cmd.line + 1);
+            }
+        }
+        out.flush();
+
+        DataOutputStream file = new DataOutputStream(new BufferedOutputStream(stream));
+        file.write(MAGIC);
+        file.writeByte(VERSION);
+        writeVarint(file, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(file, bytes.length);
+            file.write(bytes);
+        }
+        body.writeTo(file);
+        file.flush();
+    }
+
+    private static int intern(Map<String, Integer> ids, List<String> strings, String string) {
+        return ids.computeIfAbsent(string, s -> {
+            strings.add(s);
+            return strings.size() - 1;
+        });
+    }
+
+    private static void writeOperand(DataOutputStream out, Map<String, Integer> ids, List<String> strings,
+                                     String operand) throws IOException {
+        writeVarint(out, operand == null ? 0 : intern(ids, strings, operand) + 1);
+    }
+
+    private static void writeType(DataOutputStream out, DataType type) throws IOException {
+        writeVarint(out, type == null ? 0 : type.ordinal() + 1);
+    }
+
+    private static void writeValue(DataOutputStream out, Map<String, Integer> ids, List<String> strings,
+                                   Object value) throws IOException {
+        if (value == null) {
+            writeVarint(out, NONE);
+        } else if (value instanceof String) {
+            writeVarint(out, NAME);
+            writeVarint(out, intern(ids, strings, (String) value));
+        } else if (value instanceof Integer) {
+            writeVarint(out, INT);
+            int number = (Integer) value;
+            writeVarint(out, (number << 1) ^ (number >> 31));
+        } else if (value instanceof Double) {
+            writeVarint(out, FLOAT);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Boolean) {
+            writeVarint(out, (Boolean) value ? TRUE : FALSE);
+        } else {
+            throw new IllegalArgumentException("IL value " + value + " can't be written.");
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    // endregion
+
+    // region Read
+
+    /**
+     * Map the file into memory and decode its IL.
+     *
+     * @throws IOException if it can't be read or is not a valid IL file
+     */
+    public static ILGen read(Path path) throws IOException {
+        ILGen il_generator = new ILGen();
+        il_generator.functions.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            il_generator.functions.addAll(read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+        if (il_generator.functions.isEmpty())
+            throw new IOException("IL file has no global code.");
+        il_generator.restore_counts();
+        return il_generator;
+    }
+
+    // the functions from the position of the buffer, as written by write(List, OutputStream).
+    static List<ILGen.ILFunction> read(ByteBuffer in) throws IOException {
+        try {
+            return decode(in);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("IL file is truncated or corrupted.");
+        }
+    }
+
+    private static List<ILGen.ILFunction> decode(ByteBuffer in) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.remaining() == 0 || in.get() != b)
+                throw new IOException("not a Yan IL file.");
+        }
+        int version = in.get();
+        if (version != VERSION)
+            throw new IOException("unsupported IL file version " + version + ".");
+
+        String[] strings = new String[readVarint(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarint(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        List<ILGen.ILFunction> functions = new ArrayList<>();
+        int function_count = readVarint(in);
+        for (int f = 0; f < function_count; f++) {
+            String name = strings[readVarint(in)];
+            DataType return_type = readType(in);
+            Vector<DataType> param_types = null;
+            int param_count = readVarint(in);
+            if (param_count > 0) {
+                param_types = new Vector<>();
+                for (int i = 0; i < param_count - 1; i++)
+                    param_types.add(readType(in));
+            }
+            ILGen.ILFunction function = new ILGen.ILFunction(name, param_types, return_type);
+
+            int var_count = readVarint(in);
+            for (int i = 0; i < var_count; i++) {
+                DataType type = readType(in);
+                String var_name = strings[readVarint(in)];
+                int flags = readVarint(in);
+                Object value = readValue(in, strings);
+                function.vars.add(new ILGen.ILVar(type, var_name, value,
+                        (flags & PARAM) != 0, (flags & CONSTANT) != 0));
+            }
+
+            int command_count = readVarint(in);
+            for (int i = 0; i < command_count; i++) {
+                ILOP op = OPS[readVarint(in)];
+                ILGen.Command cmd = new ILGen.Command(op, readOperand(in, strings),
+                        readOperand(in, strings), readOperand(in, strings));
+                if (op == ILOP.call)
+                    cmd.line = readVarint(in) - 1;
+                function.commands.add(cmd);
+            }
+            functions.add(function);
+        }
+        return functions;
+    }
+
+    private static String readOperand(ByteBuffer in, String[] strings) {
+        int id = readVarint(in);
+        return id == 0 ? null : strings[id - 1];
+    }
+
+    private static DataType readType(ByteBuffer in) {
+        int type = readVarint(in);
+        return type == 0 ? null : TYPES[type - 1];
+    }
+
+    private static Object readValue(ByteBuffer in, String[] strings) throws IOException {
+        int kind = readVarint(in);
+        switch (kind) {
+            case NONE: return null;
+            case NAME: return strings[readVarint(in)];
+            case INT:
+                int number = readVarint(in);
+                return (number >>> 1) ^ -(number & 1);
+            case FLOAT: return Double.longBitsToDouble(in.getLong());
+            case FALSE: return false;
+            case TRUE: return true;
+            default:
+                throw new IOException("invalid kind of IL value " + kind + ".");
+        }
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    // endregion
+}
@@ -1,5 +1,6 @@
 package compiler;
 
+import compiler.error.SyntaxError;
 import frontend.DataType;
 import frontend.Token;
 import frontend.TokenType;
@@ -7,6 +8,15 @@ import frontend.ast.ExprNode;
 import frontend.ast.StmtNode;
 
 import javax.xml.crypto.Data;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
 import java.util.Vector;
 
 public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String> {
@@ -43,8 +53,8 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         public String toString() {
             if (is_constant)
                 return name + ": " + type + " = " + init_value + " [constant]";
-            if (is_param)
-                return name + ": " + type + " [parameter]";
+            if (is_param || init_value == null)
+                return name + ": " + type + (is_param ? " [parameter]" : "");
             return name + ": " + type + " = " + init_value;
         }
     }
@@ -90,18 +100,30 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         }
 
         public String toText() {
-            StringBuilder builder = new StringBuilder();
-            builder.append("[Begin Function ").append(name).append("]\n");
-            builder.append("Signature: ").append(toString()).append('\n');
-            builder.append("\n").append(".Data").append('\n');
-            for (ILVar var : vars)
-                builder.append(var).append('\n');
-
-            builder.append("\n").append(".Text").append('\n');
-            for (Command cmd : commands)
-                builder.append(cmd).append('\n');
-            builder.append('\n').append("[End Function ").append(name).append("]\n");
-            return builder.toString();
+            StringWriter writer = new StringWriter();
+            try {
+                write(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+
+        public void write(Writer out) throws IOException {
+            out.write("[Begin Function " + name + "]\n");
+            out.write("Signature: " + this + "\n");
+            out.write("\n.Data\n");
+            for (ILVar var : vars) {
+                out.write(var.toString());
+                out.write('\n');
+            }
+
+            out.write("\n.Text\n");
+            for (Command cmd : commands) {
+                cmd.write(out);
+                out.write('\n');
+            }
+            out.write("\n[End Function " + name + "]\n");
         }
     }
 
@@ -110,6 +132,7 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         String arg1;
         String arg2;
         String result;
+        int line = -1;  // source line of a call, to look it up in a CallProfile
 
         public Command(ILOP op, String arg1, String arg2, String result) {
             this.op = op;
@@ -120,18 +143,35 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
 
         @Override
         public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append(op).append(' ');
-
-            if (arg1 != null)
-                builder.append(arg1).append(", ");
-            if (arg2 != null)
-                builder.append(arg2).append(", ");
-            if (result != null)
-                builder.append(result);
-            if (builder.charAt(builder.length() - 1) == ' ')
-                builder.delete(builder.length() - 2, builder.length() - 1);
-            return builder.toString();
+            StringWriter writer = new StringWriter();
+            try {
+                write(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+
+        // operands are separated by commas, a command without result ends with a space.
+        public void write(Writer out) throws IOException {
+            out.write(op.name());
+            out.write(' ');
+            boolean first = true;
+            for (String arg : new String[]{arg1, arg2}) {
+                if (arg == null)
+                    continue;
+                if (!first)
+                    out.write(", ");
+                out.write(arg);
+                first = false;
+            }
+            if (result != null) {
+                if (!first)
+                    out.write(", ");
+                out.write(result);
+            } else if (!first) {
+                out.write(' ');
+            }
         }
     }
     // endregion
@@ -140,8 +180,9 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
     private int label_count = 0;
     private int tmp_count = 0;
     private int const_count = 0;
+    private int var_count = 0;
 
-    private String get_new_label() {
+    String get_new_label() {
         label_count += 1;
         return "@label" + label_count;
     }
@@ -162,21 +203,155 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         const_count += 1;
         return "@const" + const_count;
     }
+
+    // constant of the function with the value, declared if there is none yet.
+    String get_const(ILFunction func, DataType type, Object value) {
+        for (ILVar var : func.vars) {
+            if (var.is_constant && var.type == type && var.init_value.equals(value))
+                return var.name;
+        }
+        String name = get_new_const();
+        func.vars.add(new ILVar(type, name, value, false, true));
+        return name;
+    }
+
+    // continue the numbering after the names of IL loaded from a file, see ILFile.
+    void restore_counts() {
+        for (ILFunction func : functions) {
+            for (ILVar var : func.vars) {
+                const_count = Math.max(const_count, number(var.name, "@const"));
+                var_count = Math.max(var_count, number(var.name, "@var"));
+            }
+            for (Command cmd : func.commands) {
+                for (String name : new String[]{cmd.arg1, cmd.arg2, cmd.result})
+                    label_count = Math.max(label_count, number(name, "@label"));
+            }
+        }
+    }
+
+    private static int number(String name, String prefix) {
+        if (name == null || !name.startsWith(prefix))
+            return 0;
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // constant of the function with the default value of the type.
+    String get_default(ILFunction func, DataType type) {
+        switch (type) {
+            case INT: return get_const(func, type, 0);
+            case FLOAT: return get_const(func, type, 0.0);
+            case BOOL: return get_const(func, type, false);
+            default: return get_const(func, type, "");
+        }
+    }
+
+    // a new variable of the function, for values the optimizer keeps across blocks.
+    String get_new_var(ILFunction func, DataType type) {
+        var_count += 1;
+        String name = "@var" + var_count;
+        func.vars.add(new ILVar(type, name, null, false, false));
+        return name;
+    }
     // endregion
 
     public Vector<ILFunction> functions = new Vector<>();
     private ILFunction current_func;
+    private int block_depth = 0;
+    // label at the start of the current function if it has tail calls, see Return.tail_call
+    private String function_start = null;
+
+    // IL names of the variables in scope, a variable shadowing another one of the same
+    // function gets a new name, since the IL has no scopes.
+    private final Stack<Map<String, String>> scopes = new Stack<>();
+    private int shadow_count = 0;
 
     public ILGen() {
         functions.add(new ILFunction("@global", null, null));
         current_func = functions.lastElement();
+        scopes.push(new HashMap<>());
     }
 
-    public String get_il_code() {
-        StringBuilder builder = new StringBuilder();
+    // the functions with int operands and jumps to command indices, once the IL is final.
+    List<LoweredFunction> lower() {
+        List<LoweredFunction> lowered = new ArrayList<>();
         for (ILFunction func : functions)
-            builder.append(func.toText()).append('\n');
-        return builder.toString();
+            lowered.add(new LoweredFunction(this, func));
+        return lowered;
+    }
+
+    // the label, constant and temporary counters, taken around the generation of a function.
+    int[] counts() {
+        return new int[]{label_count, const_count, tmp_count};
+    }
+
+    /**
+     * Add a function generated before, see {@link ILCache}, with the counters before and after
+     * it was generated. Its labels, constants and temporaries are numbered again from the
+     * counters now, so the IL is the same as if the function was generated here.
+     */
+    void add(ILFunction func, int[] before, int[] after) {
+        int[] now = counts();
+        String[] prefixes = {"@label", "@const", "@tmp"};
+        Map<String, String> names = new HashMap<>();
+        for (ILVar var : func.vars)
+            renumber(names, var.name, prefixes, before, now);
+        for (Command cmd : func.commands) {
+            for (String name : new String[]{cmd.arg1, cmd.arg2, cmd.result})
+                renumber(names, name, prefixes, before, now);
+        }
+
+        for (ILVar var : func.vars) {
+            var.name = rename(names, var.name);
+            if (var.init_value instanceof String && !var.is_constant)
+                var.init_value = rename(names, (String) var.init_value);
+        }
+        for (Command cmd : func.commands) {
+            cmd.arg1 = rename(names, cmd.arg1);
+            cmd.arg2 = rename(names, cmd.arg2);
+            cmd.result = rename(names, cmd.result);
+        }
+        functions.add(func);
+        label_count += after[0] - before[0];
+        const_count += after[1] - before[1];
+        tmp_count += after[2] - before[2];
+    }
+
+    private static void renumber(Map<String, String> names, String name, String[] prefixes, int[] before, int[] now) {
+        if (name == null || names.containsKey(name))
+            return;
+        for (int i = 0; i < prefixes.length; i++) {
+            int n = number(name, prefixes[i]);
+            if (n > 0) {
+                names.put(name, prefixes[i] + (n - before[i] + now[i]));
+                return;
+            }
+        }
+    }
+
+    private static String rename(Map<String, String> names, String name) {
+        return name == null ? null : names.getOrDefault(name, name);
+    }
+
+    public String get_il_code() {
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    // the textual IL of every function, streamed to the writer.
+    public void write(Writer out) throws IOException {
+        for (ILFunction func : functions) {
+            func.write(out);
+            out.write('\n');
+        }
     }
 
     // region Utils
@@ -212,9 +387,55 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         return emit(op, data, null);
     }
 
+    // the arguments are computed before any parameter is assigned, since they can read them.
+    private void gen_tail_call(ExprNode.FunCall call) {
+        List<String> params = new ArrayList<>();
+        for (ILVar var : current_func.vars) {
+            if (var.is_param)
+                params.add(var.name);
+        }
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            String value = gen(call.arguments.get(i));
+            value = gen_type_conversion(value, call.arguments.get(i).type, call.func.types.get(i));
+            // a parameter passed as another one is copied before that one is assigned.
+            if (params.contains(value) && !value.equals(params.get(i)))
+                value = emit(ILOP.assign, value, null);
+            values.add(value);
+        }
+        for (int i = 0; i < values.size(); i++) {
+            if (!values.get(i).equals(params.get(i)))
+                emit(ILOP.assign, values.get(i), null, params.get(i));
+        }
+        back_tmp(values.toArray(new String[0]));
+        emit(ILOP.jmp, function_start);
+    }
+
     private boolean isVar(String x) {
         return x.startsWith("@tmp");
     }
+
+    private String declare(String name) {
+        String il_name = name;
+        for (ILVar var : current_func.vars) {
+            if (!var.is_constant && var.name.equals(name)) {
+                shadow_count += 1;
+                il_name = name + "#" + shadow_count;
+                break;
+            }
+        }
+        scopes.peek().put(name, il_name);
+        return il_name;
+    }
+
+    String resolve(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            String il_name = scopes.get(i).get(name);
+            if (il_name != null)
+                return il_name;
+        }
+        return name;
+    }
     // endregion
 
     // region Expression
@@ -226,7 +447,7 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         value = gen_type_conversion(value, expr.value.type, expr.type);
 
         back_tmp(value);
-        return emit(ILOP.assign, value, null, expr.name.lexeme);
+        return emit(ILOP.assign, value, null, resolve(expr.name.lexeme));
     }
 
     @Override
@@ -236,8 +457,13 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         String right = gen(expr.right);
         right = gen_type_conversion(right, expr.right.type, expr.type);
 
+        // % is only run by the interpreter, the IL has no operator for it.
+        ILOP op = ILOP.valueOf(expr.operator.type);
+        if (op == null)
+            throw new SyntaxError("unsupported operator " + expr.operator.type);
+
         back_tmp(left, right);
-        return emit(ILOP.valueOf(expr.operator.type), left, right);
+        return emit(op, left, right);
     }
 
     @Override
@@ -248,7 +474,9 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
             name = gen_type_conversion(name, expr.arguments.get(i).type, expr.func.types.get(i));
             emit(ILOP.param, name, null, null);
         }
-        return emit(ILOP.call, expr.name.lexeme, String.valueOf(expr.arguments.size()));
+        String result = emit(ILOP.call, expr.name.lexeme, String.valueOf(expr.arguments.size()));
+        current_func.commands.lastElement().line = expr.name.line;
+        return result;
     }
 
     @Override
@@ -278,10 +506,12 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
 
     @Override
     public String visitRelationExpr(ExprNode.Relation expr) {
+        // operands are compared in their common type, the result is a bool.
+        DataType type = DataType.implicitConversion(expr.left.type, expr.right.type);
         String left = gen(expr.left);
-        left = gen_type_conversion(left, expr.left.type, expr.type);
+        left = gen_type_conversion(left, expr.left.type, type);
         String right = gen(expr.right);
-        right = gen_type_conversion(right, expr.right.type, expr.type);
+        right = gen_type_conversion(right, expr.right.type, type);
 
         back_tmp(left, right);
         return emit(ILOP.valueOf(expr.operator.type), left, right);
@@ -303,7 +533,7 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
 
     @Override
     public String visitVariableExpr(ExprNode.Variable expr) {
-        return expr.name.lexeme;
+        return resolve(expr.name.lexeme);
     }
 
     // endregion
@@ -312,8 +542,12 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
 
     @Override
     public Object visitBlockStmt(StmtNode.Block stmt) {
+        block_depth += 1;
+        scopes.push(new HashMap<>());
         for (StmtNode st : stmt.items)
             gen(st);
+        scopes.pop();
+        block_depth -= 1;
         return null;
     }
 
@@ -335,12 +569,21 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
         current_func = functions.lastElement();
 
         // add parameters
+        scopes.push(new HashMap<>());
         for (int i = 0; i < stmt.params.size(); i++) {
-            current_func.vars.add(new ILVar(stmt.types.get(i), stmt.params.get(i).lexeme,
+            current_func.vars.add(new ILVar(stmt.types.get(i), declare(stmt.params.get(i).lexeme),
                     null, true, false));
         }
+        // a tail call assigns the parameters and jumps back here instead of calling.
+        function_start = stmt.tail_calls ? get_new_label() : null;
+        if (function_start != null)
+            emit(ILOP.label, function_start);
 
         gen(stmt.body);
+        function_start = null;
+        scopes.pop();
+        // code after the function belongs to the global scope again.
+        current_func = functions.firstElement();
         return null;
     }
 
@@ -377,6 +620,10 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
 
     @Override
     public Object visitReturnStmt(StmtNode.Return stmt) {
+        if (stmt.tail_call) {
+            gen_tail_call((ExprNode.FunCall) stmt.value);
+            return null;
+        }
         String result = null;
         if (stmt.value != null)
             result = gen(stmt.value);
@@ -388,14 +635,25 @@ public class ILGen implements StmtNode.Visitor<Object>, ExprNode.Visitor<String>
     @Override
     public Object visitVarStmt(StmtNode.Var stmt) {
         String result = null;
-        if (stmt.initializer != null)
+        if (stmt.initializer != null) {
             result = gen(stmt.initializer);
+            result = gen_type_conversion(result, stmt.initializer.type, stmt.type);
+        }
 
-        // we don't generate assign op for constant initialization
-        if (result != null && !current_func.vars.lastElement().is_constant)
-            emit(ILOP.assign, result, null, stmt.name.lexeme);
+        // we don't generate assign op for constant initialization of globals, the value is in
+        // the data section. locals are assigned every time the declaration is executed.
+        // declared after the initializer, so it could refer to a shadowed variable.
+        String name = declare(stmt.name.lexeme);
+        // a local without initializer starts from the default value every time, not from the
+        // value left by the previous iteration of a loop or run of a function with tail calls.
+        if (result == null && block_depth > 0)
+            result = get_default(current_func, stmt.type);
+        if (result != null && !(block_depth == 0 && result.startsWith("@const"))) {
+            emit(ILOP.assign, result, null, name);
+            back_tmp(result);
+        }
 
-        current_func.vars.add(new ILVar(stmt.type, stmt.name.lexeme, result, false, false));
+        current_func.vars.add(new ILVar(stmt.type, name, result, false, false));
         return null;
     }
 
@@ -0,0 +1,553 @@
+package compiler;
+
+import frontend.DataType;
+import interpreter.error.RuntimeError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Register machine executing the IL of {@link ILGen} directly, the "il" engine.
+ *
+ * Every {@link LoweredFunction} is translated once into instructions of four ints: an
+ * opcode, the result and two arguments. Jumps go to instruction indices and every operand
+ * id is a slot of the frame of the function: parameters first, then constants, variables
+ * and temporaries. Operands
+ * of other types than the command works on are converted in extra instructions, as
+ * {@link IL2JVM} does, so the instructions never look at types.
+ *
+ * Values are <code>long</code>s as in the {@link vm.VM}: int and bool as is, float as its raw
+ * bits and string as an index in a pool. Globals live at the bottom of the stack, an operand
+ * <code>x &lt; 0</code> is global <code>~x</code>. Params wait on a stack of their own until
+ * the call copies them into the frame of the callee.
+ */
+public class ILInterpreter {
+    // region Instruction Set
+
+    private static final int MOV = 0;
+    private static final int IADD = 1, ISUB = 2, IMUL = 3, IDIV = 4, INEG = 5;
+    private static final int FADD = 6, FSUB = 7, FMUL = 8, FDIV = 9, FNEG = 10;
+    private static final int IEQ = 11, INE = 12, ILT = 13, ILE = 14, IGT = 15, IGE = 16;
+    private static final int FEQ = 17, FNE = 18, FLT = 19, FLE = 20, FGT = 21, FGE = 22;
+    private static final int AND = 23, OR = 24, NOT = 25;
+    private static final int I2F = 26, F2I = 27, I2B = 28;
+    private static final int JMP = 29, JF = 30, JT = 31;    // target is the result
+    private static final int PARAM = 32, CALL = 33, RET = 34;  // call: result, function, argc
+    private static final int PRINT = 35;                    // print: -, value, DataType ordinal
+
+    // operand of an instruction without one
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private static final int MAX_FRAMES = 1 << 16;
+    private static final int MAX_STACK = 1 << 24;
+
+    // endregion
+
+    // region Inner Class
+
+    // a function translated to instructions
+    private static class Routine {
+        final String name;
+        int[] code;
+        // values of the slots on entry: constants, initial values of variables, zeros
+        long[] init;
+        int slots;
+
+        Routine(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + name + " >";
+        }
+    }
+
+    // endregion
+
+    private final ILGen il_generator;
+    private final Routine[] routines;
+    private final Map<String, Integer> routine_index = new HashMap<>();
+    private final Map<String, Integer> global_index = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> string_index = new HashMap<>();
+    private final long[] global_init;
+
+    // state of the function being translated
+    private LoweredFunction function;
+    private int[] operand_of;         // operand of every id of the function
+    private DataType[] tmp_types;
+    private int scratch;              // first of the three scratch slots holding conversions
+    private int[] code;
+    private int size;
+
+    // state of a run
+    private long[] stack;
+    private long[] args = new long[64];
+
+    public ILInterpreter(ILGen il_generator) {
+        this.il_generator = il_generator;
+        string("");
+        routines = new Routine[il_generator.functions.size()];
+        for (int i = 0; i < routines.length; i++) {
+            routines[i] = new Routine(il_generator.functions.get(i).name);
+            routine_index.put(routines[i].name, i);
+        }
+
+        ILGen.ILFunction global = il_generator.functions.firstElement();
+        List<Long> values = new ArrayList<>();
+        for (ILGen.ILVar var : global.vars) {
+            if (var.is_constant || global_index.containsKey(var.name))
+                continue;
+            global_index.put(var.name, values.size());
+            values.add(initialValue(var, global));
+        }
+        global_init = new long[values.size()];
+        for (int i = 0; i < global_init.length; i++)
+            global_init[i] = values.get(i);
+
+        for (LoweredFunction lowered : il_generator.lower())
+            translate(lowered, routines[routine_index.get(lowered.function.name)]);
+    }
+
+    // region Translation
+
+    private void translate(LoweredFunction lowered, Routine routine) {
+        function = lowered;
+        OperandTable operands = lowered.operands;
+        ILGen.ILFunction ilFunction = lowered.function;
+        code = new int[64];
+        size = 0;
+
+        // parameters first, the call copies the arguments there.
+        Map<String, ILGen.ILVar> vars = new HashMap<>();
+        List<Long> init = new ArrayList<>();
+        for (ILGen.ILVar var : ilFunction.vars) {
+            if (var.is_param) {
+                vars.put(var.name, var);
+                init.add(0L);
+            }
+        }
+        for (ILGen.ILVar var : ilFunction.vars)
+            vars.putIfAbsent(var.name, var);
+
+        // then the constants, variables and temporaries the commands use.
+        operand_of = new int[operands.size()];
+        tmp_types = new DataType[operands.size()];
+        for (int id = 0; id < operands.size(); id++) {
+            String name = operands.name(id);
+            switch (operands.kind(id)) {
+                case OperandTable.GLOBAL:
+                    operand_of[id] = ~global_index.get(name);
+                    break;
+                case OperandTable.FUNCTION:
+                    operand_of[id] = routine_index.get(name);
+                    break;
+                default:
+                    ILGen.ILVar var = vars.get(name);
+                    if (var != null && var.is_param) {
+                        operand_of[id] = paramIndex(ilFunction, name);
+                        break;
+                    }
+                    operand_of[id] = init.size();
+                    if (var == null)
+                        init.add(0L);
+                    else
+                        init.add(var.is_constant ? value(var.type, var.init_value) : initialValue(var, ilFunction));
+                    break;
+            }
+        }
+        scratch = init.size();
+
+        // index of the first instruction of every command, for the jumps.
+        int[] starts = new int[lowered.size() + 1];
+        for (int i = 0; i < lowered.size(); i++) {
+            starts[i] = size;
+            translate(i);
+        }
+        starts[lowered.size()] = size;
+        // falling off the end of the function returns the default value, 0 for every type.
+        emit(RET, NONE, NONE, NONE);
+        // a jump is the last instruction of its command, with the target as result.
+        for (int i = 0; i < lowered.size(); i++) {
+            if (ILPass.isJump(lowered.op(i)))
+                code[starts[i + 1] - 3] = starts[lowered.result(i)];
+        }
+
+        routine.code = Arrays.copyOf(code, size);
+        routine.slots = scratch + 3;
+        routine.init = new long[routine.slots];
+        for (int i = 0; i < init.size(); i++)
+            routine.init[i] = init.get(i);
+    }
+
+    private static int paramIndex(ILGen.ILFunction function, String name) {
+        int index = 0;
+        for (ILGen.ILVar var : function.vars) {
+            if (var.is_param && var.name.equals(name))
+                return index;
+            if (var.is_param)
+                index++;
+        }
+        throw new RuntimeException("undefined IL parameter " + name);
+    }
+
+    private void translate(int index) {
+        int arg1 = function.arg1(index), arg2 = function.arg2(index), result = function.result(index);
+        DataType type;
+        switch (function.op(index)) {
+            case add:
+            case sub:
+            case multi:
+            case div: {
+                type = DataType.implicitConversion(typeOf(arg1), typeOf(arg2));
+                int a = load(arg1, type, 0);
+                int b = load(arg2, type, 1);
+                boolean is_float = type == DataType.FLOAT;
+                int op;
+                switch (function.op(index)) {
+                    case add: op = is_float ? FADD : IADD; break;
+                    case sub: op = is_float ? FSUB : ISUB; break;
+                    case multi: op = is_float ? FMUL : IMUL; break;
+                    default: op = is_float ? FDIV : IDIV; break;
+                }
+                store(result, type, op, a, b);
+                break;
+            }
+
+            case and:
+            case or:
+                type = typeOf(arg1);
+                store(result, type, function.op(index) == ILOP.and ? AND : OR, operand_of[arg1], load(arg2, type, 1));
+                break;
+
+            case equ:
+            case nequ:
+            case ge:
+            case g:
+            case l:
+            case le: {
+                type = DataType.implicitConversion(typeOf(arg1), typeOf(arg2));
+                int a = load(arg1, type, 0);
+                int b = load(arg2, type, 1);
+                int op;
+                switch (function.op(index)) {
+                    case equ: op = IEQ; break;
+                    case nequ: op = INE; break;
+                    case l: op = ILT; break;
+                    case le: op = ILE; break;
+                    case g: op = IGT; break;
+                    default: op = IGE; break;
+                }
+                store(result, DataType.BOOL, type == DataType.FLOAT ? op - IEQ + FEQ : op, a, b);
+                break;
+            }
+
+            case not:
+                store(result, DataType.BOOL, NOT, operand_of[arg1], NONE);
+                break;
+            case neg:
+                type = typeOf(arg1);
+                store(result, type, type == DataType.FLOAT ? FNEG : INEG, operand_of[arg1], NONE);
+                break;
+
+            case assign:
+                store(result, typeOf(arg1), MOV, operand_of[arg1], NONE);
+                break;
+
+            case param:
+                emit(PARAM, NONE, operand_of[arg1], NONE);
+                break;
+            case call: {
+                int callee = operand_of[arg1];
+                DataType return_type = il_generator.functions.get(callee).return_type;
+                if (return_type == null || result < 0)
+                    emit(CALL, NONE, callee, arg2);
+                else
+                    store(result, return_type, CALL, callee, arg2);
+                break;
+            }
+            case ret:
+                DataType return_type = function.function.return_type;
+                if (arg1 < 0 || return_type == null || function.function == il_generator.functions.firstElement())
+                    emit(RET, NONE, NONE, NONE);
+                else
+                    emit(RET, NONE, load(arg1, return_type, 0), NONE);
+                break;
+
+            case jf:
+            case jt:
+                // the target is patched once every command has its instructions.
+                emit(function.op(index) == ILOP.jf ? JF : JT, NONE, operand_of[arg1], NONE);
+                break;
+            case jmp:
+                emit(JMP, NONE, NONE, NONE);
+                break;
+
+            case print:
+                type = typeOf(arg1);
+                emit(PRINT, NONE, operand_of[arg1], type.ordinal());
+                break;
+
+            case i2f:
+                store(result, DataType.FLOAT, MOV, load(arg1, DataType.FLOAT, 0), NONE);
+                break;
+            case f2i:
+            case b2i:
+                store(result, DataType.INT, MOV, load(arg1, DataType.INT, 0), NONE);
+                break;
+            case i2b:
+                store(result, DataType.BOOL, MOV, load(arg1, DataType.BOOL, 0), NONE);
+                break;
+
+            default:
+                throw new RuntimeException("unsupported IL command " + function.op(index));
+        }
+    }
+
+    private void emit(int op, int result, int a, int b) {
+        if (size + 4 > code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        code[size++] = op;
+        code[size++] = result;
+        code[size++] = a;
+        code[size++] = b;
+    }
+
+    // the operand converted to the type, in a scratch slot if it has to be.
+    private int load(int id, DataType type, int scratch) {
+        return convert(operand_of[id], typeOf(id), type, this.scratch + scratch);
+    }
+
+    private int convert(int operand, DataType from, DataType to, int target) {
+        if (!needsConversion(from, to))
+            return operand;
+        int op = to == DataType.FLOAT ? I2F : to == DataType.INT ? F2I : I2B;
+        emit(op, target, operand, NONE);
+        return target;
+    }
+
+    // bool is already an int of 0 or 1.
+    private static boolean needsConversion(DataType from, DataType to) {
+        return from != to && !(from == DataType.BOOL && to == DataType.INT);
+    }
+
+    // emit the instruction computing a value of the type into the operand, converted to its type.
+    private void store(int id, DataType type, int op, int a, int b) {
+        if (function.operands.kind(id) == OperandTable.TMP) {
+            tmp_types[id] = type;
+            emit(op, operand_of[id], a, b);
+            return;
+        }
+        DataType var_type = typeOf(id);
+        if (!needsConversion(type, var_type)) {
+            emit(op, operand_of[id], a, b);
+            return;
+        }
+        emit(op, scratch + 2, a, b);
+        convert(scratch + 2, type, var_type, operand_of[id]);
+    }
+
+    private DataType typeOf(int id) {
+        if (function.operands.kind(id) == OperandTable.TMP)
+            return tmp_types[id];
+        return function.operands.type(id);
+    }
+
+    // value of a variable on entry, its constant initializer or the default value.
+    private long initialValue(ILGen.ILVar var, ILGen.ILFunction owner) {
+        if (!(var.init_value instanceof String))
+            return 0;
+        for (ILGen.ILVar init : owner.vars) {
+            if (init.is_constant && init.name.equals(var.init_value) && init.type == var.type)
+                return value(init.type, init.init_value);
+        }
+        return 0;
+    }
+
+    private long value(DataType type, Object value) {
+        switch (type) {
+            case INT: return (Integer) value;
+            case FLOAT: return Double.doubleToRawLongBits((Double) value);
+            case BOOL: return (Boolean) value ? 1 : 0;
+            case STRING: return string((String) value);
+            default:
+                throw new RuntimeException("unsupported constant " + value);
+        }
+    }
+
+    private int string(String value) {
+        return string_index.computeIfAbsent(value, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    // endregion
+
+    // region Execution
+
+    public void run() {
+        int globals_size = global_init.length;
+        stack = new long[Math.max(1024, globals_size + routines[0].slots)];
+        System.arraycopy(global_init, 0, stack, 0, globals_size);
+
+        int[] frame_routine = new int[MAX_FRAMES];
+        int[] frame_pc = new int[MAX_FRAMES];
+        int[] frame_bp = new int[MAX_FRAMES];
+        int[] frame_result = new int[MAX_FRAMES];
+
+        Routine routine = routines[0];
+        int[] code = routine.code;
+        long[] stack = this.stack;
+        int routine_id = 0;
+        int bp = globals_size;
+        System.arraycopy(routine.init, 0, stack, bp, routine.slots);
+        int pc = 0;
+        int fp = 0;
+        int argp = 0;
+
+        while (true) {
+            int r = code[pc + 1], a = code[pc + 2], b = code[pc + 3];
+            switch (code[pc]) {
+                case MOV: stack[at(bp, r)] = stack[at(bp, a)]; break;
+
+                case IADD: stack[at(bp, r)] = (int) (stack[at(bp, a)] + stack[at(bp, b)]); break;
+                case ISUB: stack[at(bp, r)] = (int) (stack[at(bp, a)] - stack[at(bp, b)]); break;
+                case IMUL: stack[at(bp, r)] = (int) stack[at(bp, a)] * (int) stack[at(bp, b)]; break;
+                case IDIV: {
+                    int divisor = (int) stack[at(bp, b)];
+                    if (divisor == 0)
+                        throw new RuntimeError(null, "division by zero.");
+                    stack[at(bp, r)] = (int) stack[at(bp, a)] / divisor;
+                    break;
+                }
+                case INEG: stack[at(bp, r)] = -(int) stack[at(bp, a)]; break;
+
+                case FADD: stack[at(bp, r)] = f(d(stack[at(bp, a)]) + d(stack[at(bp, b)])); break;
+                case FSUB: stack[at(bp, r)] = f(d(stack[at(bp, a)]) - d(stack[at(bp, b)])); break;
+                case FMUL: stack[at(bp, r)] = f(d(stack[at(bp, a)]) * d(stack[at(bp, b)])); break;
+                case FDIV: stack[at(bp, r)] = f(d(stack[at(bp, a)]) / d(stack[at(bp, b)])); break;
+                case FNEG: stack[at(bp, r)] = f(-d(stack[at(bp, a)])); break;
+
+                case IEQ: stack[at(bp, r)] = stack[at(bp, a)] == stack[at(bp, b)] ? 1 : 0; break;
+                case INE: stack[at(bp, r)] = stack[at(bp, a)] != stack[at(bp, b)] ? 1 : 0; break;
+                case ILT: stack[at(bp, r)] = stack[at(bp, a)] < stack[at(bp, b)] ? 1 : 0; break;
+                case ILE: stack[at(bp, r)] = stack[at(bp, a)] <= stack[at(bp, b)] ? 1 : 0; break;
+                case IGT: stack[at(bp, r)] = stack[at(bp, a)] > stack[at(bp, b)] ? 1 : 0; break;
+                case IGE: stack[at(bp, r)] = stack[at(bp, a)] >= stack[at(bp, b)] ? 1 : 0; break;
+                case FEQ: stack[at(bp, r)] = d(stack[at(bp, a)]) == d(stack[at(bp, b)]) ? 1 : 0; break;
+                case FNE: stack[at(bp, r)] = d(stack[at(bp, a)]) != d(stack[at(bp, b)]) ? 1 : 0; break;
+                case FLT: stack[at(bp, r)] = d(stack[at(bp, a)]) < d(stack[at(bp, b)]) ? 1 : 0; break;
+                case FLE: stack[at(bp, r)] = d(stack[at(bp, a)]) <= d(stack[at(bp, b)]) ? 1 : 0; break;
+                case FGT: stack[at(bp, r)] = d(stack[at(bp, a)]) > d(stack[at(bp, b)]) ? 1 : 0; break;
+                case FGE: stack[at(bp, r)] = d(stack[at(bp, a)]) >= d(stack[at(bp, b)]) ? 1 : 0; break;
+
+                case AND: stack[at(bp, r)] = stack[at(bp, a)] & stack[at(bp, b)]; break;
+                case OR: stack[at(bp, r)] = stack[at(bp, a)] | stack[at(bp, b)]; break;
+                case NOT: stack[at(bp, r)] = stack[at(bp, a)] == 0 ? 1 : 0; break;
+
+                case I2F: stack[at(bp, r)] = f((double) stack[at(bp, a)]); break;
+                case F2I: stack[at(bp, r)] = (int) d(stack[at(bp, a)]); break;
+                case I2B: stack[at(bp, r)] = stack[at(bp, a)] != 0 ? 1 : 0; break;
+
+                case JMP: pc = r; continue;
+                case JF:
+                    if (stack[at(bp, a)] == 0) {
+                        pc = r;
+                        continue;
+                    }
+                    break;
+                case JT:
+                    if (stack[at(bp, a)] != 0) {
+                        pc = r;
+                        continue;
+                    }
+                    break;
+
+                case PARAM:
+                    if (argp == args.length)
+                        args = Arrays.copyOf(args, argp * 2);
+                    args[argp++] = stack[at(bp, a)];
+                    break;
+                case CALL: {
+                    if (fp + 1 == MAX_FRAMES)
+                        throw new RuntimeError(null, "maximum recursion depth exceeded.");
+                    frame_routine[fp] = routine_id;
+                    frame_pc[fp] = pc + 4;
+                    frame_bp[fp] = bp;
+                    frame_result[fp] = r;
+                    fp++;
+
+                    bp += routine.slots;
+                    routine_id = a;
+                    routine = routines[routine_id];
+                    code = routine.code;
+                    if (bp + routine.slots > stack.length)
+                        stack = ensureStack(bp + routine.slots);
+                    System.arraycopy(routine.init, 0, stack, bp, routine.slots);
+                    argp -= b;
+                    System.arraycopy(args, argp, stack, bp, b);
+                    pc = 0;
+                    continue;
+                }
+                case RET: {
+                    long value = a == NONE ? 0 : stack[at(bp, a)];
+                    if (fp == 0)
+                        return;
+                    fp--;
+                    routine_id = frame_routine[fp];
+                    routine = routines[routine_id];
+                    code = routine.code;
+                    pc = frame_pc[fp];
+                    bp = frame_bp[fp];
+                    if (frame_result[fp] != NONE)
+                        stack[at(bp, frame_result[fp])] = value;
+                    continue;
+                }
+
+                case PRINT:
+                    System.out.println(stringify(stack[at(bp, a)], b));
+                    break;
+                default:
+                    throw new RuntimeError(null, "invalid IL instruction " + code[pc] + " in " + routine + ".");
+            }
+            pc += 4;
+        }
+    }
+
+    // index in the stack of an operand of the frame at bp
+    private static int at(int bp, int operand) {
+        return operand >= 0 ? bp + operand : ~operand;
+    }
+
+    private long[] ensureStack(int size) {
+        if (size > MAX_STACK)
+            throw new RuntimeError(null, "maximum recursion depth exceeded.");
+        stack = Arrays.copyOf(stack, Math.max(size, Math.min(stack.length * 2, MAX_STACK)));
+        return stack;
+    }
+
+    private static double d(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long f(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    private String stringify(long value, int type) {
+        switch (DataType.values()[type]) {
+            case INT: return String.valueOf((int) value);
+            case FLOAT: return String.valueOf(d(value));
+            case BOOL: return String.valueOf(value != 0);
+            case STRING: return strings.get((int) value);
+            default: return String.valueOf(value);
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,150 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An optimization of the commands of an IL function, run by {@link PassManager}.
+ *
+ * Temporaries are only live inside the basic block defining them, ILGen never carries one
+ * over a label or a jump. Passes keep it that way, the backends rely on it.
+ */
+abstract class ILPass {
+    final ILGen il_generator;
+
+    ILPass(ILGen il_generator) {
+        this.il_generator = il_generator;
+    }
+
+    abstract String name();
+
+    /**
+     * @return whether the function was changed
+     */
+    abstract boolean run(ILGen.ILFunction function);
+
+    // region Utils
+
+    static boolean isTmp(String name) {
+        return name != null && name.startsWith("@tmp");
+    }
+
+    static boolean isJump(ILOP op) {
+        return op == ILOP.jmp || op == ILOP.jf || op == ILOP.jt;
+    }
+
+    // whether the command is the last of its basic block, labels are the first.
+    static boolean endsBlock(ILOP op) {
+        return isJump(op) || op == ILOP.ret;
+    }
+
+    // the target is the result of jumps of an if and the argument of the others.
+    static String target(ILGen.Command cmd) {
+        return cmd.result != null ? cmd.result : cmd.arg1;
+    }
+
+    static void setTarget(ILGen.Command cmd, String label) {
+        if (cmd.result != null)
+            cmd.result = label;
+        else
+            cmd.arg1 = label;
+    }
+
+    // variables read by the command
+    static List<String> uses(ILGen.Command cmd) {
+        List<String> uses = new ArrayList<>(2);
+        switch (cmd.op) {
+            case label: case jmp: case call:
+                break;
+            default:
+                if (cmd.arg1 != null)
+                    uses.add(cmd.arg1);
+                if (cmd.arg2 != null)
+                    uses.add(cmd.arg2);
+        }
+        return uses;
+    }
+
+    // variable written by the command, null if none
+    static String def(ILGen.Command cmd) {
+        switch (cmd.op) {
+            case label: case jmp: case jf: case jt: case param: case ret: case print:
+                return null;
+            default:
+                return cmd.result;
+        }
+    }
+
+    // whether the command does nothing but compute its result
+    static boolean isPure(ILGen.Command cmd) {
+        switch (cmd.op) {
+            case call: case param: case ret: case print: case label: case jmp: case jf: case jt:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    ILGen.ILVar var(ILGen.ILFunction function, String name) {
+        for (ILGen.ILVar var : function.vars) {
+            if (var.name.equals(name))
+                return var;
+        }
+        if (function != il_generator.functions.firstElement())
+            return var(il_generator.functions.firstElement(), name);
+        return null;
+    }
+
+    boolean isGlobal(ILGen.ILFunction function, String name) {
+        ILGen.ILFunction global = il_generator.functions.firstElement();
+        if (function == global)
+            return !isTmp(name);
+        for (ILGen.ILVar var : function.vars) {
+            if (var.name.equals(name))
+                return false;
+        }
+        return !isTmp(name);
+    }
+
+    ILGen.ILVar constant(ILGen.ILFunction function, String name) {
+        if (name == null || !name.startsWith("@const"))
+            return null;
+        ILGen.ILVar var = var(function, name);
+        return var != null && var.is_constant ? var : null;
+    }
+
+    // type of the value defined by each command, null if it defines none.
+    DataType[] resultTypes(ILGen.ILFunction function) {
+        DataType[] types = new DataType[function.commands.size()];
+        Map<String, DataType> tmp_types = new HashMap<>();
+        Map<String, DataType> var_types = new HashMap<>();
+        for (int i = 0; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            String def = def(cmd);
+            if (def == null)
+                continue;
+            types[i] = LinearScan.resultType(cmd, name -> {
+                if (isTmp(name))
+                    return tmp_types.get(name);
+                return var_types.computeIfAbsent(name, k -> var(function, k).type);
+            }, name -> function(name).return_type);
+            if (isTmp(def))
+                tmp_types.put(def, types[i]);
+        }
+        return types;
+    }
+
+    ILGen.ILFunction function(String name) {
+        for (ILGen.ILFunction func : il_generator.functions) {
+            if (func.name.equals(name))
+                return func;
+        }
+        throw new RuntimeException("undefined IL function " + name);
+    }
+
+    // endregion
+}
@@ -0,0 +1,326 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Replace calls of small functions by a copy of their commands.
+ *
+ * A function is inlined if it has at most <code>budget</code> commands and can't call
+ * itself. Callees are inlined into first, so what they call is inlined too. With a
+ * {@link CallProfile} only its hot call sites are inlined.
+ *
+ * The params of the call become assigns to new variables for the parameters, the locals of
+ * the callee get new variables set to their initial value, and its temporaries are
+ * renumbered after those of the caller. A callee without jumps is copied up to its first
+ * ret, which assigns the result of the call. Otherwise every ret assigns a new variable and
+ * jumps to the end of the copy. Temporaries of the caller live across such a call are
+ * saved to variables around it, so they stay inside one basic block.
+ */
+class Inlining extends ILPass {
+    private final int budget;
+    private final CallProfile profile;
+    private final Set<ILGen.ILFunction> done = new HashSet<>();
+
+    Inlining(ILGen il_generator, int budget, CallProfile profile) {
+        super(il_generator);
+        this.budget = budget;
+        this.profile = profile;
+    }
+
+    @Override
+    String name() {
+        return "inlining";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        if (!done.add(function))
+            return false;
+        // calls copied from an inlined callee have been considered in the callee.
+        List<ILGen.Command> calls = new ArrayList<>();
+        for (ILGen.Command cmd : function.commands) {
+            if (cmd.op == ILOP.call)
+                calls.add(cmd);
+        }
+
+        boolean changed = false;
+        for (ILGen.Command call : calls) {
+            ILGen.ILFunction callee = function(call.arg1);
+            if (callee == function || isRecursive(callee))
+                continue;
+            run(callee);
+            if (profile != null && !profile.isHot(function.name, call.line, callee.name))
+                continue;
+            if (size(callee) <= budget && canInline(function, callee))
+                changed |= inline(function, function.commands.indexOf(call), callee);
+        }
+        return changed;
+    }
+
+    // region Decision
+
+    private boolean isRecursive(ILGen.ILFunction function) {
+        Set<String> reached = new HashSet<>();
+        Stack<ILGen.ILFunction> work = new Stack<>();
+        work.push(function);
+        while (!work.isEmpty()) {
+            for (ILGen.Command cmd : work.pop().commands) {
+                if (cmd.op != ILOP.call)
+                    continue;
+                if (cmd.arg1.equals(function.name))
+                    return true;
+                if (reached.add(cmd.arg1))
+                    work.push(function(cmd.arg1));
+            }
+        }
+        return false;
+    }
+
+    private static int size(ILGen.ILFunction function) {
+        int size = 0;
+        for (ILGen.Command cmd : function.commands) {
+            if (cmd.op != ILOP.label)
+                size += 1;
+        }
+        return size;
+    }
+
+    private static boolean hasJumps(ILGen.ILFunction function) {
+        for (ILGen.Command cmd : function.commands) {
+            if (isJump(cmd.op))
+                return true;
+        }
+        return false;
+    }
+
+    // the globals the callee uses must not be hidden by variables of the caller.
+    private boolean canInline(ILGen.ILFunction caller, ILGen.ILFunction callee) {
+        if (caller == il_generator.functions.firstElement())
+            return true;
+        for (ILGen.Command cmd : callee.commands) {
+            for (String name : names(cmd)) {
+                if (isGlobal(callee, name) && hasVar(caller, name))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasVar(ILGen.ILFunction function, String name) {
+        for (ILGen.ILVar var : function.vars) {
+            if (var.name.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    // variables the command reads or writes
+    private static List<String> names(ILGen.Command cmd) {
+        List<String> names = uses(cmd);
+        if (def(cmd) != null)
+            names.add(def(cmd));
+        return names;
+    }
+
+    // endregion
+
+    // region Inlining
+
+    private boolean inline(ILGen.ILFunction caller, int index, ILGen.ILFunction callee) {
+        List<ILGen.Command> commands = caller.commands;
+        ILGen.Command call = commands.get(index);
+        boolean jumps = hasJumps(callee);
+
+        // the params of the call, those of calls nested in its arguments come in between.
+        int argc = Integer.parseInt(call.arg2);
+        List<Integer> params = new ArrayList<>();
+        int nested = 0;
+        for (int i = index - 1; i >= 0 && params.size() < argc; i--) {
+            ILGen.Command cmd = commands.get(i);
+            if (cmd.op == ILOP.label || endsBlock(cmd.op))
+                return false;
+            if (cmd.op == ILOP.call)
+                nested += Integer.parseInt(cmd.arg2);
+            else if (cmd.op == ILOP.param && nested > 0)
+                nested -= 1;
+            else if (cmd.op == ILOP.param)
+                params.add(0, i);
+        }
+        if (params.size() < argc)
+            return false;
+        // params of an enclosing call can't wait across jumps, they are on the stack of the JVM.
+        if (jumps && pendingParams(commands, index) > argc)
+            return false;
+
+        // names of the callee in the caller
+        Map<String, String> names = new HashMap<>();
+        List<ILGen.Command> body = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
+        for (ILGen.ILVar var : callee.vars) {
+            if (var.is_constant) {
+                names.put(var.name, il_generator.get_const(caller, var.type, var.init_value));
+                continue;
+            }
+            String name = il_generator.get_new_var(caller, var.type);
+            names.put(var.name, name);
+            if (var.is_param) {
+                parameters.add(name);
+            } else {
+                // every local starts with its initial value, as on entry of the callee.
+                ILGen.ILVar init = constant(callee, var.init_value instanceof String ? (String) var.init_value : null);
+                String value = init != null ? il_generator.get_const(caller, init.type, init.init_value)
+                        : defaultValue(caller, var.type);
+                body.add(new ILGen.Command(ILOP.assign, value, null, name));
+            }
+        }
+        int next_tmp = maxTmp(caller) + 1;
+        for (ILGen.Command cmd : callee.commands) {
+            for (String name : names(cmd)) {
+                if (isTmp(name) && !names.containsKey(name))
+                    names.put(name, "@tmp" + next_tmp++);
+            }
+        }
+
+        DataType return_type = callee.return_type;
+        String result = return_type != null ? (jumps ? il_generator.get_new_var(caller, return_type) : call.result) : null;
+        String end = jumps ? il_generator.get_new_label() : null;
+        Map<String, String> labels = new HashMap<>();
+        boolean returned = false;
+        for (ILGen.Command cmd : callee.commands) {
+            if (cmd.op == ILOP.ret) {
+                if (result != null) {
+                    String value = cmd.arg1 != null ? names.getOrDefault(cmd.arg1, cmd.arg1) : defaultValue(caller, return_type);
+                    body.add(new ILGen.Command(ILOP.assign, value, null, result));
+                }
+                if (!jumps) {
+                    returned = true;
+                    break;
+                }
+                body.add(new ILGen.Command(ILOP.jmp, end, null, null));
+                continue;
+            }
+            body.add(copy(cmd, names, labels));
+        }
+        if (!returned && result != null)
+            body.add(new ILGen.Command(ILOP.assign, defaultValue(caller, return_type), null, result));
+
+        List<ILGen.Command> saves = new ArrayList<>(), restores = new ArrayList<>();
+        if (jumps) {
+            body.add(new ILGen.Command(ILOP.label, end, null, null));
+            if (result != null)
+                body.add(new ILGen.Command(ILOP.assign, result, null, call.result));
+            DataType[] types = resultTypes(caller);
+            for (String tmp : liveAcross(commands, index)) {
+                String saved = il_generator.get_new_var(caller, typeBefore(commands, types, tmp, index));
+                saves.add(new ILGen.Command(ILOP.assign, tmp, null, saved));
+                restores.add(new ILGen.Command(ILOP.assign, saved, null, tmp));
+            }
+        }
+
+        commands.remove(index);
+        List<ILGen.Command> code = new ArrayList<>(saves);
+        code.addAll(body);
+        code.addAll(restores);
+        commands.addAll(index, code);
+        for (int i = 0; i < argc; i++) {
+            String value = commands.get(params.get(i)).arg1;
+            commands.set(params.get(i), new ILGen.Command(ILOP.assign, value, null, parameters.get(i)));
+        }
+        return true;
+    }
+
+    private ILGen.Command copy(ILGen.Command cmd, Map<String, String> names, Map<String, String> labels) {
+        ILGen.Command copy;
+        switch (cmd.op) {
+            case label:
+                return new ILGen.Command(ILOP.label, label(labels, cmd.arg1), null, null);
+            case jmp: case jf: case jt:
+                copy = new ILGen.Command(cmd.op, rename(names, cmd.arg1), null, cmd.result);
+                setTarget(copy, label(labels, target(cmd)));
+                return copy;
+            case call:
+                copy = new ILGen.Command(ILOP.call, cmd.arg1, cmd.arg2, rename(names, cmd.result));
+                copy.line = cmd.line;
+                return copy;
+            default:
+                return new ILGen.Command(cmd.op, rename(names, cmd.arg1), rename(names, cmd.arg2), rename(names, cmd.result));
+        }
+    }
+
+    private static String rename(Map<String, String> names, String name) {
+        return name == null ? null : names.getOrDefault(name, name);
+    }
+
+    private String label(Map<String, String> labels, String label) {
+        return labels.computeIfAbsent(label, k -> il_generator.get_new_label());
+    }
+
+    private String defaultValue(ILGen.ILFunction function, DataType type) {
+        return il_generator.get_default(function, type);
+    }
+
+    private static int maxTmp(ILGen.ILFunction function) {
+        int max = 0;
+        for (ILGen.Command cmd : function.commands) {
+            for (String name : names(cmd)) {
+                if (isTmp(name))
+                    max = Math.max(max, Integer.parseInt(name.substring("@tmp".length())));
+            }
+        }
+        return max;
+    }
+
+    // number of params not taken by a call yet at the command
+    private static int pendingParams(List<ILGen.Command> commands, int index) {
+        int start = index;
+        while (start > 0 && commands.get(start - 1).op != ILOP.label && !endsBlock(commands.get(start - 1).op))
+            start--;
+        int pending = 0;
+        for (int i = start; i < index; i++) {
+            if (commands.get(i).op == ILOP.param)
+                pending += 1;
+            else if (commands.get(i).op == ILOP.call)
+                pending -= Integer.parseInt(commands.get(i).arg2);
+        }
+        return pending;
+    }
+
+    // temporaries read after the call before they are written, besides its result
+    private static List<String> liveAcross(List<ILGen.Command> commands, int index) {
+        List<String> live = new ArrayList<>();
+        Set<String> written = new HashSet<>();
+        written.add(commands.get(index).result);
+        for (int i = index + 1; i < commands.size(); i++) {
+            ILGen.Command cmd = commands.get(i);
+            if (cmd.op == ILOP.label)
+                break;
+            for (String use : uses(cmd)) {
+                if (isTmp(use) && !written.contains(use) && !live.contains(use))
+                    live.add(use);
+            }
+            if (def(cmd) != null)
+                written.add(def(cmd));
+            if (endsBlock(cmd.op))
+                break;
+        }
+        return live;
+    }
+
+    private static DataType typeBefore(List<ILGen.Command> commands, DataType[] types, String tmp, int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (tmp.equals(def(commands.get(i))))
+                return types[i];
+        }
+        throw new RuntimeException("undefined IL temporary " + tmp);
+    }
+
+    // endregion
+}
@@ -0,0 +1,561 @@
+package compiler;
+
+import compiler.jvm.ClassFile;
+import compiler.jvm.Code;
+import compiler.jvm.Code.Label;
+import frontend.DataType;
+import frontend.ast.ExprNode;
+import frontend.ast.StmtNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import static compiler.jvm.Code.*;
+
+/**
+ * Compile resolved Yan functions into static methods of a JVM class.
+ *
+ * Types of expressions must have been computed by {@link compiler.semantic.Resolver}.
+ * int and bool are mapped to JVM int, float to double. The functions called by a compiled
+ * function are compiled into the same class, so calls between them are plain invokestatic.
+ * Anything else (globals, strings other than printed literals, nested functions) is not
+ * supported, {@link #compile} then fails and the caller keeps interpreting the function.
+ */
+public class JVMGen implements StmtNode.Visitor<Void>, ExprNode.Visitor<Void> {
+
+    // region Inner Class
+
+    // thrown when the function uses something the JVM backend does not support.
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static class Variable {
+        final int index;
+        final DataType type;
+
+        Variable(int index, DataType type) {
+            this.index = index;
+            this.type = type;
+        }
+    }
+
+    private static class Loop {
+        final Label start = new Label();
+        final Label end = new Label();
+    }
+
+    // endregion
+
+    private final ClassFile file;
+    private final Set<StmtNode.Function> compiled = new HashSet<>();
+    private final Deque<StmtNode.Function> pending = new ArrayDeque<>();
+
+    // state of the function being compiled
+    private StmtNode.Function function;
+    private Code code;
+    private final Stack<Map<String, Variable>> scopes = new Stack<>();
+    private final Stack<Loop> loops = new Stack<>();
+    private final List<Variable> parameters = new ArrayList<>();
+    // where a tail call of the function jumps to, after the parameters are stored.
+    private Label start;
+    private int next_local;
+
+    private String failure;
+
+    public JVMGen(ClassFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Compile the function and all the functions it calls into the class.
+     *
+     * @return false if some of them use something that is not supported, see {@link #failure()}
+     */
+    public boolean compile(StmtNode.Function function) {
+        try {
+            schedule(function);
+            while (!pending.isEmpty())
+                compileFunction(pending.poll());
+            return true;
+        } catch (Unsupported e) {
+            failure = e.getMessage();
+            return false;
+        } catch (IllegalStateException e) {
+            // too large for a class file.
+            failure = e.getMessage();
+            return false;
+        }
+    }
+
+    public String failure() {
+        return failure;
+    }
+
+    public static String descriptor(StmtNode.Function function) {
+        StringBuilder builder = new StringBuilder("(");
+        for (DataType type : function.types)
+            builder.append(descriptor(type));
+        builder.append(')');
+        builder.append(function.return_type == null ? "V" : descriptor(function.return_type));
+        return builder.toString();
+    }
+
+    public static String descriptor(DataType type) {
+        switch (type) {
+            case INT: return "I";
+            case FLOAT: return "D";
+            case BOOL: return "Z";
+            default:
+                throw new Unsupported("type " + type + " is not supported.");
+        }
+    }
+
+    // region Utils
+
+    private void schedule(StmtNode.Function function) {
+        if (compiled.add(function))
+            pending.add(function);
+    }
+
+    private void compileFunction(StmtNode.Function function) {
+        this.function = function;
+        String descriptor = descriptor(function);
+        code = file.method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, function.name.lexeme, descriptor);
+        next_local = 0;
+
+        beginScope();
+        parameters.clear();
+        for (int i = 0; i < function.params.size(); i++)
+            parameters.add(declare(function.params.get(i).lexeme, function.types.get(i)));
+        start = new Label();
+        if (function.tail_calls)
+            code.mark(start);
+        for (StmtNode item : function.body.items)
+            compile(item);
+        // falling off the end of the function.
+        if (function.return_type == null) {
+            code.op(RETURN);
+        } else {
+            pushDefault(function.return_type);
+            code.op(returnOp(function.return_type));
+        }
+        endScope();
+    }
+
+    private void compile(StmtNode stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(ExprNode expr) {
+        if (expr.type == null && !(expr instanceof ExprNode.FunCall))
+            throw new Unsupported("expression is not resolved.");
+        expr.accept(this);
+    }
+
+    private static int width(DataType type) {
+        return type == DataType.FLOAT ? 2 : 1;
+    }
+
+    private static int loadOp(DataType type) {
+        return type == DataType.FLOAT ? DLOAD : ILOAD;
+    }
+
+    private static int storeOp(DataType type) {
+        return type == DataType.FLOAT ? DSTORE : ISTORE;
+    }
+
+    private static int returnOp(DataType type) {
+        return type == DataType.FLOAT ? DRETURN : IRETURN;
+    }
+
+    private void pushDefault(DataType type) {
+        if (type == DataType.FLOAT)
+            code.dconst(0);
+        else
+            code.iconst(0);
+    }
+
+    private void pop(DataType type) {
+        if (type == null)
+            return;
+        code.op(type == DataType.FLOAT ? POP2 : POP);
+    }
+
+    private Variable declare(String name, DataType type) {
+        descriptor(type);
+        Variable variable = new Variable(next_local, type);
+        next_local += width(type);
+        scopes.peek().put(name, variable);
+        return variable;
+    }
+
+    private Variable lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Variable variable = scopes.get(i).get(name);
+            if (variable != null)
+                return variable;
+        }
+        throw new Unsupported("global variable '" + name + "' is not supported.");
+    }
+
+    private void beginScope() {
+        scopes.push(new HashMap<>());
+    }
+
+    private void endScope() {
+        // locals of the closed scope are reused by following declarations.
+        for (Variable variable : scopes.pop().values())
+            next_local -= width(variable.type);
+    }
+
+    private void convert(DataType from, DataType to) {
+        if (from == to)
+            return;
+        if (from == DataType.INT && to == DataType.FLOAT) code.op(I2D);
+        else if (from == DataType.BOOL && to == DataType.FLOAT) code.op(I2D);
+        else if (from == DataType.FLOAT && to == DataType.INT) code.op(D2I);
+        else if (from == DataType.INT && to == DataType.BOOL) {
+            Label zero = new Label();
+            Label end = new Label();
+            code.jump(IFEQ, zero);
+            code.iconst(1);
+            code.jump(GOTO, end);
+            code.mark(zero);
+            code.iconst(0);
+            code.mark(end);
+        }
+        else if (from == DataType.BOOL && to == DataType.INT) return;
+        else throw new Unsupported("invalid conversion from " + from + " to " + to);
+    }
+
+    private static boolean isNumber(DataType type) {
+        return type == DataType.INT || type == DataType.FLOAT || type == DataType.BOOL;
+    }
+
+    // jump to target if the condition is false.
+    private void branchFalse(ExprNode cond, Label target) {
+        while (cond instanceof ExprNode.Grouping)
+            cond = ((ExprNode.Grouping) cond).expression;
+
+        if (cond instanceof ExprNode.Relation) {
+            ExprNode.Relation relation = (ExprNode.Relation) cond;
+            if (!isNumber(relation.left.type) || !isNumber(relation.right.type))
+                throw new Unsupported("relation of " + relation.left.type + " and " + relation.right.type);
+            DataType type = DataType.implicitConversion(relation.left.type, relation.right.type);
+            compile(relation.left);
+            convert(relation.left.type, type);
+            compile(relation.right);
+            convert(relation.right.type, type);
+
+            if (type == DataType.FLOAT) {
+                // NaN makes every comparison but != false.
+                switch (relation.operator.type) {
+                    case LESS: code.op(DCMPG); code.jump(IFGE, target); break;
+                    case LESS_EQUAL: code.op(DCMPG); code.jump(IFGT, target); break;
+                    case GREATER: code.op(DCMPL); code.jump(IFLE, target); break;
+                    case GREATER_EQUAL: code.op(DCMPL); code.jump(IFLT, target); break;
+                    case EQUAL: code.op(DCMPL); code.jump(IFNE, target); break;
+                    case NOT_EQUAL: code.op(DCMPL); code.jump(IFEQ, target); break;
+                    default:
+                        throw new Unsupported("unsupported operator " + relation.operator.type);
+                }
+            } else {
+                switch (relation.operator.type) {
+                    case LESS: code.jump(IF_ICMPGE, target); break;
+                    case LESS_EQUAL: code.jump(IF_ICMPGT, target); break;
+                    case GREATER: code.jump(IF_ICMPLE, target); break;
+                    case GREATER_EQUAL: code.jump(IF_ICMPLT, target); break;
+                    case EQUAL: code.jump(IF_ICMPNE, target); break;
+                    case NOT_EQUAL: code.jump(IF_ICMPEQ, target); break;
+                    default:
+                        throw new Unsupported("unsupported operator " + relation.operator.type);
+                }
+            }
+            return;
+        }
+
+        if (cond.type != DataType.INT && cond.type != DataType.BOOL)
+            throw new Unsupported("expression in the condition should be able to evaluate as boolean.");
+        compile(cond);
+        code.jump(IFEQ, target);
+    }
+
+    // endregion
+
+    // region Expression
+
+    @Override
+    public Void visitAssignExpr(ExprNode.Assign expr) {
+        Variable variable = lookup(expr.name.lexeme);
+        compile(expr.value);
+        // the value of the expression keeps its own type, only the stored copy is converted.
+        code.op(expr.value.type == DataType.FLOAT ? DUP2 : DUP);
+        convert(expr.value.type, variable.type);
+        code.local(storeOp(variable.type), variable.index);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(ExprNode.Binary expr) {
+        if (expr.type != DataType.INT && expr.type != DataType.FLOAT)
+            throw new Unsupported("binary operator on " + expr.type);
+        compile(expr.left);
+        convert(expr.left.type, expr.type);
+        compile(expr.right);
+        convert(expr.right.type, expr.type);
+
+        boolean is_float = expr.type == DataType.FLOAT;
+        switch (expr.operator.type) {
+            case ADD: code.op(is_float ? DADD : IADD); break;
+            case SUB: code.op(is_float ? DSUB : ISUB); break;
+            case MULTI: code.op(is_float ? DMUL : IMUL); break;
+            case DIV: code.op(is_float ? DDIV : IDIV); break;
+            case MOD: code.op(is_float ? DREM : IREM); break;
+            default:
+                throw new Unsupported("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(ExprNode.FunCall expr) {
+        StmtNode.Function func = expr.func;
+        if (func == null)
+            throw new Unsupported("call is not resolved.");
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            compile(expr.arguments.get(i));
+            convert(expr.arguments.get(i).type, func.types.get(i));
+        }
+        schedule(func);
+        code.invoke(INVOKESTATIC, file.name, func.name.lexeme, descriptor(func));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(ExprNode.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(ExprNode.Literal expr) {
+        if (expr.value instanceof Integer)
+            code.iconst((Integer) expr.value);
+        else if (expr.value instanceof Boolean)
+            code.iconst((Boolean) expr.value ? 1 : 0);
+        else if (expr.value instanceof Double)
+            code.dconst((Double) expr.value);
+        else
+            throw new Unsupported("type of '" + expr.value + "' is not supported.");
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(ExprNode.Logical expr) {
+        if (expr.left.type != DataType.BOOL || expr.right.type != DataType.BOOL)
+            throw new Unsupported("operands of relation operator should be able to be evaluated as bool");
+        // both operands are evaluated, the same as the interpreter.
+        compile(expr.left);
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case REL_AND: code.op(IAND); break;
+            case REL_OR: code.op(IOR); break;
+            default:
+                throw new Unsupported("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitRelationExpr(ExprNode.Relation expr) {
+        Label is_false = new Label();
+        Label end = new Label();
+        branchFalse(expr, is_false);
+        code.iconst(1);
+        code.jump(GOTO, end);
+        code.mark(is_false);
+        code.iconst(0);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(ExprNode.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case SUB:
+                if (expr.right.type == DataType.FLOAT) code.op(DNEG);
+                else if (expr.right.type == DataType.INT) code.op(INEG);
+                else throw new Unsupported("operand of negative sign should be a number.");
+                break;
+            case REL_NOT:
+                if (expr.right.type != DataType.BOOL)
+                    throw new Unsupported("operand of ! should be a bool.");
+                code.iconst(1);
+                code.op(IXOR);
+                break;
+            default:
+                throw new Unsupported("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(ExprNode.Variable expr) {
+        Variable variable = lookup(expr.name.lexeme);
+        code.local(loadOp(variable.type), variable.index);
+        return null;
+    }
+
+    // endregion
+
+    // region Statement
+
+    @Override
+    public Void visitBlockStmt(StmtNode.Block stmt) {
+        beginScope();
+        for (StmtNode item : stmt.items)
+            compile(item);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitEmptyStmt(StmtNode.Empty stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(StmtNode.Expression stmt) {
+        if (stmt.expr instanceof ExprNode.Assign) {
+            // the value of an assignment statement is not used.
+            ExprNode.Assign assign = (ExprNode.Assign) stmt.expr;
+            Variable variable = lookup(assign.name.lexeme);
+            compile(assign.value);
+            convert(assign.value.type, variable.type);
+            code.local(storeOp(variable.type), variable.index);
+            return null;
+        }
+        compile(stmt.expr);
+        pop(stmt.expr.type);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(StmtNode.Function stmt) {
+        throw new Unsupported("nested function is not supported.");
+    }
+
+    @Override
+    public Void visitIfStmt(StmtNode.If stmt) {
+        Label is_false = new Label();
+        branchFalse(stmt.cond, is_false);
+        compile(stmt.if_body);
+        if (stmt.else_body != null) {
+            Label end = new Label();
+            code.jump(GOTO, end);
+            code.mark(is_false);
+            compile(stmt.else_body);
+            code.mark(end);
+        } else {
+            code.mark(is_false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(StmtNode.Print stmt) {
+        code.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        if (stmt.value instanceof ExprNode.Literal && ((ExprNode.Literal) stmt.value).value instanceof String) {
+            code.sconst((String) ((ExprNode.Literal) stmt.value).value);
+            code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+            return null;
+        }
+        if (stmt.value.type == null)
+            throw new Unsupported("expression in print should have a value.");
+        compile(stmt.value);
+        code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + descriptor(stmt.value.type) + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(StmtNode.Return stmt) {
+        if (stmt.tail_call) {
+            // all the arguments are computed before any parameter is stored.
+            ExprNode.FunCall call = (ExprNode.FunCall) stmt.value;
+            for (int i = 0; i < call.arguments.size(); i++) {
+                compile(call.arguments.get(i));
+                convert(call.arguments.get(i).type, function.types.get(i));
+            }
+            for (int i = parameters.size() - 1; i >= 0; i--)
+                code.local(storeOp(parameters.get(i).type), parameters.get(i).index);
+            code.jump(GOTO, start);
+            return null;
+        }
+        if (stmt.value == null || function.return_type == null) {
+            if (stmt.value != null) {
+                compile(stmt.value);
+                pop(stmt.value.type);
+            }
+            code.op(RETURN);
+            return null;
+        }
+        compile(stmt.value);
+        convert(stmt.value.type, function.return_type);
+        code.op(returnOp(function.return_type));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(StmtNode.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+            convert(stmt.initializer.type, stmt.type);
+        } else {
+            pushDefault(stmt.type);
+        }
+        // declared after the initializer, so it could refer to a shadowed variable.
+        Variable variable = declare(stmt.name.lexeme, stmt.type);
+        code.local(storeOp(variable.type), variable.index);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(StmtNode.While stmt) {
+        Loop loop = new Loop();
+        loops.push(loop);
+
+        code.mark(loop.start);
+        branchFalse(stmt.cond, loop.end);
+        compile(stmt.body);
+        code.jump(GOTO, loop.start);
+        code.mark(loop.end);
+
+        loops.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(StmtNode.Break stmt) {
+        code.jump(GOTO, loops.peek().end);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(StmtNode.Continue stmt) {
+        code.jump(GOTO, loops.peek().start);
+        return null;
+    }
+
+    // endregion
+}
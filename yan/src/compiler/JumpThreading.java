@@ -0,0 +1,52 @@
+package compiler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Jump threading: a jump to a label followed by "jmp" goes to the target of that jmp
+ * directly, following chains of them.
+ */
+class JumpThreading extends ILPass {
+    JumpThreading(ILGen il_generator) {
+        super(il_generator);
+    }
+
+    @Override
+    String name() {
+        return "jump-threading";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        // label -> target of the jmp following it
+        Map<String, String> forwards = new HashMap<>();
+        for (int i = 0; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            if (cmd.op != ILOP.label)
+                continue;
+            int j = i + 1;
+            while (j < function.commands.size() && function.commands.get(j).op == ILOP.label)
+                j++;
+            if (j < function.commands.size() && function.commands.get(j).op == ILOP.jmp)
+                forwards.put(cmd.arg1, target(function.commands.get(j)));
+        }
+
+        boolean changed = false;
+        for (ILGen.Command cmd : function.commands) {
+            if (!isJump(cmd.op))
+                continue;
+            String label = target(cmd);
+            Set<String> visited = new HashSet<>();
+            while (forwards.containsKey(label) && visited.add(label))
+                label = forwards.get(label);
+            if (!label.equals(target(cmd))) {
+                setTarget(cmd, label);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
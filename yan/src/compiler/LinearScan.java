@@ -0,0 +1,220 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Linear scan register allocation over the temporaries of an IL function.
+ *
+ * Every definition of a temporary is a value of its own, live from that definition to its
+ * last use. Temporaries never live across labels, so intervals over the flat command list
+ * are exact. Values live across a call or print get callee-saved registers, the others
+ * take the caller-saved ones first. When no register is left, the value ending last is
+ * spilled to a stack slot.
+ */
+class LinearScan {
+    static final String[] CALLER_SAVED = {"rdi", "rsi", "r8", "r9", "r10"};
+    static final String[] CALLEE_SAVED = {"rbx", "r12", "r13", "r14", "r15"};
+    static final String[] XMM = {"xmm8", "xmm9", "xmm10", "xmm11", "xmm12", "xmm13", "xmm14", "xmm15"};
+
+    // region Inner Class
+
+    static class Interval {
+        final int start;
+        int end;
+        final DataType type;
+        boolean crosses_call = false;
+
+        String register = null;   // null if spilled
+        int slot = -1;            // stack slot if spilled
+
+        Interval(int start, DataType type) {
+            this.start = start;
+            this.end = start;
+            this.type = type;
+        }
+
+        boolean isFloat() {
+            return type == DataType.FLOAT;
+        }
+    }
+
+    // endregion
+
+    // value of arg1, arg2 and result of every command, null if it is not a temporary
+    final Interval[] arg1, arg2, result;
+    final List<Interval> intervals = new ArrayList<>();
+    final Set<String> callee_saved = new LinkedHashSet<>();
+    int spill_slots = 0;
+
+    /**
+     * @param var_type type of named variables and constants
+     * @param return_type return type of the called functions
+     */
+    LinearScan(ILGen.ILFunction function, Function<String, DataType> var_type,
+               Function<String, DataType> return_type) {
+        int size = function.commands.size();
+        arg1 = new Interval[size];
+        arg2 = new Interval[size];
+        result = new Interval[size];
+        buildIntervals(function, var_type, return_type);
+        allocate();
+    }
+
+    static boolean isTmp(String name) {
+        return name != null && name.startsWith("@tmp");
+    }
+
+    private void buildIntervals(ILGen.ILFunction function, Function<String, DataType> var_type,
+                                Function<String, DataType> return_type) {
+        Map<String, Interval> current = new HashMap<>();
+        List<Integer> calls = new ArrayList<>();
+
+        for (int i = 0; i < function.commands.size(); i++) {
+            ILGen.Command cmd = function.commands.get(i);
+            if (cmd.op == ILOP.call || cmd.op == ILOP.print)
+                calls.add(i);
+
+            // label names of jumps are not values
+            if (cmd.op != ILOP.label && cmd.op != ILOP.jmp) {
+                arg1[i] = use(current, cmd.arg1, i);
+                arg2[i] = use(current, cmd.arg2, i);
+            }
+            if (!isTmp(cmd.result))
+                continue;
+
+            DataType type = resultType(cmd, name -> isTmp(name) ? current.get(name).type : var_type.apply(name),
+                    return_type);
+            if (type == null)
+                continue;
+            Interval interval = new Interval(i, type);
+            intervals.add(interval);
+            current.put(cmd.result, interval);
+            result[i] = interval;
+        }
+
+        for (Interval interval : intervals) {
+            for (int call : calls) {
+                if (interval.start < call && call < interval.end) {
+                    interval.crosses_call = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static Interval use(Map<String, Interval> current, String name, int index) {
+        if (!isTmp(name))
+            return null;
+        Interval interval = current.get(name);
+        interval.end = index;
+        return interval;
+    }
+
+    /**
+     * Type of the value defined by the command, null if it defines none.
+     *
+     * @param type type of the operands
+     * @param return_type return type of the called functions
+     */
+    static DataType resultType(ILGen.Command cmd, Function<String, DataType> type,
+                               Function<String, DataType> return_type) {
+        switch (cmd.op) {
+            case add: case sub: case multi: case div:
+                return DataType.implicitConversion(type.apply(cmd.arg1), type.apply(cmd.arg2));
+            case and: case or: case neg: case assign:
+                return type.apply(cmd.arg1);
+            case equ: case nequ: case ge: case g: case l: case le: case not: case i2b:
+                return DataType.BOOL;
+            case i2f:
+                return DataType.FLOAT;
+            case f2i: case b2i:
+                return DataType.INT;
+            case call:
+                return return_type.apply(cmd.arg1);
+            default:
+                return null;
+        }
+    }
+
+    // region Allocation
+
+    private void allocate() {
+        // intervals are created in order of their start.
+        List<Interval> active = new ArrayList<>();
+        Set<String> free = new LinkedHashSet<>();
+        for (String[] pool : new String[][]{CALLER_SAVED, CALLEE_SAVED, XMM})
+            free.addAll(List.of(pool));
+
+        for (Interval interval : intervals) {
+            // operands are read into scratch registers before the result is written,
+            // so an interval ending here frees its register for the result.
+            active.removeIf(other -> {
+                if (other.end <= interval.start) {
+                    free.add(other.register);
+                    return true;
+                }
+                return false;
+            });
+
+            String register = pick(interval, free);
+            if (register != null) {
+                interval.register = register;
+                free.remove(register);
+                active.add(interval);
+                continue;
+            }
+
+            // spill the active interval ending last that holds a suitable register.
+            Interval victim = null;
+            for (Interval other : active) {
+                if (allowed(interval, other.register) && (victim == null || other.end > victim.end))
+                    victim = other;
+            }
+            if (victim != null && victim.end > interval.end) {
+                interval.register = victim.register;
+                victim.register = null;
+                victim.slot = spill_slots++;
+                active.remove(victim);
+                active.add(interval);
+            } else {
+                interval.slot = spill_slots++;
+            }
+        }
+
+        for (Interval interval : intervals) {
+            if (interval.register != null && List.of(CALLEE_SAVED).contains(interval.register))
+                callee_saved.add(interval.register);
+        }
+    }
+
+    private static String pick(Interval interval, Set<String> free) {
+        for (String register : free) {
+            if (allowed(interval, register) && !List.of(CALLEE_SAVED).contains(register))
+                return register;
+        }
+        for (String register : free) {
+            if (allowed(interval, register))
+                return register;
+        }
+        return null;
+    }
+
+    private static boolean allowed(Interval interval, String register) {
+        if (interval.isFloat())
+            // every xmm register is caller-saved.
+            return !interval.crosses_call && register.startsWith("xmm");
+        if (interval.crosses_call)
+            return List.of(CALLEE_SAVED).contains(register);
+        return !register.startsWith("xmm");
+    }
+
+    // endregion
+}
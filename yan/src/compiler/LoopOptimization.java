@@ -0,0 +1,400 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop invariant code motion and strength reduction of induction variables.
+ *
+ * Loops are the natural loops of the back edges of the {@link CFG}, which ILGen emits as
+ * the jumps of a while statement and its continues to label_before_while. Every loop gets
+ * a preheader, the only block entering it from outside. Inner loops are optimized first,
+ * so what they hoist into their preheader may leave the enclosing loop too.
+ *
+ * A pure command reading nothing the loop changes is computed once in the preheader into
+ * a new variable, and the command in the loop copies it. Division is only hoisted by a
+ * nonzero constant, the loop may not run at all.
+ *
+ * An int variable i only changed by i = i + c or i = i - c in the loop is an induction
+ * variable. i * k with k invariant is kept in a new variable, set to i * k in the
+ * preheader and changed by c * k after every change of i.
+ */
+class LoopOptimization extends ILPass {
+    private ILGen.ILFunction function;
+    private CFG cfg;
+    private OperandTable operands;
+    // variables holding hoisted values, each written only once
+    private final Set<String> hoisted_vars = new HashSet<>();
+
+    private static class Loop {
+        final int header;
+        final BitSet body = new BitSet();
+        int preheader;
+
+        Loop(int header) {
+            this.header = header;
+            body.set(header);
+        }
+    }
+
+    LoopOptimization(ILGen il_generator) {
+        super(il_generator);
+    }
+
+    @Override
+    String name() {
+        return "loop-optimization";
+    }
+
+    @Override
+    boolean run(ILGen.ILFunction function) {
+        this.function = function;
+        cfg = new CFG(il_generator, function);
+        operands = cfg.operands;
+        cfg.dominators();
+
+        List<Loop> loops = findLoops();
+        if (loops.isEmpty())
+            return false;
+        for (Loop loop : loops)
+            addPreheader(loop, loops);
+        cfg.computePreds();
+
+        loops.sort(Comparator.comparingInt(loop -> loop.body.cardinality()));
+        boolean changed = false;
+        for (Loop loop : loops) {
+            changed |= hoist(loop);
+            while (reduce(loop))
+                changed = true;
+        }
+        if (changed)
+            cfg.lower();
+        return changed;
+    }
+
+    // region Loops
+
+    private List<Loop> findLoops() {
+        Map<Integer, Loop> loops = new LinkedHashMap<>();
+        for (BasicBlock block : cfg.blocks) {
+            for (int successor : block.successors()) {
+                if (!cfg.dominates(successor, block.id))
+                    continue;
+                // a back edge, the loop is what reaches it without passing the header.
+                Loop loop = loops.computeIfAbsent(successor, Loop::new);
+                Deque<Integer> work = new ArrayDeque<>();
+                if (!loop.body.get(block.id)) {
+                    loop.body.set(block.id);
+                    work.push(block.id);
+                }
+                while (!work.isEmpty()) {
+                    for (int pred : cfg.blocks.get(work.pop()).preds) {
+                        if (!loop.body.get(pred)) {
+                            loop.body.set(pred);
+                            work.push(pred);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(loops.values());
+    }
+
+    // the block entering the loop, a new one unless a single block jumps or falls into it.
+    private void addPreheader(Loop loop, List<Loop> loops) {
+        BasicBlock header = cfg.blocks.get(loop.header);
+        List<Integer> outside = new ArrayList<>();
+        for (int pred : header.preds) {
+            if (!loop.body.get(pred) && !outside.contains(pred))
+                outside.add(pred);
+        }
+        if (outside.size() == 1 && cfg.blocks.get(outside.get(0)).successors().size() == 1) {
+            loop.preheader = outside.get(0);
+            return;
+        }
+
+        BasicBlock preheader = cfg.newBlock();
+        preheader.next = header.id;
+        for (int id : outside) {
+            BasicBlock pred = cfg.blocks.get(id);
+            if (pred.next == header.id)
+                pred.next = preheader.id;
+            if (pred.target == header.id) {
+                pred.target = preheader.id;
+                pred.setResult(pred.terminator(), preheader.id);
+            }
+        }
+        cfg.layout.add(cfg.layout.indexOf(header.id), preheader.id);
+        loop.preheader = preheader.id;
+        for (Loop other : loops) {
+            if (other != loop && other.body.get(header.id))
+                other.body.set(preheader.id);
+        }
+    }
+
+    // number of commands writing each operand in the loop
+    private int[] defs(Loop loop) {
+        int[] defs = new int[operands.size()];
+        for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+            BasicBlock block = cfg.blocks.get(b);
+            for (int i = 0; i < block.size(); i++) {
+                if (BasicBlock.writesResult(block.op(i)) && block.result(i) >= 0)
+                    defs[block.result(i)] += 1;
+            }
+        }
+        return defs;
+    }
+
+    private boolean hasCall(Loop loop) {
+        for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+            BasicBlock block = cfg.blocks.get(b);
+            for (int i = 0; i < block.size(); i++) {
+                if (block.op(i) == ILOP.call)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // whether the variable keeps its value in the loop, a called function may change globals.
+    private boolean isInvariant(int id, int[] defs, boolean has_call) {
+        switch (operands.kind(id)) {
+            case OperandTable.CONST:
+                return true;
+            case OperandTable.LOCAL:
+                return id >= defs.length || defs[id] == 0;
+            case OperandTable.GLOBAL:
+                return !has_call && (id >= defs.length || defs[id] == 0);
+            default:
+                return false;
+        }
+    }
+
+    // a new variable of the function, global in @global.
+    private int newVar(DataType type) {
+        String name = il_generator.get_new_var(function, type);
+        boolean is_global = function == il_generator.functions.firstElement();
+        return operands.id(name, is_global ? OperandTable.GLOBAL : OperandTable.LOCAL, type);
+    }
+
+    // append to the preheader, before the jump into the loop if any.
+    private void addToPreheader(Loop loop, ILOP op, int arg1, int arg2, int result) {
+        BasicBlock preheader = cfg.blocks.get(loop.preheader);
+        int at = preheader.terminator() >= 0 ? preheader.terminator() : preheader.size();
+        preheader.insert(at, op, arg1, arg2, result);
+    }
+
+    // endregion
+
+    // region Invariant Code Motion
+
+    private boolean hoist(Loop loop) {
+        boolean changed = false;
+        boolean has_call = hasCall(loop);
+        int[] defs = defs(loop);
+
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+                BasicBlock block = cfg.blocks.get(b);
+                // temporaries of the block holding a hoisted value, and the variable holding it
+                Map<Integer, Integer> hoisted = new HashMap<>();
+                for (int i = 0; i < block.size(); i++) {
+                    ILOP op = block.op(i);
+                    int result = block.result(i);
+                    if (!isHoistable(block, i)) {
+                        if (BasicBlock.writesResult(op) && result >= 0)
+                            hoisted.remove(result);
+                        continue;
+                    }
+                    int arg1 = argument(block.arg1(i), hoisted, defs, has_call);
+                    int arg2 = argument(block.arg2(i), hoisted, defs, has_call);
+                    if (arg1 == -2 || arg2 == -2) {
+                        hoisted.remove(result);
+                        continue;
+                    }
+
+                    if (operands.kind(result) == OperandTable.TMP) {
+                        DataType type = LinearScan.resultType(
+                                new ILGen.Command(op, name(arg1), name(arg2), null),
+                                name -> operands.type(operands.find(name)), null);
+                        int var = newVar(type);
+                        hoisted_vars.add(operands.name(var));
+                        addToPreheader(loop, op, arg1, arg2, var);
+                        block.remove(i);
+                        block.insert(i, ILOP.assign, var, -1, result);
+                        hoisted.put(result, var);
+                    } else if (isHoistedVar(result) && result < defs.length && defs[result] == 1) {
+                        // computed in the preheader of an inner loop, move it out further.
+                        addToPreheader(loop, op, arg1, arg2, result);
+                        block.remove(i--);
+                        defs[result] = 0;
+                    } else {
+                        continue;
+                    }
+                    changed = progress = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean isHoistable(BasicBlock block, int index) {
+        if (block.result(index) < 0)
+            return false;
+        switch (block.op(index)) {
+            case add: case sub: case multi:
+            case and: case or:
+            case equ: case nequ: case ge: case g: case l: case le:
+            case not: case neg:
+            case i2f: case f2i: case b2i: case i2b:
+                return true;
+            case div:
+                ILGen.ILVar divisor = constant(function, operands.name(block.arg2(index)));
+                if (divisor == null)
+                    return false;
+                if (divisor.init_value instanceof Integer)
+                    return (Integer) divisor.init_value != 0;
+                return (Double) divisor.init_value != 0;
+            default:
+                return false;
+        }
+    }
+
+    // the operand to read in the preheader for an argument, -2 if it is not invariant.
+    private int argument(int id, Map<Integer, Integer> hoisted, int[] defs, boolean has_call) {
+        if (id < 0)
+            return id;
+        if (operands.kind(id) == OperandTable.TMP)
+            return hoisted.getOrDefault(id, -2);
+        return isInvariant(id, defs, has_call) ? id : -2;
+    }
+
+    private boolean isHoistedVar(int id) {
+        return hoisted_vars.contains(operands.name(id));
+    }
+
+    // endregion
+
+    // region Strength Reduction
+
+    // reduce the first product of an induction variable found, false if there is none.
+    private boolean reduce(Loop loop) {
+        boolean has_call = hasCall(loop);
+        int[] defs = defs(loop);
+
+        // the products i * k of induction variables, with the commands computing them
+        Map<List<Integer>, List<int[]>> products = new LinkedHashMap<>();
+        for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+            BasicBlock block = cfg.blocks.get(b);
+            for (int i = 0; i < block.size(); i++) {
+                if (block.op(i) != ILOP.multi)
+                    continue;
+                int[][] orders = {{block.arg1(i), block.arg2(i)}, {block.arg2(i), block.arg1(i)}};
+                for (int[] order : orders) {
+                    int iv = order[0], k = order[1];
+                    if (isInductionCandidate(iv, defs, has_call) && operands.type(k) == DataType.INT
+                            && isInvariant(k, defs, has_call)) {
+                        products.computeIfAbsent(List.of(iv, k), key -> new ArrayList<>()).add(new int[]{b, i});
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<List<Integer>, List<int[]>> entry : products.entrySet()) {
+            int iv = entry.getKey().get(0), k = entry.getKey().get(1);
+            // (block, command after which i has changed, step operand, add or sub)
+            List<int[]> updates = updates(loop, iv, defs, has_call);
+            if (updates == null)
+                continue;
+
+            int product = newVar(DataType.INT);
+            addToPreheader(loop, ILOP.multi, iv, k, product);
+            for (int[] use : entry.getValue()) {
+                BasicBlock block = cfg.blocks.get(use[0]);
+                int result = block.result(use[1]);
+                block.remove(use[1]);
+                block.insert(use[1], ILOP.assign, product, -1, result);
+            }
+            // later commands of a block first, so the indices stay valid
+            updates.sort(Comparator.<int[]>comparingInt(update -> update[0])
+                    .thenComparing(update -> -update[1]));
+            for (int[] update : updates) {
+                int step = step(loop, update[2], k);
+                cfg.blocks.get(update[0]).insert(update[1] + 1, BasicBlock.OPS[update[3]], product, step, product);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isInductionCandidate(int id, int[] defs, boolean has_call) {
+        int kind = operands.kind(id);
+        if (kind != OperandTable.LOCAL && !(kind == OperandTable.GLOBAL && !has_call))
+            return false;
+        return operands.type(id) == DataType.INT && defs[id] > 0;
+    }
+
+    /**
+     * The changes of an induction variable in the loop, null if it is changed otherwise.
+     * The variable is changed either by add/sub directly, or by add/sub into a temporary
+     * copied to it by the next command.
+     */
+    private List<int[]> updates(Loop loop, int iv, int[] defs, boolean has_call) {
+        List<int[]> updates = new ArrayList<>();
+        for (int b = loop.body.nextSetBit(0); b >= 0; b = loop.body.nextSetBit(b + 1)) {
+            BasicBlock block = cfg.blocks.get(b);
+            for (int i = 0; i < block.size(); i++) {
+                if (!BasicBlock.writesResult(block.op(i)) || block.result(i) != iv)
+                    continue;
+                int at = i;
+                if (block.op(i) == ILOP.assign && operands.kind(block.arg1(i)) == OperandTable.TMP && i > 0
+                        && BasicBlock.writesResult(block.op(i - 1)) && block.result(i - 1) == block.arg1(i))
+                    at = i - 1;
+                ILOP op = block.op(at);
+                int step;
+                if ((op == ILOP.add || op == ILOP.sub) && block.arg1(at) == iv)
+                    step = block.arg2(at);
+                else if (op == ILOP.add && block.arg2(at) == iv)
+                    step = block.arg1(at);
+                else
+                    return null;
+                if (operands.type(step) != DataType.INT || !isInvariant(step, defs, has_call))
+                    return null;
+                updates.add(new int[]{b, i, step, op.ordinal()});
+            }
+        }
+        return updates;
+    }
+
+    // c * k, a constant if both are.
+    private int step(Loop loop, int c, int k) {
+        ILGen.ILVar a = constant(function, operands.name(c)), b = constant(function, operands.name(k));
+        if (a != null && b != null) {
+            String name = il_generator.get_const(function, DataType.INT, (Integer) a.init_value * (Integer) b.init_value);
+            return operands.id(name, OperandTable.CONST, DataType.INT);
+        }
+        int step = newVar(DataType.INT);
+        addToPreheader(loop, ILOP.multi, c, k, step);
+        return step;
+    }
+
+    // endregion
+
+    private String name(int id) {
+        return id < 0 ? null : operands.name(id);
+    }
+}
@@ -0,0 +1,92 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Final form of an IL function for the consumers of the IL, without names to look up.
+ *
+ * Commands are packed as in a {@link BasicBlock}: the ordinal of the {@link ILOP}, then
+ * arg1, arg2 and result as ids of an {@link OperandTable}, -1 if absent, calls keep the
+ * argument count in arg2. Labels are dropped once the function is finished, and the result
+ * of every jump patched with the index of the command following its label.
+ */
+class LoweredFunction {
+    private static final int WIDTH = 4;
+
+    final ILGen.ILFunction function;
+    final OperandTable operands = new OperandTable();
+    private int[] code = new int[WIDTH * 16];
+    private int size = 0;
+
+    LoweredFunction(ILGen il_generator, ILGen.ILFunction function) {
+        this.function = function;
+        Map<String, Integer> labels = new HashMap<>();
+        List<Integer> jumps = new ArrayList<>();
+        List<String> targets = new ArrayList<>();
+        for (ILGen.Command cmd : function.commands) {
+            switch (cmd.op) {
+                case label:
+                    labels.put(cmd.arg1, size);
+                    break;
+                case jmp:
+                case jf:
+                case jt:
+                    jumps.add(size);
+                    targets.add(ILPass.target(cmd));
+                    add(cmd.op, cmd.op == ILOP.jmp ? -1 : operands.id(il_generator, function, cmd.arg1), -1, -1);
+                    break;
+                case call:
+                    add(cmd.op, operands.id(cmd.arg1, OperandTable.FUNCTION, null), Integer.parseInt(cmd.arg2),
+                            operands.id(il_generator, function, cmd.result));
+                    break;
+                default:
+                    add(cmd.op, operands.id(il_generator, function, cmd.arg1),
+                            operands.id(il_generator, function, cmd.arg2),
+                            operands.id(il_generator, function, cmd.result));
+                    break;
+            }
+        }
+
+        for (int i = 0; i < jumps.size(); i++) {
+            Integer target = labels.get(targets.get(i));
+            if (target == null)
+                throw new RuntimeException("undefined IL label " + targets.get(i));
+            code[WIDTH * jumps.get(i) + 3] = target;
+        }
+        code = Arrays.copyOf(code, WIDTH * size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    ILOP op(int index) {
+        return BasicBlock.OPS[code[WIDTH * index]];
+    }
+
+    int arg1(int index) {
+        return code[WIDTH * index + 1];
+    }
+
+    int arg2(int index) {
+        return code[WIDTH * index + 2];
+    }
+
+    int result(int index) {
+        return code[WIDTH * index + 3];
+    }
+
+    private void add(ILOP op, int arg1, int arg2, int result) {
+        if (WIDTH * (size + 1) > code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        code[WIDTH * size] = op.ordinal();
+        code[WIDTH * size + 1] = arg1;
+        code[WIDTH * size + 2] = arg2;
+        code[WIDTH * size + 3] = result;
+        size++;
+    }
+}
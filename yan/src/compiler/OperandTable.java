@@ -0,0 +1,117 @@
+package compiler;
+
+import frontend.DataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operands of a {@link CFG}, every name of the IL gets an int id.
+ *
+ * SSA versions of a variable are operands of their own, named "x$1", "x$2"... and
+ * pointing back to the variable they were renamed from.
+ */
+class OperandTable {
+    static final int LOCAL = 0, TMP = 1, CONST = 2, GLOBAL = 3, FUNCTION = 4;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] kinds = new int[16];
+    private int[] origins = new int[16];
+    private int[] versions = new int[16];
+    private DataType[] types = new DataType[16];
+
+    int size() {
+        return names.size();
+    }
+
+    // id of the name, added with the kind and type if it is new.
+    int id(String name, int kind, DataType type) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        return add(name, kind, type, names.size());
+    }
+
+    // id of a name used by a command of the function, -1 for null.
+    int id(ILGen il_generator, ILGen.ILFunction function, String name) {
+        if (name == null)
+            return -1;
+        int id = find(name);
+        if (id >= 0)
+            return id;
+        if (ILPass.isTmp(name))
+            return id(name, TMP, null);
+
+        ILGen.ILVar var = null;
+        for (ILGen.ILVar v : function.vars) {
+            if (v.name.equals(name))
+                var = v;
+        }
+        boolean is_global = function == il_generator.functions.firstElement();
+        if (var == null) {
+            is_global = true;
+            for (ILGen.ILVar v : il_generator.functions.firstElement().vars) {
+                if (v.name.equals(name))
+                    var = v;
+            }
+        }
+        if (var == null)
+            throw new RuntimeException("undefined IL variable " + name);
+        int kind = var.is_constant ? CONST : is_global ? GLOBAL : LOCAL;
+        return id(name, kind, var.type);
+    }
+
+    int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    // a new SSA version of the variable.
+    int version(int id) {
+        int origin = origins[id];
+        versions[origin] += 1;
+        return add(names.get(origin) + "$" + versions[origin], kinds[origin], types[origin], origin);
+    }
+
+    String name(int id) {
+        return names.get(id);
+    }
+
+    int kind(int id) {
+        return kinds[id];
+    }
+
+    int origin(int id) {
+        return origins[id];
+    }
+
+    // type of a named variable or constant, temporaries have none.
+    DataType type(int id) {
+        return types[id];
+    }
+
+    // whether SSA gives the operand versions: the temporaries and local variables.
+    boolean isRenamed(int id) {
+        return kinds[id] == LOCAL || kinds[id] == TMP;
+    }
+
+    private int add(String name, int kind, DataType type, int origin) {
+        int id = names.size();
+        if (id == kinds.length) {
+            kinds = Arrays.copyOf(kinds, id * 2);
+            origins = Arrays.copyOf(origins, id * 2);
+            versions = Arrays.copyOf(versions, id * 2);
+            types = Arrays.copyOf(types, id * 2);
+        }
+        names.add(name);
+        ids.put(name, id);
+        kinds[id] = kind;
+        origins[id] = origin;
+        types[id] = type;
+        return id;
+    }
+}
@@ -0,0 +1,77 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run the optimization passes over the IL of every function.
+ *
+ * -O0 leaves the IL as generated, -O1 runs constant folding, copy propagation and dead
+ * code elimination once, -O2 adds jump threading and loop optimization and repeats the
+ * passes until none of them changes anything.
+ */
+public class PassManager {
+    private static final int MAX_ROUNDS = 10;
+
+    ILGen il_generator;
+    int level;
+
+    private final List<ILPass> passes = new ArrayList<>();
+    private final StringBuilder report = new StringBuilder();
+
+    public PassManager(ILGen il_generator, int level) {
+        this(il_generator, level, 0, null);
+    }
+
+    /**
+     * At -O2 functions of at most inline_budget commands are inlined first, only at the hot
+     * call sites of the profile if there is one.
+     */
+    public PassManager(ILGen il_generator, int level, int inline_budget, CallProfile profile) {
+        this.il_generator = il_generator;
+        this.level = level;
+        if (level >= 2 && inline_budget > 0)
+            passes.add(new Inlining(il_generator, inline_budget, profile));
+        if (level >= 1) {
+            passes.add(new ConstantFolding(il_generator));
+            passes.add(new CopyPropagation(il_generator));
+            passes.add(new DeadCodeElimination(il_generator));
+        }
+        if (level >= 2) {
+            passes.add(new JumpThreading(il_generator));
+            passes.add(new LoopOptimization(il_generator));
+        }
+    }
+
+    public void run() {
+        report.append(String.format("%-24s%10s\n", "pass", "commands"));
+        report.append(String.format("%-24s%10d\n", "(input)", count()));
+
+        int rounds = level >= 2 ? MAX_ROUNDS : 1;
+        for (int round = 1; round <= rounds; round++) {
+            boolean changed = false;
+            for (ILPass pass : passes) {
+                for (ILGen.ILFunction function : il_generator.functions)
+                    changed |= pass.run(function);
+                String name = rounds > 1 ? pass.name() + " #" + round : pass.name();
+                report.append(String.format("%-24s%10d\n", name, count()));
+            }
+            if (!changed)
+                break;
+        }
+    }
+
+    /**
+     * @return number of commands after each pass
+     */
+    public String report() {
+        return report.toString();
+    }
+
+    private int count() {
+        int count = 0;
+        for (ILGen.ILFunction function : il_generator.functions)
+            count += function.commands.size();
+        return count;
+    }
+}
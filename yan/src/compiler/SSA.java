@@ -0,0 +1,275 @@
+package compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Conversion of a {@link CFG} to and from static single assignment form.
+ *
+ * Local variables and temporaries are renamed, globals stay memory since any call may write
+ * them. Phi functions are placed on the iterated dominance frontiers of the definitions
+ * (Cytron et al.), only for operands read in a block before being written there, which
+ * leaves the temporaries without any. Phis whose result is never read are removed.
+ *
+ * Out of SSA, every phi becomes copies at the end of its predecessors, critical edges are
+ * split and the parallel copies of an edge are ordered so no source is overwritten before
+ * it is read. The SSA versions stay variables of their own.
+ */
+public class SSA {
+    private final CFG cfg;
+    private final OperandTable operands;
+    private List<Deque<Integer>> stacks;
+
+    private SSA(CFG cfg) {
+        this.cfg = cfg;
+        this.operands = cfg.operands;
+    }
+
+    static void toSSA(CFG cfg) {
+        new SSA(cfg).construct();
+    }
+
+    static void fromSSA(CFG cfg) {
+        new SSA(cfg).destruct();
+    }
+
+    /**
+     * Text of the CFGs of all functions in SSA form, the IL itself is left unchanged.
+     */
+    public static String dump(ILGen il_generator) {
+        StringBuilder builder = new StringBuilder();
+        for (ILGen.ILFunction function : il_generator.functions) {
+            CFG cfg = new CFG(il_generator, function);
+            toSSA(cfg);
+            builder.append(cfg.toText()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    // region Construction
+
+    @SuppressWarnings("unchecked")
+    private void construct() {
+        cfg.dominators();
+        int count = operands.size();
+        int blocks = cfg.blocks.size();
+
+        // blocks writing each operand, and operands read before written in a block
+        BitSet[] def_blocks = new BitSet[count];
+        BitSet non_local = new BitSet(count);
+        for (int id = 0; id < count; id++) {
+            def_blocks[id] = new BitSet(blocks);
+            if (operands.kind(id) == OperandTable.LOCAL)
+                def_blocks[id].set(0);
+        }
+        for (BasicBlock block : cfg.blocks) {
+            BitSet defined = new BitSet(count);
+            for (int i = 0; i < block.size(); i++) {
+                ILOP op = block.op(i);
+                if (BasicBlock.readsArgs(op)) {
+                    for (int use : new int[]{block.arg1(i), block.arg2(i)}) {
+                        if (use >= 0 && !defined.get(use))
+                            non_local.set(use);
+                    }
+                }
+                if (BasicBlock.writesResult(op) && block.result(i) >= 0) {
+                    defined.set(block.result(i));
+                    def_blocks[block.result(i)].set(block.id);
+                }
+            }
+        }
+
+        // phi placement on the iterated dominance frontiers
+        for (int id = non_local.nextSetBit(0); id >= 0; id = non_local.nextSetBit(id + 1)) {
+            if (!operands.isRenamed(id))
+                continue;
+            BitSet has_phi = new BitSet(blocks);
+            Deque<Integer> work = new ArrayDeque<>();
+            def_blocks[id].stream().forEach(work::add);
+            while (!work.isEmpty()) {
+                int block = work.poll();
+                for (int frontier : cfg.frontiers.get(block)) {
+                    if (has_phi.get(frontier))
+                        continue;
+                    has_phi.set(frontier);
+                    BasicBlock join = cfg.blocks.get(frontier);
+                    int[] phi = new int[join.preds.size() + 1];
+                    Arrays.fill(phi, id);
+                    join.phis.add(phi);
+                    if (!def_blocks[id].get(frontier))
+                        work.add(frontier);
+                }
+            }
+        }
+
+        stacks = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            Deque<Integer> stack = new ArrayDeque<>();
+            // version 0 of a local is its value coming from before the function.
+            stack.push(id);
+            stacks.add(stack);
+        }
+        rename(0);
+        removeDeadPhis();
+    }
+
+    private void rename(int id) {
+        BasicBlock block = cfg.blocks.get(id);
+        List<Integer> pushed = new ArrayList<>();
+
+        for (int[] phi : block.phis) {
+            int version = operands.version(phi[0]);
+            stacks.get(operands.origin(phi[0])).push(version);
+            pushed.add(operands.origin(phi[0]));
+            phi[0] = version;
+        }
+        for (int i = 0; i < block.size(); i++) {
+            ILOP op = block.op(i);
+            if (BasicBlock.readsArgs(op)) {
+                if (block.arg1(i) >= 0)
+                    block.setArg1(i, current(block.arg1(i)));
+                if (block.arg2(i) >= 0)
+                    block.setArg2(i, current(block.arg2(i)));
+            }
+            int result = block.result(i);
+            if (BasicBlock.writesResult(op) && result >= 0 && operands.isRenamed(result)) {
+                int version = operands.version(result);
+                stacks.get(operands.origin(result)).push(version);
+                pushed.add(operands.origin(result));
+                block.setResult(i, version);
+            }
+        }
+
+        for (int successor : new LinkedHashSet<>(block.successors())) {
+            BasicBlock next = cfg.blocks.get(successor);
+            for (int k = 0; k < next.preds.size(); k++) {
+                if (next.preds.get(k) != id)
+                    continue;
+                for (int[] phi : next.phis)
+                    phi[k + 1] = current(phi[k + 1]);
+            }
+        }
+
+        for (int child : cfg.dom_children.get(id))
+            rename(child);
+        for (int origin : pushed)
+            stacks.get(origin).pop();
+    }
+
+    private int current(int id) {
+        if (!operands.isRenamed(id))
+            return id;
+        return stacks.get(operands.origin(id)).peek();
+    }
+
+    private void removeDeadPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            BitSet used = new BitSet(operands.size());
+            for (BasicBlock block : cfg.blocks) {
+                for (int i = 0; i < block.size(); i++) {
+                    if (!BasicBlock.readsArgs(block.op(i)))
+                        continue;
+                    if (block.arg1(i) >= 0)
+                        used.set(block.arg1(i));
+                    if (block.arg2(i) >= 0)
+                        used.set(block.arg2(i));
+                }
+                for (int[] phi : block.phis) {
+                    for (int k = 1; k < phi.length; k++) {
+                        if (phi[k] != phi[0])
+                            used.set(phi[k]);
+                    }
+                }
+            }
+            for (BasicBlock block : cfg.blocks)
+                changed |= block.phis.removeIf(phi -> !used.get(phi[0]));
+        }
+    }
+
+    // endregion
+
+    // region Destruction
+
+    private void destruct() {
+        for (BasicBlock block : new ArrayList<>(cfg.blocks)) {
+            if (block.phis.isEmpty())
+                continue;
+            List<Integer> preds = new ArrayList<>(block.preds);
+            for (int k = 0; k < preds.size(); k++) {
+                // a jump to the next block is two edges with the same arguments.
+                if (preds.subList(0, k).contains(preds.get(k)))
+                    continue;
+                List<int[]> copies = new ArrayList<>();
+                for (int[] phi : block.phis) {
+                    if (phi[k + 1] != phi[0])
+                        copies.add(new int[]{phi[0], phi[k + 1]});
+                }
+                if (copies.isEmpty())
+                    continue;
+
+                BasicBlock pred = cfg.blocks.get(preds.get(k));
+                if (pred.successors().size() > 1)
+                    pred = split(pred, block);
+                insertCopies(pred, copies);
+            }
+            block.phis.clear();
+        }
+        cfg.computePreds();
+    }
+
+    // a new block on the edge from pred to block.
+    private BasicBlock split(BasicBlock pred, BasicBlock block) {
+        BasicBlock split = cfg.newBlock();
+        split.add(ILOP.jmp, -1, -1, block.id);
+        split.target = block.id;
+        if (pred.target == block.id) {
+            pred.target = split.id;
+            pred.setResult(pred.terminator(), split.id);
+        }
+        if (pred.next == block.id)
+            pred.next = split.id;
+        cfg.layout.add(cfg.layout.indexOf(pred.id) + 1, split.id);
+        return split;
+    }
+
+    // copies of an edge, all reading their source before any is written.
+    private void insertCopies(BasicBlock block, List<int[]> copies) {
+        int at = block.terminator() >= 0 ? block.terminator() : block.size();
+        while (!copies.isEmpty()) {
+            int[] ready = null;
+            for (int[] copy : copies) {
+                boolean read_later = false;
+                for (int[] other : copies) {
+                    if (other != copy && other[1] == copy[0])
+                        read_later = true;
+                }
+                if (!read_later) {
+                    ready = copy;
+                    break;
+                }
+            }
+            if (ready == null) {
+                // a cycle, save one source in a new version first.
+                int[] copy = copies.get(0);
+                int saved = operands.version(copy[1]);
+                block.insert(at++, ILOP.assign, copy[1], -1, saved);
+                for (int[] other : copies) {
+                    if (other[1] == copy[1])
+                        other[1] = saved;
+                }
+                continue;
+            }
+            block.insert(at++, ILOP.assign, ready[1], -1, ready[0]);
+            copies.remove(ready);
+        }
+    }
+
+    // endregion
+}
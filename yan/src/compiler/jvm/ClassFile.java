@@ -0,0 +1,253 @@
+package compiler.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of JVM class files, just enough for the code generated from Yan.
+ *
+ * Classes are written in version 49 (Java 5), so methods don't need a StackMapTable
+ * and are checked by the type inferencing verifier instead.
+ */
+public class ClassFile {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // region Inner Class
+
+    private static class Field {
+        final int access, name, descriptor;
+
+        Field(int access, int name, int descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private static class Method {
+        final int access, name, descriptor;
+        final Code code;
+
+        Method(int access, int name, int descriptor, Code code) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+    }
+
+    // endregion
+
+    public final String name;
+    private final int this_class, super_class;
+    private final int[] interfaces;
+
+    private final ByteArrayOutputStream pool_bytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(pool_bytes);
+    private final Map<String, Integer> pool_index = new HashMap<>();
+    private int pool_size = 1;
+
+    private final List<Field> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+
+    /**
+     * @param name internal name of the class, e.g. "yan/Main"
+     * @param super_name internal name of the super class
+     * @param interfaces internal names of the implemented interfaces
+     */
+    public ClassFile(String name, String super_name, String... interfaces) {
+        this.name = name;
+        this.this_class = classRef(name);
+        this.super_class = classRef(super_name);
+        this.interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++)
+            this.interfaces[i] = classRef(interfaces[i]);
+    }
+
+    public void field(int access, String name, String descriptor) {
+        fields.add(new Field(access, utf8(name), utf8(descriptor)));
+    }
+
+    public Code method(int access, String name, String descriptor) {
+        Code code = new Code(this, descriptor, (access & ACC_STATIC) == 0);
+        methods.add(new Method(access, utf8(name), utf8(descriptor), code));
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int code_name = utf8("Code");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(pool_size);
+            pool.flush();
+            pool_bytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(this_class);
+            out.writeShort(super_class);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces)
+                out.writeShort(index);
+            out.writeShort(fields.size());
+            for (Field field : fields) {
+                out.writeShort(field.access);
+                out.writeShort(field.name);
+                out.writeShort(field.descriptor);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Method method : methods) {
+                byte[] code = method.code.toByteArray();
+                int[][] handlers = method.code.exceptionTable();
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+                out.writeShort(1);
+                out.writeShort(code_name);
+                out.writeInt(12 + code.length + 8 * handlers.length);
+                out.writeShort(method.code.maxStack());
+                out.writeShort(method.code.maxLocals());
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(handlers.length);
+                for (int[] handler : handlers) {
+                    for (int value : handler)
+                        out.writeShort(value);
+                }
+                // attributes
+                out.writeShort(0);
+            }
+            // attributes
+            out.writeShort(0);
+        } catch (IOException e) {
+            // unreachable, writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // region Constant Pool
+
+    int utf8(String value) {
+        Integer index = pool_index.get("U" + value);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("U" + value, 1);
+    }
+
+    int classRef(String name) {
+        return ref(CONSTANT_CLASS, "C" + name, utf8(name));
+    }
+
+    int string(String value) {
+        return ref(CONSTANT_STRING, "S" + value, utf8(value));
+    }
+
+    int integer(int value) {
+        Integer index = pool_index.get("I" + value);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("I" + value, 1);
+    }
+
+    int doubleConst(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = pool_index.get("D" + bits);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeLong(bits);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // a double takes two entries.
+        return add("D" + bits, 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = pool_index.get(key);
+        if (index != null)
+            return index;
+        int owner_index = classRef(owner);
+        int name_and_type = ref(CONSTANT_NAME_AND_TYPE, "N" + name + ":" + descriptor,
+                utf8(name), utf8(descriptor));
+        return ref(tag, key, owner_index, name_and_type);
+    }
+
+    private int ref(int tag, String key, int... operands) {
+        Integer index = pool_index.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            for (int operand : operands)
+                pool.writeShort(operand);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add(key, 1);
+    }
+
+    private int add(String key, int entries) {
+        int index = pool_size;
+        pool_size += entries;
+        if (pool_size > 0xFFFF)
+            throw new IllegalStateException("too many constants in class " + name);
+        pool_index.put(key, index);
+        return index;
+    }
+
+    // endregion
+}
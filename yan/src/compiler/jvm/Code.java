@@ -0,0 +1,363 @@
+package compiler.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytecode of one method, see {@link ClassFile#method}.
+ *
+ * The operand stack depth is tracked while emitting to compute max_stack, the depth at a
+ * label is taken from the jumps to it. Only the instructions used by the Yan backends are
+ * supported.
+ */
+public class Code {
+    // region Opcodes
+
+    public static final int ACONST_NULL = 1;
+    public static final int ICONST_0 = 3;
+    public static final int DCONST_0 = 14;
+    public static final int DCONST_1 = 15;
+    public static final int BIPUSH = 16;
+    public static final int SIPUSH = 17;
+    public static final int LDC = 18;
+    public static final int LDC_W = 19;
+    public static final int LDC2_W = 20;
+    public static final int ILOAD = 21;
+    public static final int DLOAD = 24;
+    public static final int ALOAD = 25;
+    public static final int ISTORE = 54;
+    public static final int DSTORE = 57;
+    public static final int ASTORE = 58;
+    public static final int POP = 87;
+    public static final int POP2 = 88;
+    public static final int DUP = 89;
+    public static final int DUP2 = 92;
+    public static final int IADD = 96;
+    public static final int DADD = 99;
+    public static final int ISUB = 100;
+    public static final int DSUB = 103;
+    public static final int IMUL = 104;
+    public static final int DMUL = 107;
+    public static final int IDIV = 108;
+    public static final int DDIV = 111;
+    public static final int IREM = 112;
+    public static final int DREM = 115;
+    public static final int INEG = 116;
+    public static final int DNEG = 119;
+    public static final int IAND = 126;
+    public static final int IOR = 128;
+    public static final int IXOR = 130;
+    public static final int I2L = 133;
+    public static final int I2D = 135;
+    public static final int L2I = 136;
+    public static final int D2I = 142;
+    public static final int DCMPL = 151;
+    public static final int DCMPG = 152;
+    public static final int IFEQ = 153;
+    public static final int IFNE = 154;
+    public static final int IFLT = 155;
+    public static final int IFGE = 156;
+    public static final int IFGT = 157;
+    public static final int IFLE = 158;
+    public static final int IF_ICMPEQ = 159;
+    public static final int IF_ICMPNE = 160;
+    public static final int IF_ICMPLT = 161;
+    public static final int IF_ICMPGE = 162;
+    public static final int IF_ICMPGT = 163;
+    public static final int IF_ICMPLE = 164;
+    public static final int GOTO = 167;
+    public static final int IRETURN = 172;
+    public static final int DRETURN = 175;
+    public static final int ARETURN = 176;
+    public static final int RETURN = 177;
+    public static final int GETSTATIC = 178;
+    public static final int PUTSTATIC = 179;
+    public static final int INVOKEVIRTUAL = 182;
+    public static final int INVOKESPECIAL = 183;
+    public static final int INVOKESTATIC = 184;
+    public static final int INVOKEINTERFACE = 185;
+    public static final int NEW = 187;
+    public static final int ATHROW = 191;
+    public static final int CHECKCAST = 192;
+    private static final int WIDE = 196;
+
+    // stack effect of the instructions without operands, and of the loads and stores.
+    private static final int[] effects = new int[256];
+
+    static {
+        effects[ACONST_NULL] = 1;
+        for (int op = 2; op <= 8; op++)
+            effects[op] = 1;
+        effects[DCONST_0] = effects[DCONST_1] = 2;
+        effects[ILOAD] = effects[ALOAD] = 1;
+        effects[DLOAD] = 2;
+        effects[ISTORE] = effects[ASTORE] = -1;
+        effects[DSTORE] = -2;
+        effects[POP] = -1;
+        effects[POP2] = -2;
+        effects[DUP] = 1;
+        effects[DUP2] = 2;
+        effects[IADD] = effects[ISUB] = effects[IMUL] = effects[IDIV] = effects[IREM] = -1;
+        effects[DADD] = effects[DSUB] = effects[DMUL] = effects[DDIV] = effects[DREM] = -2;
+        effects[IAND] = effects[IOR] = effects[IXOR] = -1;
+        effects[I2L] = effects[I2D] = 1;
+        effects[L2I] = effects[D2I] = -1;
+        effects[DCMPL] = effects[DCMPG] = -3;
+        for (int op = IFEQ; op <= IFLE; op++)
+            effects[op] = -1;
+        for (int op = IF_ICMPEQ; op <= IF_ICMPLE; op++)
+            effects[op] = -2;
+        effects[IRETURN] = effects[ARETURN] = -1;
+        effects[DRETURN] = -2;
+        effects[ATHROW] = -1;
+        effects[NEW] = 1;
+    }
+
+    // endregion
+
+    // region Inner Class
+
+    public static class Label {
+        private int position = -1;
+        private int depth = -1;
+        // addresses of the jump instructions to this label, patched when it is marked.
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    // a handler of the exceptions of the type thrown between start and end.
+    private static class Handler {
+        final Label start, end, handler;
+        final int type;
+
+        Handler(Label start, Label end, Label handler, int type) {
+            this.start = start;
+            this.end = end;
+            this.handler = handler;
+            this.type = type;
+        }
+    }
+
+    // endregion
+
+    private final ClassFile file;
+    private final List<Handler> handlers = new ArrayList<>();
+    private byte[] code = new byte[64];
+    private int size = 0;
+    private int depth = 0;
+    private int max_stack = 0;
+    private int max_locals;
+
+    Code(ClassFile file, String descriptor, boolean has_this) {
+        this.file = file;
+        this.max_locals = argumentSize(descriptor) + (has_this ? 1 : 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int maxStack() {
+        return max_stack;
+    }
+
+    int maxLocals() {
+        return max_locals;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(code, size);
+    }
+
+    // entries of the exception table: start, end and handler offsets, and the class caught.
+    int[][] exceptionTable() {
+        int[][] table = new int[handlers.size()][];
+        for (int i = 0; i < table.length; i++) {
+            Handler h = handlers.get(i);
+            table[i] = new int[]{h.start.position, h.end.position, h.handler.position, h.type};
+        }
+        return table;
+    }
+
+    // region Instructions
+
+    public void op(int opcode) {
+        byte1(opcode);
+        stack(effects[opcode]);
+    }
+
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            byte1(BIPUSH);
+            byte1(value);
+            stack(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            byte1(SIPUSH);
+            byte2(value);
+            stack(1);
+        } else {
+            ldc(file.integer(value), 1);
+        }
+    }
+
+    public void dconst(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L)
+            op(DCONST_0);
+        else if (value == 1.0)
+            op(DCONST_1);
+        else {
+            byte1(LDC2_W);
+            byte2(file.doubleConst(value));
+            stack(2);
+        }
+    }
+
+    public void sconst(String value) {
+        ldc(file.string(value), 1);
+    }
+
+    private void ldc(int index, int effect) {
+        if (index <= 0xFF) {
+            byte1(LDC);
+            byte1(index);
+        } else {
+            byte1(LDC_W);
+            byte2(index);
+        }
+        stack(effect);
+    }
+
+    // ILOAD, DLOAD, ALOAD, ISTORE, DSTORE or ASTORE
+    public void local(int opcode, int index) {
+        int width = opcode == DLOAD || opcode == DSTORE ? 2 : 1;
+        max_locals = Math.max(max_locals, index + width);
+        if (index <= 0xFF) {
+            byte1(opcode);
+            byte1(index);
+        } else {
+            byte1(WIDE);
+            byte1(opcode);
+            byte2(index);
+        }
+        stack(effects[opcode]);
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor) {
+        byte1(opcode);
+        byte2(file.fieldRef(owner, name, descriptor));
+        stack(opcode == GETSTATIC ? typeSize(descriptor.charAt(0)) : -typeSize(descriptor.charAt(0)));
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        int effect = typeSize(descriptor.charAt(descriptor.indexOf(')') + 1)) - argumentSize(descriptor);
+        if (opcode != INVOKESTATIC)
+            effect -= 1;
+        if (opcode == INVOKEINTERFACE) {
+            byte1(opcode);
+            byte2(file.interfaceMethodRef(owner, name, descriptor));
+            byte1(argumentSize(descriptor) + 1);
+            byte1(0);
+        } else {
+            byte1(opcode);
+            byte2(file.methodRef(owner, name, descriptor));
+        }
+        stack(effect);
+    }
+
+    // NEW or CHECKCAST
+    public void type(int opcode, String name) {
+        byte1(opcode);
+        byte2(file.classRef(name));
+        stack(effects[opcode]);
+    }
+
+    public void jump(int opcode, Label label) {
+        stack(effects[opcode]);
+        if (label.depth < 0)
+            label.depth = depth;
+        label.jumps.add(size);
+        byte1(opcode);
+        byte2(0);
+        if (label.position >= 0)
+            patch(label, size - 3);
+    }
+
+    /**
+     * Catch the exceptions of the type, a class name, thrown from start up to end, at handler,
+     * where the stack holds the exception. The labels are marked later.
+     */
+    public void handler(Label start, Label end, Label handler, String type) {
+        handlers.add(new Handler(start, end, handler, file.classRef(type)));
+        handler.depth = 1;
+    }
+
+    public void mark(Label label) {
+        label.position = size;
+        if (label.depth >= 0)
+            depth = label.depth;
+        else
+            label.depth = depth;
+        for (int address : label.jumps)
+            patch(label, address);
+    }
+
+    // endregion
+
+    // region Utils
+
+    private void patch(Label label, int address) {
+        int offset = label.position - address;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+            throw new IllegalStateException("method is too large");
+        code[address + 1] = (byte) (offset >> 8);
+        code[address + 2] = (byte) offset;
+    }
+
+    private void stack(int effect) {
+        depth += effect;
+        max_stack = Math.max(max_stack, depth);
+    }
+
+    private void byte1(int value) {
+        if (size == code.length) {
+            if (size >= 0xFFFF)
+                throw new IllegalStateException("method is too large");
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = (byte) value;
+    }
+
+    private void byte2(int value) {
+        byte1(value >> 8);
+        byte1(value);
+    }
+
+    private static int typeSize(char type) {
+        switch (type) {
+            case 'V': return 0;
+            case 'J':
+            case 'D': return 2;
+            default: return 1;
+        }
+    }
+
+    // number of local slots taken by the arguments of a method descriptor.
+    private static int argumentSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            size += typeSize(type);
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return size;
+    }
+
+    // endregion
+}
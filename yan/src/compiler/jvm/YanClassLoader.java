@@ -0,0 +1,17 @@
+package compiler.jvm;
+
+/**
+ * Class loader of the classes generated from Yan code.
+ *
+ * Each compiled unit gets its own loader, so its classes can be unloaded with it.
+ */
+public class YanClassLoader extends ClassLoader {
+    public YanClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    public Class<?> define(ClassFile file) {
+        byte[] bytes = file.toByteArray();
+        return defineClass(file.name.replace('/', '.'), bytes, 0, bytes.length);
+    }
+}
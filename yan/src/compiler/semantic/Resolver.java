@@ -1,5 +1,6 @@
 package compiler.semantic;
 
+import compiler.error.NameError;
 import compiler.error.SyntaxError;
 import compiler.error.TypeError;
 import error.BaseError;
@@ -17,17 +18,24 @@ import frontend.ast.StmtNode;
  * 4. Resolve return
  */
 public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<DataType> {
-    private ErrorCollector errorCollector = ErrorCollector.getInstance();
+    private final ErrorCollector errorCollector;
 
     private NestedScope scopes = new NestedScope();
     // used to distinguish scope of individual block and blocks in if and while
     private Scope.Type scope_type = null;
+    // line of the last name or operator resolved, where an error without position is reported
+    private int line = -1;
+
+    public Resolver(ErrorCollector errorCollector) {
+        this.errorCollector = errorCollector;
+    }
 
     private DataType evaluate(ExprNode expr) {
         return expr.accept(this);
     }
 
     private DataType evaluate(Token name) {
+        line = name.line;
         return scopes.get(name.lexeme).type;
     }
 
@@ -35,10 +43,42 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
         try {
             stmt.accept(this);
         }catch (BaseError error) {
+            if (error.line < 0)
+                error.line = line;
+            errorCollector.add(error);
+        }
+    }
+
+    /**
+     * Declare a function whose body is not resolved again, since its IL is already known,
+     * see {@link compiler.ILCache}.
+     */
+    public void declare(StmtNode.Function stmt) {
+        try {
+            scopes.current.put(stmt.name.lexeme, new Symbol(DataType.FUNCTION, stmt));
+        } catch (BaseError error) {
             errorCollector.add(error);
         }
     }
 
+    /**
+     * What code resolved now sees of the name: the type of a variable or the signature of a
+     * function, null if it is not declared.
+     */
+    public String signature(String name) {
+        Symbol symbol;
+        try {
+            symbol = scopes.get(name);
+        } catch (NameError error) {
+            return null;
+        }
+        if (symbol.value instanceof StmtNode.Function) {
+            StmtNode.Function func = (StmtNode.Function) symbol.value;
+            return "func" + func.types + "->" + func.return_type;
+        }
+        return String.valueOf(symbol.type);
+    }
+
     private DataType checkType(ExprNode left, ExprNode right, String err_msg) {
         DataType left_type = evaluate(left);
         DataType right_type = evaluate(right);
@@ -70,6 +110,7 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
     @Override
     public DataType visitCallExpr(ExprNode.FunCall expr) {
         String func_name = expr.name.lexeme;
+        line = expr.name.line;
 
         Symbol symbol = scopes.get(func_name);
         if(symbol.type != DataType.FUNCTION)
@@ -106,6 +147,7 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
         if(expr.value instanceof Double) type = DataType.FLOAT;
         if(expr.value instanceof Integer) type = DataType.INT;
         if(expr.value instanceof Boolean) type = DataType.BOOL;
+        if(expr.value instanceof String) type = DataType.STRING;
 
         if(type == null)
             throw new TypeError("type of'"+expr.value+"' is not supported.");
@@ -139,6 +181,7 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
 
     @Override
     public DataType visitVariableExpr(ExprNode.Variable expr) {
+        line = expr.name.line;
         Symbol symbol = scopes.get(expr.name.lexeme);
 
         if(!(symbol.value instanceof StmtNode.Var))
@@ -172,6 +215,7 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
 
     @Override
     public DataType visitFunctionStmt(StmtNode.Function stmt) {
+        line = stmt.name.line;
         this.scope_type = Scope.Type.FUNCTION;
         scopes.current.put(stmt.name.lexeme, new Symbol(DataType.FUNCTION, stmt));
 
@@ -238,11 +282,22 @@ public class Resolver implements StmtNode.Visitor<DataType>, ExprNode.Visitor<Da
                     "' is " + func.return_type + ", but " + stmt.value.type + " were given.");
 
         stmt.func = scope.code;
+        // a call of the function itself in a return is the last thing it does.
+        ExprNode value = stmt.value;
+        while (value instanceof ExprNode.Grouping)
+            value = ((ExprNode.Grouping) value).expression;
+        if (value instanceof ExprNode.FunCall && ((ExprNode.FunCall) value).func == func) {
+            // the backends take the call from the value.
+            stmt.value = value;
+            stmt.tail_call = true;
+            func.tail_calls = true;
+        }
         return null;
     }
 
     @Override
     public DataType visitVarStmt(StmtNode.Var stmt) {
+        line = stmt.name.line;
         // TODO: it is better to check if var has already defined before resolving declaration.
         // Feature: type inference by initializer
         DataType type;
@@ -2,7 +2,24 @@ package error;
 
 public class BaseError extends RuntimeException {
     public String description;
+    // position in the source, -1 if it is not known
+    public int line = -1;
+    public int column = -1;
+
     public BaseError(String description) {
         this.description = description;
     }
-}
\ No newline at end of file
+
+    public BaseError(String description, int line, int column) {
+        this.description = description;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Kind of the error, the name of its class, "LexicalError" for the errors of the lexer.
+     */
+    public String code() {
+        return getClass() == BaseError.class ? "LexicalError" : getClass().getSimpleName();
+    }
+}
@@ -1,33 +1,70 @@
 package error;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Vector;
 
+/**
+ * Diagnostics of one compilation or run, handed to every stage of its pipeline, so several
+ * of them can go on at once in the same JVM. It is not shared between threads.
+ *
+ * At most capacity errors are kept, later ones are only counted: a broken file can't fill
+ * the memory of a server compiling it.
+ */
 public class ErrorCollector {
-    private List<BaseError> errors = new Vector<>();
+    public static final int DEFAULT_CAPACITY = 100;
 
-    private String file_name;
+    private final List<BaseError> errors = new ArrayList<>();
+    private final int capacity;
+    private int dropped = 0;
 
-    // region singleton pattern
-    private static ErrorCollector instance = new ErrorCollector();
+    private String file_name;
+    private PrintStream out = System.out;
 
-    private ErrorCollector(){}
+    public ErrorCollector(String file_name) {
+        this(file_name, DEFAULT_CAPACITY);
+    }
 
-    public static ErrorCollector getInstance(){
-        return instance;
+    public ErrorCollector(String file_name, int capacity) {
+        this.file_name = file_name;
+        this.capacity = capacity;
     }
-    // endregion
 
     public void setFile_name(String file_name) {
         this.file_name = file_name;
     }
 
+    public String getFile_name() {
+        return file_name;
+    }
+
+    // where the errors are shown, the console by default.
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
     public boolean hasError() {
         return !errors.isEmpty();
     }
 
     public void add(BaseError e) {
-        errors.add(e);
+        if (errors.size() < capacity)
+            errors.add(e);
+        else
+            dropped++;
+    }
+
+    /**
+     * The errors kept, in the order they were found, with their position and code.
+     */
+    public List<BaseError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    // number of errors found, including those not kept.
+    public int count() {
+        return errors.size() + dropped;
     }
 
     public void show() {
@@ -35,12 +72,15 @@ public class ErrorCollector {
         for(BaseError error : errors) {
             String msg = bold_color + file_name + ":" +
                     error.description;
-            System.out.println(msg);
+            out.println(msg);
         }
-        System.out.println(errors.size() + " errors generated.");
+        if (dropped > 0)
+            out.println(dropped + " more errors not shown.");
+        out.println(count() + " errors generated.");
     }
 
     public void clear() {
         errors.clear();
+        dropped = 0;
     }
-}
\ No newline at end of file
+}
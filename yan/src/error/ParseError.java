@@ -1,8 +1,7 @@
 package error;
 
 import frontend.Token;
-
-import java.util.List;
+import frontend.TokenStream;
 
 public class ParseError extends BaseError {
     public enum ErrorType {
@@ -11,7 +10,7 @@ public class ParseError extends BaseError {
 
     public int parsed_amount;    // position of error, index of error token.
 
-    public ParseError(int parsed, String msg, List<Token> tokens, ErrorType type) {
+    public ParseError(int parsed, String msg, TokenStream tokens, ErrorType type) {
         super(null);
 
         if (type == ErrorType.BEFORE)
@@ -20,6 +19,8 @@ public class ParseError extends BaseError {
             this.parsed_amount = parsed - 1;
 
         Token token = tokens.get(parsed_amount);
+        this.line = token.line;
+        this.column = token.column;
 
         StringBuilder builder = new StringBuilder();
         builder.append(token.line);
@@ -51,7 +52,7 @@ public class ParseError extends BaseError {
         // TODO: get source line from lexer.
         StringBuilder line = new StringBuilder();
         int left = parsed_amount;
-        while (left >= 0 && tokens.get(left).line == token.line) left -= 1;
+        while (left >= tokens.oldest() && tokens.get(left).line == token.line) left -= 1;
         left += 1;
         int right = parsed_amount;
 
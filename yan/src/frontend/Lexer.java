@@ -10,12 +10,16 @@ import static frontend.TokenType.*;
 public class Lexer {
     private SourceBuffer source;
     private int line;  // current line number
+    private int line_start;    // index of the first character of the line
     private int start; // beginning index of the token.
+    private final SymbolTable symbols = new SymbolTable();
+    // lexeme of every operator type, which has a single spelling, but an unknown character.
+    private final String[] spellings = new String[TokenType.values().length];
 
     private static final Map<String, TokenType> keywords;
     private static final Map<String, TokenType> data_types;
 
-    private ErrorCollector errorCollector = ErrorCollector.getInstance();
+    private final ErrorCollector errorCollector;
 
     static {
         keywords = new HashMap<>();
@@ -36,25 +40,34 @@ public class Lexer {
         data_types.put("bool",  BOOL);
     }
 
-    public Lexer(SourceBuffer buff) {
+    public Lexer(SourceBuffer buff, ErrorCollector errorCollector) {
         this.source = buff;
+        this.errorCollector = errorCollector;
         this.line = 1;
+        // keywords are found by the same probe as names.
+        keywords.forEach(symbols::define);
+        data_types.forEach(symbols::define);
+        symbols.define("true", BOOL_CONSTANT);
+        symbols.define("false", BOOL_CONSTANT);
     }
 
     public Token scan() {
+        // nothing before is read again, a file is only kept in memory from here.
+        source.mark(source.getOffset());
         char ch = source.next();
         ch  = skipWhitespace(ch);
         // Encounter eof.
-        if(ch == '\0') return new Token(EOF, "", null, line);
+        if(ch == '\0') return new Token(EOF, "", null, line, source.getOffset() - line_start);
         // Encounter comment
         if(ch == '/') ch = skipComment(ch);
         // After removing comment, there might be new white space.
         ch  = skipWhitespace(ch);
 
         start = source.getOffset()-1;
+        source.mark(start);
 
-        if(Character.isLetter(ch) || ch == '_') return identifier();
-        if(Character.isDigit((ch))) return number();
+        if(isIdentifierStart(ch)) return identifier();
+        if(isDigit(ch)) return number();
 //        if(ch == '\'') return charLiteral();
         if(ch == '\"') return stringLiteral();
 
@@ -87,7 +100,7 @@ public class Lexer {
             case ':': return makeToken(COLON);
         }
 
-        errorCollector.add(new BaseError("unexpected character."));
+        error("unexpected character.");
         return makeToken(UNKNOWN);
     }
 
@@ -122,6 +135,7 @@ public class Lexer {
             else if(ch == '\n') {
                 ch = source.next();
                 line += 1;
+                line_start = source.getOffset() - 1;
             }
             else {
                 break;
@@ -134,41 +148,38 @@ public class Lexer {
         char ch;
         do {
             ch = source.next();
-        } while(Character.isLetterOrDigit(ch) || ch == '_');
+        } while(isIdentifierPart(ch));
         source.back();
-        String token_value = source.substring(start, source.getOffset());
-
-        if(token_value.equals("true"))
-            return new Token(BOOL_CONSTANT, token_value, true, line);
-        if(token_value.equals("false"))
-            return new Token(BOOL_CONSTANT, token_value, false, line);
+        int slot = source.find(start, source.getOffset(), symbols);
+        String token_value = symbols.symbol(slot);
+        TokenType type = symbols.type(slot);
 
-        if(keywords.containsKey(token_value))
-            return new Token(keywords.get(token_value), token_value, null, line);
-        else return new Token(data_types.getOrDefault(token_value, IDENTIFIER), token_value, null, line);
+        if(type == BOOL_CONSTANT)
+            return new Token(type, token_value, token_value.equals("true"), line, column());
+        return new Token(type, token_value, null, line, column());
     }
 
     private Token number() {
         char ch;
         do {
             ch = source.next();
-        } while (Character.isDigit(ch));
+        } while (isDigit(ch));
 
         // Determine whether it is a real number.
         if(ch != '.') {
             source.back();
             String token_value = source.substring(start, source.getOffset());
-            return new Token(INTEGER_CONSTANT, token_value, Integer.parseInt(token_value),line);
+            return new Token(INTEGER_CONSTANT, token_value, Integer.parseInt(token_value), line, column());
         }
 
         // construct real number.
         do {
             ch = source.next();
-        } while(Character.isDigit((ch)));
+        } while(isDigit(ch));
         source.back();
 
         String token_value = source.substring(start, source.getOffset());
-        return new Token(FLOAT_CONSTANT, token_value, Double.parseDouble(token_value),line);
+        return new Token(FLOAT_CONSTANT, token_value, Double.parseDouble(token_value), line, column());
     }
 
 //    private Token charLiteral() {
@@ -199,7 +210,7 @@ public class Lexer {
             char c = token_value.charAt(i);
             if(c == '\\') {
                 if(i+1 == token_value.length()-1) {
-                    errorCollector.add(new BaseError("invalid string literal at line" + line));
+                    error("invalid string literal at line" + line);
                     break;
                 }
                 switch(token_value.charAt(i+1)) {
@@ -216,7 +227,7 @@ public class Lexer {
                         literal.append('"');
                         break;
                     default:
-                        errorCollector.add(new BaseError("invalid string literal at line" + line));
+                        error("invalid string literal at line" + line);
                         break;
                 }
                 i++;
@@ -226,14 +237,49 @@ public class Lexer {
             }
         }
         if(ch != '\"') {
-            errorCollector.add(new BaseError("expected \" at line " + line));
+            error("expected \" at line " + line);
         }
-        return new Token(STRING_CONSTANT, token_value, literal.toString(), line);
+        return new Token(STRING_CONSTANT, token_value, literal.toString(), line, column());
     }
 
     private Token makeToken(TokenType type) {
-        String lexeme = source.substring(start, source.getOffset());
-        return new Token(type, lexeme,null,line);
+        String lexeme = spellings[type.ordinal()];
+        if(lexeme == null) {
+            lexeme = source.substring(start, source.getOffset());
+            if(type != UNKNOWN)
+                spellings[type.ordinal()] = lexeme;
+        }
+        return new Token(type, lexeme, null, line, column());
+    }
+
+    // ASCII is told by ranges, the rest of Unicode by Character.
+
+    private static boolean isIdentifierStart(char ch) {
+        if(ch < 128)
+            return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+        return Character.isLetter(ch);
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        if(ch < 128)
+            return isIdentifierStart(ch) || (ch >= '0' && ch <= '9');
+        return Character.isLetterOrDigit(ch);
+    }
+
+    private static boolean isDigit(char ch) {
+        if(ch < 128)
+            return ch >= '0' && ch <= '9';
+        return Character.isDigit(ch);
+    }
+
+    // column of the beginning of the current token, from 1.
+    private int column() {
+        return start - line_start + 1;
+    }
+
+    // an error at the beginning of the current token.
+    private void error(String description) {
+        errorCollector.add(new BaseError(description, line, column()));
     }
 
     private Token makeToken(char case1, char case2, TokenType type1, TokenType type2, TokenType type0) {
@@ -16,14 +16,15 @@ import static frontend.TokenType.*;
 public class Parser {
     // region Properties
 
-    private List<Token> tokens;
+    private final TokenStream tokens;
     private int current;
-    private ErrorCollector errorCollector = ErrorCollector.getInstance();
+    private final ErrorCollector errorCollector;
 
     // endregion
 
-    public Parser(List<Token> tokens) {
+    public Parser(TokenStream tokens, ErrorCollector errorCollector) {
         this.tokens = tokens;
+        this.errorCollector = errorCollector;
         this.current = 0;
     }
 
@@ -204,28 +205,27 @@ public class Parser {
         ExprNode expr = parseLogicalOr();
 
         if (match(ASSIGN, ADD_ASSIGN, SUB_ASSIGN, MULTI_ASSIGN, DIV_ASSIGN, MOD_ASSIGN)) {
-            int assign = current - 1;
+            // checked before the value is parsed, the operator token may not be kept after it.
+            if (!(expr instanceof ExprNode.Variable))
+                throw new ParseError(current - 1, "invalid assignment target", tokens, BEFORE);
             Token op = previous();
             ExprNode value = parseExpression();
 
-            if (expr instanceof ExprNode.Variable) {
-                Token name = ((ExprNode.Variable) expr).name;
-
-                if(op.type != ASSIGN) {
-                    TokenType tmp = null;
-                    switch(op.type) {
-                        case ADD_ASSIGN: tmp = ADD; break;
-                        case SUB_ASSIGN: tmp = SUB; break;
-                        case DIV_ASSIGN: tmp = DIV; break;
-                        case MULTI_ASSIGN: tmp = MULTI; break;
-                        case MOD_ASSIGN: tmp = MOD; break;
-                    }
-                    value = new ExprNode.Binary(expr, new Token(tmp, "", null, op.line), value);
-                }
+            Token name = ((ExprNode.Variable) expr).name;
 
-                return new ExprNode.Assign(name, new Token(ASSIGN, "=", null, op.line), value);
+            if(op.type != ASSIGN) {
+                TokenType tmp = null;
+                switch(op.type) {
+                    case ADD_ASSIGN: tmp = ADD; break;
+                    case SUB_ASSIGN: tmp = SUB; break;
+                    case DIV_ASSIGN: tmp = DIV; break;
+                    case MULTI_ASSIGN: tmp = MULTI; break;
+                    case MOD_ASSIGN: tmp = MOD; break;
+                }
+                value = new ExprNode.Binary(expr, new Token(tmp, "", null, op.line, op.column), value);
             }
-            throw new ParseError(assign, "invalid assignment target", tokens, BEFORE);
+
+            return new ExprNode.Assign(name, new Token(ASSIGN, "=", null, op.line, op.column), value);
         }
         return expr;
     }
@@ -376,7 +376,7 @@ public class Parser {
     }
 
     private boolean isAtEnd() {
-        return current >= tokens.size();
+        return peek().type == EOF;
     }
 
     private String strRepr(TokenType... types) {
@@ -1,13 +1,46 @@
 package frontend;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 public class SourceBuffer {
+    private static final int WINDOW = 1 << 13;
 
     // Public Methods
 
     public SourceBuffer(String source) {
         this.offset = 0;
-        this.source = source;
-        this.length = source.length();
+        this.window = source.toCharArray();
+        this.limit = window.length;
+    }
+
+    /**
+     * Source of a UTF-8 file, memory mapped and decoded as the lexer goes, so only a window of
+     * characters from the current token on is ever in memory.
+     */
+    public static SourceBuffer open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed.
+            return new SourceBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private SourceBuffer(ByteBuffer bytes) {
+        this.offset = 0;
+        this.bytes = bytes;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.window = new char[WINDOW];
+        this.limit = 0;
     }
 
     /**
@@ -19,7 +52,7 @@ public class SourceBuffer {
      * @return next character.
      */
     public char next() {
-        char ch = offset < length ? source.charAt(offset) : '\0';
+        char ch = peek();
         offset += 1;
         return ch;
     }
@@ -30,7 +63,9 @@ public class SourceBuffer {
      * @return next character.
      */
     public char peek() {
-        return offset < length ? source.charAt(offset) : '\0';
+        if (offset - base < limit || fill())
+            return window[offset - base];
+        return '\0';
     }
 
 
@@ -67,16 +102,68 @@ public class SourceBuffer {
     }
 
     /**
-     * The same as String's substring.
+     * Characters before the offset won't be read again, nor be part of a substring: the buffer
+     * may drop them. The lexer marks the beginning of every token.
+     */
+    public void mark(int offset) {
+        mark = Math.max(mark, offset);
+    }
+
+    /**
+     * The same as String's substring, beginIndex must not be before the mark.
      */
     public String substring(int beginIndex, int endIndex) {
-        return source.substring(beginIndex, endIndex);
+        return new String(window, beginIndex - base, endIndex - beginIndex);
+    }
+
+    /**
+     * Slot in the symbol table of the characters from beginIndex to endIndex, see
+     * {@link SymbolTable#find}. beginIndex must not be before the mark.
+     */
+    public int find(int beginIndex, int endIndex, SymbolTable symbols) {
+        return symbols.find(window, beginIndex - base, endIndex - beginIndex);
+    }
+
+    // Private Methods
+
+    // decode more of the file into the window, false if there is nothing left at the offset.
+    private boolean fill() {
+        while (bytes != null && offset - base >= limit) {
+            if (decoded)
+                return false;
+            int drop = Math.min(mark, offset) - base;
+            if (drop > 0) {
+                System.arraycopy(window, drop, window, 0, limit - drop);
+                limit -= drop;
+                base += drop;
+            }
+            // a token longer than the window
+            if (window.length - limit < 2)
+                window = Arrays.copyOf(window, window.length * 2);
+
+            CharBuffer chars = CharBuffer.wrap(window, limit, window.length - limit);
+            decoder.decode(bytes, chars, true);
+            if (!bytes.hasRemaining()) {
+                decoder.flush(chars);
+                decoded = true;
+            }
+            limit = chars.position();
+        }
+        return offset - base < limit;
     }
 
     // Private Properties
 
-    private String source;
+    // characters from base to base + limit of the source, all of them for a string.
+    private char[] window;
+    private int base = 0;
+    private int limit;
     private int offset;
-    private int length;
+    private int mark = 0;
+
+    // the rest of a file to decode, null for a string
+    private ByteBuffer bytes;
+    private CharsetDecoder decoder;
+    private boolean decoded = false;
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package frontend;
+
+/**
+ * Lexemes of a source, each kept once with its token type. The lexer looks a lexeme up on the
+ * characters it has read, so a name or an operator seen before costs no new String, all its
+ * tokens share one, and a keyword is told from a name by the same probe.
+ */
+public class SymbolTable {
+    // region Properties
+
+    // open addressing, at most half full.
+    private String[] symbols = new String[1 << 8];
+    private TokenType[] types = new TokenType[1 << 8];
+    private int size = 0;
+
+    // endregion
+
+    /**
+     * Make the symbol a token of the type instead of an identifier, for keywords.
+     */
+    public void define(String symbol, TokenType type) {
+        char[] chars = symbol.toCharArray();
+        types[find(chars, 0, chars.length)] = type;
+    }
+
+    /**
+     * Slot of the symbol spelled by length characters from offset, added as an identifier if it
+     * is new. A slot is only valid until the next symbol is added.
+     */
+    public int find(char[] chars, int offset, int length) {
+        // the same as String's hashCode, which a symbol has cached.
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + chars[i];
+
+        int mask = symbols.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            String symbol = symbols[i];
+            if (symbol == null) {
+                symbols[i] = new String(chars, offset, length);
+                types[i] = TokenType.IDENTIFIER;
+                if (++size * 2 > symbols.length)
+                    return grow(i);
+                return i;
+            }
+            if (symbol.hashCode() == hash && spells(symbol, chars, offset, length))
+                return i;
+        }
+    }
+
+    public String symbol(int slot) {
+        return symbols[slot];
+    }
+
+    public TokenType type(int slot) {
+        return types[slot];
+    }
+
+    private static boolean spells(String symbol, char[] chars, int offset, int length) {
+        if (symbol.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (symbol.charAt(i) != chars[offset + i])
+                return false;
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // double the table, returning the new slot of the symbol at the old one.
+    private int grow(int slot) {
+        String[] old_symbols = symbols;
+        TokenType[] old_types = types;
+        symbols = new String[old_symbols.length * 2];
+        types = new TokenType[old_types.length * 2];
+        int mask = symbols.length - 1;
+        int moved = -1;
+        for (int j = 0; j < old_symbols.length; j++) {
+            if (old_symbols[j] == null)
+                continue;
+            int i = spread(old_symbols[j].hashCode()) & mask;
+            while (symbols[i] != null)
+                i = (i + 1) & mask;
+            symbols[i] = old_symbols[j];
+            types[i] = old_types[j];
+            if (j == slot)
+                moved = i;
+        }
+        return moved;
+    }
+}
@@ -5,12 +5,14 @@ public class Token {
     final public String lexeme;
     final public Object literal;
     final public int line;
+    final public int column;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String lexeme, Object literal, int line, int column) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.column = column;
     }
 
     public String toString() {
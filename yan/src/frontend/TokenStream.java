@@ -0,0 +1,62 @@
+package frontend;
+
+import static frontend.TokenType.*;
+
+/**
+ * Tokens of the lexer, scanned as the parser asks for them instead of all before parsing.
+ *
+ * Tokens are numbered from 0 in source order. Only the last {@link #CAPACITY} scanned are kept,
+ * in a ring: the parser looks one token ahead, and a parse error looks back along its line.
+ * Once the source ends every further token is the EOF one.
+ */
+public class TokenStream {
+    public static final int CAPACITY = 1 << 6;
+    private static final int MASK = CAPACITY - 1;
+
+    // region Properties
+
+    private final Lexer lexer;
+    private final Token[] ring = new Token[CAPACITY];
+    private int scanned = 0;
+    private Token eof = null;
+
+    // endregion
+
+    public TokenStream(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Token at the index, scanning up to it if needed.
+     *
+     * @throws IndexOutOfBoundsException if the token has already been dropped.
+     */
+    public Token get(int index) {
+        if (index < oldest())
+            throw new IndexOutOfBoundsException("token " + index + " is no longer kept");
+        while (index >= scanned) {
+            ring[scanned & MASK] = scan();
+            scanned += 1;
+        }
+        return ring[index & MASK];
+    }
+
+    /**
+     * Index of the first token still kept.
+     */
+    public int oldest() {
+        return Math.max(0, scanned - CAPACITY);
+    }
+
+    private Token scan() {
+        if (eof != null)
+            return eof;
+        Token token = lexer.scan();
+        // the lexer has reported an unknown character, parse what's around it.
+        while (token.type == UNKNOWN)
+            token = lexer.scan();
+        if (token.type == EOF)
+            eof = token;
+        return token;
+    }
+}
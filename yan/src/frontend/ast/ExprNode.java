@@ -31,6 +31,7 @@ public abstract class ExprNode extends Node{
     public abstract <R> R accept(Visitor<R> visitor);
 
     public DataType type;
+    public Object specialized;  // executable node attached by the interpreter
 
     public static class Assign extends ExprNode {
         public Assign(Token name, Token operator, ExprNode value) {
@@ -46,6 +47,10 @@ public abstract class ExprNode extends Node{
         public final Token name;
         public final Token operator;
         public final ExprNode value;
+
+        public int depth = -1;  // number of frames to walk up, -1 for global
+        public int slot = -1;   // index in the frame, -1 for global
+        public DataType slot_type;  // static type of the slot, null if the value is boxed
     }
 
     public static class Binary extends ExprNode {
@@ -94,6 +99,8 @@ public abstract class ExprNode extends Node{
         public final Token name;
         public final List<ExprNode> arguments;
         public StmtNode.Function func;
+
+        public long calls = 0;  // times the interpreter made the call, see compiler.CallProfile
     }
 
     public static class Grouping extends ExprNode {
@@ -161,5 +168,9 @@ public abstract class ExprNode extends Node{
 
         public final Token name;
         public StmtNode.Var declaration;
+
+        public int depth = -1;  // number of frames to walk up, -1 for global
+        public int slot = -1;   // index in the frame, -1 for global
+        public DataType slot_type;  // static type of the slot, null if the value is boxed
     }
 }
@@ -51,6 +51,8 @@ public abstract class StmtNode extends Node{
         public final List<DataType> types;
         public final DataType return_type;
         public final Block body;
+        // some return of the body calls the function itself, see Return.tail_call
+        public boolean tail_calls = false;
 
         public Function(Token name, List<Token> params, List<DataType> types, DataType return_type, Block body) {
             this.name = name;
@@ -68,9 +70,11 @@ public abstract class StmtNode extends Node{
 
     static public class Var extends StmtNode {
         public final Token name;
-        public final ExprNode initializer;
+        public ExprNode initializer;
         public DataType type;
 
+        public int slot = -1;   // index in the frame, -1 for global
+
         public Var(Token name, ExprNode initializer, DataType type) {
             this.name = name;
             this.initializer = initializer;
@@ -86,6 +90,8 @@ public abstract class StmtNode extends Node{
     public static class Block extends StmtNode {
         public final List<StmtNode> items;
 
+        public int slots;   // number of local variables declared directly in this block
+
         public Block(List<StmtNode> items) {
             this.items = items;
         }
@@ -143,6 +149,8 @@ public abstract class StmtNode extends Node{
     public static class Return extends StmtNode {
         public StmtNode func;
         public ExprNode value;
+        // the value is a call of the enclosing function, which can jump back to its start.
+        public boolean tail_call = false;
 
         public Return(ExprNode value) {
             this.value = value;
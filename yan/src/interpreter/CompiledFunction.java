@@ -0,0 +1,11 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * Entry of a Yan function compiled to JVM bytecode, implemented by the generated class.
+ * Arguments have been checked against the declared parameter types by the caller.
+ */
+public interface CompiledFunction {
+    YanObject call(List<YanObject> arguments);
+}
@@ -0,0 +1,14 @@
+package interpreter;
+
+/**
+ * How the execution of a statement completes.
+ *
+ * Returned by every statement instead of throwing, so return, break and continue
+ * unwind through enclosing blocks without any allocation.
+ * The value of a return is kept by the interpreter until the function call picks it up.
+ * A return of a call of the enclosing function completes with TAIL_CALL instead, the
+ * function then runs again with the arguments kept by the interpreter.
+ */
+public enum Completion {
+    NORMAL, BREAK, CONTINUE, RETURN, TAIL_CALL
+}
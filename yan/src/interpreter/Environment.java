@@ -1,33 +1,49 @@
 package interpreter;
 
+import frontend.DataType;
 import interpreter.error.RuntimeError;
 import frontend.Token;
 
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Globals are kept by name so that the REPL can define them incrementally,
+ * every other frame is an array indexed by the slots computed in {@link SlotResolver}.
+ *
+ * A slot whose static type is int, bool or float is stored unboxed in <code>words</code>
+ * (float as its raw bits), any other slot holds a {@link YanObject}.
+ */
 public class Environment {
     final Environment enclosing;
-    private final Map<String, YanObject> values = new HashMap<>();
+    private final Map<String, YanObject> values;
+    private final YanObject[] slots;
+    private final long[] words;
 
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
+        words = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new YanObject[size];
+        this.words = new long[size];
     }
 
+    // region: Globals
+
     void define(String name, YanObject value) {
         values.put(name, value);
     }
 
     YanObject get(Token name) throws RuntimeError {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) return enclosing.get(name);
+        YanObject value = values.get(name.lexeme);
+        if (value != null || values.containsKey(name.lexeme))
+            return value;
 
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
@@ -39,12 +55,61 @@ public class Environment {
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        throw new RuntimeError(name,
+                "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    // endregion
+
+    // region: Slots
+
+    void defineAt(int slot, DataType type, YanObject value) {
+        store(slot, type, value);
+    }
+
+    YanObject getAt(int depth, int slot, DataType type) {
+        Environment environment = ancestor(depth);
+        if (type == null)
+            return environment.slots[slot];
+        switch (type) {
+            case INT: return YanObject.ofInt(environment.words[slot]);
+            case BOOL: return YanObject.ofBool(environment.words[slot] != 0);
+            case FLOAT: return YanObject.ofFloat(Double.longBitsToDouble(environment.words[slot]));
+            default: return environment.slots[slot];
+        }
+    }
+
+    void assignAt(int depth, int slot, DataType type, YanObject value) {
+        ancestor(depth).store(slot, type, value);
+    }
+
+    long getWord(int depth, int slot) {
+        return ancestor(depth).words[slot];
+    }
+
+    void setWord(int depth, int slot, long value) {
+        ancestor(depth).words[slot] = value;
+    }
+
+    private void store(int slot, DataType type, YanObject value) {
+        if (type == null) {
+            slots[slot] = value;
             return;
         }
+        switch (type) {
+            case INT: words[slot] = value.asInt(); break;
+            case BOOL: words[slot] = value.asBool() ? 1 : 0; break;
+            case FLOAT: words[slot] = Double.doubleToRawLongBits(value.asFloat()); break;
+            default: slots[slot] = value;
+        }
+    }
 
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++)
+            environment = environment.enclosing;
+        return environment;
     }
+
+    // endregion
 }
@@ -0,0 +1,1117 @@
+package interpreter;
+
+import frontend.DataType;
+import frontend.TokenType;
+import frontend.Token;
+import frontend.ast.ExprNode;
+import interpreter.error.RuntimeError;
+
+/**
+ * Executable node, the self-specializing form of an expression.
+ *
+ * Binary, relation, unary and logical expressions are rewritten into a tree of these nodes
+ * the first time they are evaluated, the root is cached in {@link ExprNode#specialized}.
+ * When the Resolver has computed the static types, nodes are specialized right away
+ * (IntAdd, FloatLess, ...). Otherwise they start uninitialized and specialize on the types of
+ * the first operands they see. A specialized node whose assumption fails replaces itself with
+ * the generic node of the same operation and never specializes again.
+ */
+abstract class ExecNode {
+    private ExecNode parent;
+    private ExprNode owner;   // only set on the root
+
+    abstract YanObject execute(Interpreter interpreter);
+
+    long executeInt(Interpreter interpreter) throws UnexpectedResultException {
+        return expectInt(execute(interpreter));
+    }
+
+    double executeFloat(Interpreter interpreter) throws UnexpectedResultException {
+        return expectFloat(execute(interpreter));
+    }
+
+    boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+        return expectBool(execute(interpreter));
+    }
+
+    // region: Tree
+
+    static ExecNode root(ExprNode expr) {
+        ExecNode node = create(expr);
+        node.owner = expr;
+        expr.specialized = node;
+        return node;
+    }
+
+    <T extends ExecNode> T adopt(T child) {
+        ((ExecNode) child).parent = this;
+        return child;
+    }
+
+    <T extends ExecNode> T replace(T replacement) {
+        ExecNode node = replacement;
+        node.parent = parent;
+        node.owner = owner;
+        if (parent != null)
+            parent.replaceChild(this, replacement);
+        else if (owner != null)
+            owner.specialized = replacement;
+        return replacement;
+    }
+
+    void replaceChild(ExecNode child, ExecNode replacement) {
+    }
+
+    static ExecNode create(ExprNode expr) {
+        if (expr instanceof ExprNode.Grouping)
+            return create(((ExprNode.Grouping) expr).expression);
+
+        if (expr instanceof ExprNode.Binary) {
+            ExprNode.Binary binary = (ExprNode.Binary) expr;
+            ExecNode left = create(binary.left);
+            ExecNode right = create(binary.right);
+            if (expr.type == DataType.INT)
+                return intArithmetic(binary.operator, left, right);
+            if (expr.type == DataType.FLOAT)
+                return floatArithmetic(binary.operator, left, right);
+            if (expr.type == null)
+                return new UninitializedBinary(binary.operator, left, right);
+            return new GenericBinary(binary.operator, left, right);
+        }
+
+        if (expr instanceof ExprNode.Relation) {
+            ExprNode.Relation relation = (ExprNode.Relation) expr;
+            ExecNode left = create(relation.left);
+            ExecNode right = create(relation.right);
+            if (relation.left.type == null || relation.right.type == null)
+                return new UninitializedRelation(relation.operator, left, right);
+            if (isNumber(relation.left.type) && isNumber(relation.right.type)) {
+                if (DataType.implicitConversion(relation.left.type, relation.right.type) == DataType.FLOAT)
+                    return floatCompare(relation.operator, left, right);
+                return intCompare(relation.operator, left, right);
+            }
+            return new GenericRelation(relation.operator, left, right);
+        }
+
+        if (expr instanceof ExprNode.Unary) {
+            ExprNode.Unary unary = (ExprNode.Unary) expr;
+            ExecNode right = create(unary.right);
+            if (unary.operator.type == TokenType.SUB && expr.type == DataType.INT)
+                return new IntNeg(right);
+            if (unary.operator.type == TokenType.SUB && expr.type == DataType.FLOAT)
+                return new FloatNeg(right);
+            if (unary.operator.type == TokenType.REL_NOT && expr.type == DataType.BOOL)
+                return new Not(right);
+            return new GenericUnary(unary.operator, right);
+        }
+
+        if (expr instanceof ExprNode.Logical) {
+            ExprNode.Logical logical = (ExprNode.Logical) expr;
+            ExecNode left = create(logical.left);
+            ExecNode right = create(logical.right);
+            if (logical.left.type == DataType.BOOL && logical.right.type == DataType.BOOL)
+                return new BoolLogical(logical.operator, left, right);
+            return new GenericLogical(logical.operator, left, right);
+        }
+
+        if (expr instanceof ExprNode.Variable) {
+            ExprNode.Variable variable = (ExprNode.Variable) expr;
+            if (variable.depth >= 0 && variable.slot_type == DataType.INT)
+                return new IntLocal(variable.depth, variable.slot);
+            if (variable.depth >= 0 && variable.slot_type == DataType.FLOAT)
+                return new FloatLocal(variable.depth, variable.slot);
+            if (variable.depth >= 0 && variable.slot_type == DataType.BOOL)
+                return new BoolLocal(variable.depth, variable.slot);
+        }
+
+        if (expr instanceof ExprNode.Literal) {
+            Object value = ((ExprNode.Literal) expr).value;
+            if (value instanceof Integer)
+                return new IntConstant((Integer) value);
+            if (value instanceof Double)
+                return new FloatConstant((Double) value);
+            if (value instanceof Boolean)
+                return new BoolConstant((Boolean) value);
+        }
+
+        return new GenericExpr(expr);
+    }
+
+    // endregion
+
+    // region: Generic operations, the reference semantics of every specialized node
+
+    static long expectInt(YanObject value) throws UnexpectedResultException {
+        if (value.type == DataType.INT)
+            return value.int_value;
+        throw new UnexpectedResultException(value);
+    }
+
+    static double expectFloat(YanObject value) throws UnexpectedResultException {
+        if (value.type == DataType.FLOAT)
+            return value.float_value;
+        if (value.type == DataType.INT)
+            return value.int_value;
+        throw new UnexpectedResultException(value);
+    }
+
+    static boolean expectBool(YanObject value) throws UnexpectedResultException {
+        if (value.type == DataType.BOOL)
+            return value.bool_value;
+        throw new UnexpectedResultException(value);
+    }
+
+    private static boolean isNumber(DataType type) {
+        return type == DataType.INT || type == DataType.FLOAT || type == DataType.BOOL;
+    }
+
+    private static void checkType(DataType target, DataType... types) {
+        for (DataType type : types) {
+            if (target == type)
+                return;
+        }
+        throw new RuntimeError(null, "operand should be a number.");
+    }
+
+    static YanObject binary(Token op, YanObject left, YanObject right) {
+        checkType(left.type, DataType.INT, DataType.FLOAT);
+        checkType(right.type, DataType.INT, DataType.FLOAT);
+        if (left.type == DataType.FLOAT || right.type == DataType.FLOAT)
+            return YanObject.ofFloat(floatArithmetic(op, null, null).compute(left.asFloat(), right.asFloat()));
+        return YanObject.ofInt(intArithmetic(op, null, null).compute(left.asInt(), right.asInt()));
+    }
+
+    static YanObject relation(Token op, YanObject left, YanObject right) {
+        // TODO: compare string
+        checkType(left.type, DataType.INT, DataType.FLOAT, DataType.BOOL);
+        checkType(right.type, DataType.INT, DataType.FLOAT, DataType.BOOL);
+        if (left.type == DataType.FLOAT || right.type == DataType.FLOAT)
+            return YanObject.ofBool(floatCompare(op, null, null).compare(left.asFloat(), right.asFloat()));
+        return YanObject.ofBool(intCompare(op, null, null).compare(left.asInt(), right.asInt()));
+    }
+
+    static YanObject unary(Token op, YanObject right) {
+        switch (op.type) {
+            case SUB:
+                checkType(right.type, DataType.INT, DataType.FLOAT);
+                if (right.type == DataType.INT)
+                    return YanObject.ofInt((int) -right.int_value);
+                return YanObject.ofFloat(-right.float_value);
+            case REL_NOT:
+                return YanObject.ofBool(!right.asBool());
+            default:
+                throw new RuntimeError(op, "unsupported operator " + op.type + ".");
+        }
+    }
+
+    static YanObject logical(Token op, YanObject left, YanObject right) {
+        if (left.type != DataType.BOOL || right.type != DataType.BOOL)
+            throw new RuntimeError(op,
+                    "operands of relation operator should be able to be evaluated as bool");
+        if (op.type == TokenType.REL_AND)
+            return YanObject.ofBool(left.bool_value && right.bool_value);
+        return YanObject.ofBool(left.bool_value || right.bool_value);
+    }
+
+    // endregion
+
+    // region: Result kinds
+
+    abstract static class IntNode extends ExecNode {
+        @Override
+        abstract long executeInt(Interpreter interpreter) throws UnexpectedResultException;
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            try {
+                return YanObject.ofInt(executeInt(interpreter));
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeFloat(Interpreter interpreter) throws UnexpectedResultException {
+            return executeInt(interpreter);
+        }
+
+        @Override
+        boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+            return executeInt(interpreter) != 0;
+        }
+    }
+
+    abstract static class FloatNode extends ExecNode {
+        @Override
+        abstract double executeFloat(Interpreter interpreter) throws UnexpectedResultException;
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            try {
+                return YanObject.ofFloat(executeFloat(interpreter));
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        long executeInt(Interpreter interpreter) throws UnexpectedResultException {
+            return (int) executeFloat(interpreter);
+        }
+    }
+
+    abstract static class BoolNode extends ExecNode {
+        @Override
+        abstract boolean executeBool(Interpreter interpreter) throws UnexpectedResultException;
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            try {
+                return YanObject.ofBool(executeBool(interpreter));
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        long executeInt(Interpreter interpreter) throws UnexpectedResultException {
+            return executeBool(interpreter) ? 1 : 0;
+        }
+
+        @Override
+        double executeFloat(Interpreter interpreter) throws UnexpectedResultException {
+            return executeBool(interpreter) ? 1 : 0;
+        }
+    }
+
+    // endregion
+
+    // region: Leaves
+
+    static final class IntConstant extends IntNode {
+        private final long value;
+
+        IntConstant(long value) {
+            this.value = value;
+        }
+
+        @Override
+        long executeInt(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    static final class FloatConstant extends FloatNode {
+        private final double value;
+
+        FloatConstant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double executeFloat(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    static final class BoolConstant extends BoolNode {
+        private final boolean value;
+
+        BoolConstant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean executeBool(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    static final class IntLocal extends IntNode {
+        private final int depth, slot;
+
+        IntLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        long executeInt(Interpreter interpreter) {
+            return interpreter.environment.getWord(depth, slot);
+        }
+    }
+
+    static final class FloatLocal extends FloatNode {
+        private final int depth, slot;
+
+        FloatLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        double executeFloat(Interpreter interpreter) {
+            return Double.longBitsToDouble(interpreter.environment.getWord(depth, slot));
+        }
+    }
+
+    static final class BoolLocal extends BoolNode {
+        private final int depth, slot;
+
+        BoolLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        boolean executeBool(Interpreter interpreter) {
+            return interpreter.environment.getWord(depth, slot) != 0;
+        }
+    }
+
+    // any expression that is not specialized, evaluated by the interpreter.
+    static final class GenericExpr extends ExecNode {
+        private final ExprNode expr;
+
+        GenericExpr(ExprNode expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            return interpreter.evaluate(expr);
+        }
+    }
+
+    // endregion
+
+    // region: Arithmetic
+
+    static IntArithmetic intArithmetic(Token op, ExecNode left, ExecNode right) {
+        switch (op.type) {
+            case ADD: return new IntAdd(op, left, right);
+            case SUB: return new IntSub(op, left, right);
+            case MULTI: return new IntMul(op, left, right);
+            case DIV: return new IntDiv(op, left, right);
+            case MOD: return new IntMod(op, left, right);
+            default:
+                throw new RuntimeError(op, "unsupported operator " + op.type + ".");
+        }
+    }
+
+    static FloatArithmetic floatArithmetic(Token op, ExecNode left, ExecNode right) {
+        switch (op.type) {
+            case ADD: return new FloatAdd(op, left, right);
+            case SUB: return new FloatSub(op, left, right);
+            case MULTI: return new FloatMul(op, left, right);
+            case DIV: return new FloatDiv(op, left, right);
+            case MOD: return new FloatMod(op, left, right);
+            default:
+                throw new RuntimeError(op, "unsupported operator " + op.type + ".");
+        }
+    }
+
+    abstract static class IntArithmetic extends IntNode {
+        final Token op;
+        private ExecNode left, right;
+
+        IntArithmetic(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = left == null ? null : adopt(left);
+            this.right = right == null ? null : adopt(right);
+        }
+
+        abstract long compute(long left, long right);
+
+        @Override
+        long executeInt(Interpreter interpreter) throws UnexpectedResultException {
+            long l;
+            try {
+                l = left.executeInt(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectInt(deoptimize(e.result, right.execute(interpreter)));
+            }
+            long r;
+            try {
+                r = right.executeInt(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectInt(deoptimize(YanObject.ofInt(l), e.result));
+            }
+            return compute(l, r);
+        }
+
+        private YanObject deoptimize(YanObject l, YanObject r) {
+            return replace(new GenericBinary(op, left, right)).compute(l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    abstract static class FloatArithmetic extends FloatNode {
+        final Token op;
+        private ExecNode left, right;
+
+        FloatArithmetic(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = left == null ? null : adopt(left);
+            this.right = right == null ? null : adopt(right);
+        }
+
+        abstract double compute(double left, double right);
+
+        @Override
+        double executeFloat(Interpreter interpreter) throws UnexpectedResultException {
+            double l;
+            try {
+                l = left.executeFloat(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectFloat(deoptimize(e.result, right.execute(interpreter)));
+            }
+            double r;
+            try {
+                r = right.executeFloat(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectFloat(deoptimize(YanObject.ofFloat(l), e.result));
+            }
+            return compute(l, r);
+        }
+
+        private YanObject deoptimize(YanObject l, YanObject r) {
+            return replace(new GenericBinary(op, left, right)).compute(l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    static final class IntAdd extends IntArithmetic {
+        IntAdd(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        long compute(long left, long right) {
+            return (int) (left + right);
+        }
+    }
+
+    static final class IntSub extends IntArithmetic {
+        IntSub(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        long compute(long left, long right) {
+            return (int) (left - right);
+        }
+    }
+
+    static final class IntMul extends IntArithmetic {
+        IntMul(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        long compute(long left, long right) {
+            return (int) (left * right);
+        }
+    }
+
+    static final class IntDiv extends IntArithmetic {
+        IntDiv(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        long compute(long left, long right) {
+            if (right == 0)
+                throw new RuntimeError(op, "division by zero.");
+            return (int) (left / right);
+        }
+    }
+
+    static final class IntMod extends IntArithmetic {
+        IntMod(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        long compute(long left, long right) {
+            if (right == 0)
+                throw new RuntimeError(op, "division by zero.");
+            return left % right;
+        }
+    }
+
+    static final class FloatAdd extends FloatArithmetic {
+        FloatAdd(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double compute(double left, double right) {
+            return left + right;
+        }
+    }
+
+    static final class FloatSub extends FloatArithmetic {
+        FloatSub(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double compute(double left, double right) {
+            return left - right;
+        }
+    }
+
+    static final class FloatMul extends FloatArithmetic {
+        FloatMul(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double compute(double left, double right) {
+            return left * right;
+        }
+    }
+
+    static final class FloatDiv extends FloatArithmetic {
+        FloatDiv(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double compute(double left, double right) {
+            return left / right;
+        }
+    }
+
+    static final class FloatMod extends FloatArithmetic {
+        FloatMod(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        double compute(double left, double right) {
+            return left % right;
+        }
+    }
+
+    // endregion
+
+    // region: Relation
+
+    static IntCompare intCompare(Token op, ExecNode left, ExecNode right) {
+        switch (op.type) {
+            case LESS: return new IntLess(op, left, right);
+            case LESS_EQUAL: return new IntLessEqual(op, left, right);
+            case GREATER: return new IntGreater(op, left, right);
+            case GREATER_EQUAL: return new IntGreaterEqual(op, left, right);
+            case EQUAL: return new IntEqual(op, left, right);
+            case NOT_EQUAL: return new IntNotEqual(op, left, right);
+            default:
+                throw new RuntimeError(op, "unsupported operator " + op.type + ".");
+        }
+    }
+
+    static FloatCompare floatCompare(Token op, ExecNode left, ExecNode right) {
+        switch (op.type) {
+            case LESS: return new FloatLess(op, left, right);
+            case LESS_EQUAL: return new FloatLessEqual(op, left, right);
+            case GREATER: return new FloatGreater(op, left, right);
+            case GREATER_EQUAL: return new FloatGreaterEqual(op, left, right);
+            case EQUAL: return new FloatEqual(op, left, right);
+            case NOT_EQUAL: return new FloatNotEqual(op, left, right);
+            default:
+                throw new RuntimeError(op, "unsupported operator " + op.type + ".");
+        }
+    }
+
+    abstract static class IntCompare extends BoolNode {
+        final Token op;
+        private ExecNode left, right;
+
+        IntCompare(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = left == null ? null : adopt(left);
+            this.right = right == null ? null : adopt(right);
+        }
+
+        abstract boolean compare(long left, long right);
+
+        @Override
+        boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+            long l;
+            try {
+                l = left.executeInt(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(e.result, right.execute(interpreter)));
+            }
+            long r;
+            try {
+                r = right.executeInt(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(YanObject.ofInt(l), e.result));
+            }
+            return compare(l, r);
+        }
+
+        private YanObject deoptimize(YanObject l, YanObject r) {
+            return replace(new GenericRelation(op, left, right)).compute(l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    abstract static class FloatCompare extends BoolNode {
+        final Token op;
+        private ExecNode left, right;
+
+        FloatCompare(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = left == null ? null : adopt(left);
+            this.right = right == null ? null : adopt(right);
+        }
+
+        abstract boolean compare(double left, double right);
+
+        @Override
+        boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+            double l;
+            try {
+                l = left.executeFloat(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(e.result, right.execute(interpreter)));
+            }
+            double r;
+            try {
+                r = right.executeFloat(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(YanObject.ofFloat(l), e.result));
+            }
+            return compare(l, r);
+        }
+
+        private YanObject deoptimize(YanObject l, YanObject r) {
+            return replace(new GenericRelation(op, left, right)).compute(l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    static final class IntLess extends IntCompare {
+        IntLess(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left < right;
+        }
+    }
+
+    static final class IntLessEqual extends IntCompare {
+        IntLessEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left <= right;
+        }
+    }
+
+    static final class IntGreater extends IntCompare {
+        IntGreater(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left > right;
+        }
+    }
+
+    static final class IntGreaterEqual extends IntCompare {
+        IntGreaterEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left >= right;
+        }
+    }
+
+    static final class IntEqual extends IntCompare {
+        IntEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left == right;
+        }
+    }
+
+    static final class IntNotEqual extends IntCompare {
+        IntNotEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(long left, long right) {
+            return left != right;
+        }
+    }
+
+    static final class FloatLess extends FloatCompare {
+        FloatLess(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left < right;
+        }
+    }
+
+    static final class FloatLessEqual extends FloatCompare {
+        FloatLessEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    static final class FloatGreater extends FloatCompare {
+        FloatGreater(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left > right;
+        }
+    }
+
+    static final class FloatGreaterEqual extends FloatCompare {
+        FloatGreaterEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    static final class FloatEqual extends FloatCompare {
+        FloatEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left == right;
+        }
+    }
+
+    static final class FloatNotEqual extends FloatCompare {
+        FloatNotEqual(Token op, ExecNode left, ExecNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean compare(double left, double right) {
+            return left != right;
+        }
+    }
+
+    // endregion
+
+    // region: Unary and logical
+
+    static final class IntNeg extends IntNode {
+        private ExecNode right;
+
+        IntNeg(ExecNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        long executeInt(Interpreter interpreter) throws UnexpectedResultException {
+            return (int) -right.executeInt(interpreter);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (right == child) right = replacement;
+        }
+    }
+
+    static final class FloatNeg extends FloatNode {
+        private ExecNode right;
+
+        FloatNeg(ExecNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        double executeFloat(Interpreter interpreter) throws UnexpectedResultException {
+            return -right.executeFloat(interpreter);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (right == child) right = replacement;
+        }
+    }
+
+    static final class Not extends BoolNode {
+        private ExecNode right;
+
+        Not(ExecNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+            return !right.executeBool(interpreter);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (right == child) right = replacement;
+        }
+    }
+
+    // && and ||, both operands are always evaluated.
+    static final class BoolLogical extends BoolNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        BoolLogical(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        boolean executeBool(Interpreter interpreter) throws UnexpectedResultException {
+            boolean l;
+            try {
+                l = left.executeBool(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(e.result, right.execute(interpreter)));
+            }
+            boolean r;
+            try {
+                r = right.executeBool(interpreter);
+            } catch (UnexpectedResultException e) {
+                return expectBool(deoptimize(YanObject.ofBool(l), e.result));
+            }
+            return op.type == TokenType.REL_AND ? l && r : l || r;
+        }
+
+        private YanObject deoptimize(YanObject l, YanObject r) {
+            return replace(new GenericLogical(op, left, right)).compute(l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    // endregion
+
+    // region: Generic and uninitialized
+
+    static final class GenericBinary extends ExecNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        GenericBinary(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            YanObject l = left.execute(interpreter);
+            return compute(l, right.execute(interpreter));
+        }
+
+        YanObject compute(YanObject l, YanObject r) {
+            return binary(op, l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    static final class GenericRelation extends ExecNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        GenericRelation(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            YanObject l = left.execute(interpreter);
+            return compute(l, right.execute(interpreter));
+        }
+
+        YanObject compute(YanObject l, YanObject r) {
+            return relation(op, l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    static final class GenericLogical extends ExecNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        GenericLogical(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            YanObject l = left.execute(interpreter);
+            return compute(l, right.execute(interpreter));
+        }
+
+        YanObject compute(YanObject l, YanObject r) {
+            return logical(op, l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    static final class GenericUnary extends ExecNode {
+        private final Token op;
+        private ExecNode right;
+
+        GenericUnary(Token op, ExecNode right) {
+            this.op = op;
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            return unary(op, right.execute(interpreter));
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (right == child) right = replacement;
+        }
+    }
+
+    // binary expression without static types, specialized on the first operands it sees.
+    static final class UninitializedBinary extends ExecNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        UninitializedBinary(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            YanObject l = left.execute(interpreter);
+            YanObject r = right.execute(interpreter);
+            if (l.type == DataType.INT && r.type == DataType.INT)
+                replace(intArithmetic(op, left, right));
+            else if ((l.type == DataType.INT || l.type == DataType.FLOAT)
+                    && (r.type == DataType.INT || r.type == DataType.FLOAT))
+                replace(floatArithmetic(op, left, right));
+            else
+                replace(new GenericBinary(op, left, right));
+            return binary(op, l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    // relation without static types, specialized on the first operands it sees.
+    static final class UninitializedRelation extends ExecNode {
+        private final Token op;
+        private ExecNode left, right;
+
+        UninitializedRelation(Token op, ExecNode left, ExecNode right) {
+            this.op = op;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        YanObject execute(Interpreter interpreter) {
+            YanObject l = left.execute(interpreter);
+            YanObject r = right.execute(interpreter);
+            if (l.type == DataType.INT && r.type == DataType.INT)
+                replace(intCompare(op, left, right));
+            else if ((l.type == DataType.INT || l.type == DataType.FLOAT)
+                    && (r.type == DataType.INT || r.type == DataType.FLOAT))
+                replace(floatCompare(op, left, right));
+            else
+                replace(new GenericRelation(op, left, right));
+            return relation(op, l, r);
+        }
+
+        @Override
+        void replaceChild(ExecNode child, ExecNode replacement) {
+            if (left == child) left = replacement;
+            else if (right == child) right = replacement;
+        }
+    }
+
+    // endregion
+}
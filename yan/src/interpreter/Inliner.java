@@ -0,0 +1,509 @@
+package interpreter;
+
+import compiler.CallProfile;
+import frontend.ast.ExprNode;
+import frontend.ast.StmtNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Replace calls of small functions by their body before execution, so the interpreter does
+ * not create an environment and check the arguments for them.
+ *
+ * Only a function whose body is a single return of an expression can take the place of a
+ * call in an expression. It is inlined if the expression has at most <code>budget</code>
+ * nodes, assigns nothing and the function can't call itself. Every argument has to be a
+ * literal or a variable, which the parameters are substituted with, and a variable has to
+ * be local if the function calls others, which may assign globals. With a profile, only
+ * its hot call sites are inlined.
+ *
+ * Runs after {@link compiler.semantic.Resolver}, the new nodes get the resolved types, and
+ * before {@link SlotResolver}. Every call left is recorded with its caller, to write a
+ * profile of the calls counted by the interpreter.
+ */
+class Inliner implements StmtNode.Visitor<Void>, ExprNode.Visitor<ExprNode> {
+    static class Site {
+        final String caller;
+        final ExprNode.FunCall call;
+
+        Site(String caller, ExprNode.FunCall call) {
+            this.caller = caller;
+            this.call = call;
+        }
+    }
+
+    private final int budget;
+    private final CallProfile profile;
+
+    // functions declared so far, and the functions each one calls
+    private final Map<String, StmtNode.Function> functions = new HashMap<>();
+    private final Map<String, Set<String>> callees = new HashMap<>();
+    final List<Site> sites = new ArrayList<>();
+
+    private String caller = "@global";
+    // names of the local variables in scope, empty for the global scope
+    private Stack<Set<String>> scopes = new Stack<>();
+    // parameters substituted while copying the body of a function, null if not copying
+    private Map<String, ExprNode> substitution = null;
+
+    Inliner(int budget, CallProfile profile) {
+        this.budget = budget;
+        this.profile = profile;
+    }
+
+    void inline(List<StmtNode> statements) {
+        for (StmtNode statement : statements) {
+            if (statement instanceof StmtNode.Function) {
+                StmtNode.Function function = (StmtNode.Function) statement;
+                callees.put(function.name.lexeme, new CallCollector().collect(function.body));
+            }
+        }
+        for (StmtNode statement : statements)
+            statement.accept(this);
+    }
+
+    // region: Decision
+
+    // the expression the function returns if it can be inlined, null otherwise.
+    private ExprNode body(StmtNode.Function function) {
+        if (function.body.items.size() != 1 || !(function.body.items.get(0) instanceof StmtNode.Return))
+            return null;
+        ExprNode value = ((StmtNode.Return) function.body.items.get(0)).value;
+        if (value == null || value.type != function.return_type || isRecursive(function.name.lexeme))
+            return null;
+        CallCollector collector = new CallCollector();
+        collector.collect(value);
+        if (collector.assigns || collector.size > budget)
+            return null;
+        return value;
+    }
+
+    private boolean isRecursive(String name) {
+        Set<String> reached = new HashSet<>();
+        Stack<String> work = new Stack<>();
+        work.push(name);
+        while (!work.isEmpty()) {
+            for (String callee : callees.getOrDefault(work.pop(), Set.of())) {
+                if (callee.equals(name))
+                    return true;
+                if (reached.add(callee))
+                    work.push(callee);
+            }
+        }
+        return false;
+    }
+
+    private boolean canInline(ExprNode.FunCall call, StmtNode.Function function, ExprNode body) {
+        if (profile != null && !profile.isHot(caller, call.name.line, call.name.lexeme))
+            return false;
+        if (call.arguments.size() != function.params.size())
+            return false;
+        boolean calls = !callees.getOrDefault(function.name.lexeme, Set.of()).isEmpty();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            ExprNode argument = call.arguments.get(i);
+            if (argument.type != function.types.get(i))
+                return false;
+            if (argument instanceof ExprNode.Variable) {
+                if (calls && !isLocal(((ExprNode.Variable) argument).name.lexeme))
+                    return false;
+            } else if (!(argument instanceof ExprNode.Literal)) {
+                return false;
+            }
+        }
+        // the globals the function reads must not be hidden by locals at the call.
+        CallCollector collector = new CallCollector();
+        collector.collect(body);
+        for (String name : collector.variables) {
+            if (!isParameter(function, name) && isLocal(name))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isParameter(StmtNode.Function function, String name) {
+        for (int i = 0; i < function.params.size(); i++) {
+            if (function.params.get(i).lexeme.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name))
+                return true;
+        }
+        return false;
+    }
+
+    private ExprNode inline(ExprNode.FunCall call, StmtNode.Function function, ExprNode body) {
+        Map<String, ExprNode> previous = substitution;
+        substitution = new HashMap<>();
+        for (int i = 0; i < function.params.size(); i++)
+            substitution.put(function.params.get(i).lexeme, call.arguments.get(i));
+        ExprNode copy = body.accept(this);
+        substitution = previous;
+
+        ExprNode.Grouping grouping = new ExprNode.Grouping(copy);
+        grouping.type = call.type;
+        // calls in the copy may be inlined in turn, the function is not recursive.
+        return grouping.accept(this);
+    }
+
+    // endregion
+
+    // region: Expression
+    // Each visit returns the expression to use instead, a new node if anything in it changed.
+    // While copying a body every node is new.
+
+    private ExprNode rewrite(ExprNode expr) {
+        return expr.accept(this);
+    }
+
+    private <T extends ExprNode> T typed(T node, ExprNode original) {
+        node.type = original.type;
+        return node;
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(ExprNode.Assign expr) {
+        ExprNode value = rewrite(expr.value);
+        if (value == expr.value && substitution == null)
+            return expr;
+        return typed(new ExprNode.Assign(expr.name, expr.operator, value), expr);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(ExprNode.Binary expr) {
+        ExprNode left = rewrite(expr.left), right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right && substitution == null)
+            return expr;
+        return typed(new ExprNode.Binary(left, expr.operator, right), expr);
+    }
+
+    @Override
+    public ExprNode visitCallExpr(ExprNode.FunCall expr) {
+        List<ExprNode> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = substitution != null;
+        for (ExprNode argument : expr.arguments) {
+            ExprNode rewritten = rewrite(argument);
+            changed |= rewritten != argument;
+            arguments.add(rewritten);
+        }
+        ExprNode.FunCall call = expr;
+        if (changed) {
+            call = typed(new ExprNode.FunCall(expr.name, arguments), expr);
+            call.func = expr.func;
+        }
+        if (substitution != null)
+            return call;
+
+        StmtNode.Function function = functions.get(call.name.lexeme);
+        ExprNode body = function != null ? body(function) : null;
+        if (body != null && canInline(call, function, body))
+            return inline(call, function, body);
+        sites.add(new Site(caller, call));
+        return call;
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(ExprNode.Grouping expr) {
+        ExprNode expression = rewrite(expr.expression);
+        if (expression == expr.expression && substitution == null)
+            return expr;
+        return typed(new ExprNode.Grouping(expression), expr);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(ExprNode.Literal expr) {
+        if (substitution == null)
+            return expr;
+        return typed(new ExprNode.Literal(expr.value), expr);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(ExprNode.Logical expr) {
+        ExprNode left = rewrite(expr.left), right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right && substitution == null)
+            return expr;
+        return typed(new ExprNode.Logical(left, expr.operator, right), expr);
+    }
+
+    @Override
+    public ExprNode visitRelationExpr(ExprNode.Relation expr) {
+        ExprNode left = rewrite(expr.left), right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right && substitution == null)
+            return expr;
+        return typed(new ExprNode.Relation(left, expr.operator, right), expr);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(ExprNode.Unary expr) {
+        ExprNode right = rewrite(expr.right);
+        if (right == expr.right && substitution == null)
+            return expr;
+        return typed(new ExprNode.Unary(expr.operator, right), expr);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(ExprNode.Variable expr) {
+        if (substitution == null)
+            return expr;
+        ExprNode argument = substitution.get(expr.name.lexeme);
+        if (argument instanceof ExprNode.Literal)
+            return typed(new ExprNode.Literal(((ExprNode.Literal) argument).value), argument);
+        ExprNode.Variable source = argument != null ? (ExprNode.Variable) argument : expr;
+        ExprNode.Variable variable = typed(new ExprNode.Variable(source.name), source);
+        variable.declaration = source.declaration;
+        return variable;
+    }
+
+    // endregion
+
+    // region: Statement
+
+    @Override
+    public Void visitBlockStmt(StmtNode.Block stmt) {
+        scopes.push(new HashSet<>());
+        for (StmtNode item : stmt.items)
+            item.accept(this);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitEmptyStmt(StmtNode.Empty stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(StmtNode.Expression stmt) {
+        stmt.expr = rewrite(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(StmtNode.Function stmt) {
+        // function bodies only see the globals and their own locals.
+        Stack<Set<String>> enclosing = scopes;
+        scopes = new Stack<>();
+        Set<String> params = new HashSet<>();
+        for (int i = 0; i < stmt.params.size(); i++)
+            params.add(stmt.params.get(i).lexeme);
+        scopes.push(params);
+        caller = stmt.name.lexeme;
+        for (StmtNode item : stmt.body.items)
+            item.accept(this);
+        caller = "@global";
+        scopes = enclosing;
+
+        // declared after its body, calls in it are not inlined.
+        functions.put(stmt.name.lexeme, stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(StmtNode.If stmt) {
+        stmt.cond = rewrite(stmt.cond);
+        stmt.if_body.accept(this);
+        if (stmt.else_body != null)
+            stmt.else_body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(StmtNode.Print stmt) {
+        stmt.value = rewrite(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(StmtNode.Return stmt) {
+        if (stmt.value != null)
+            stmt.value = rewrite(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(StmtNode.Var stmt) {
+        if (stmt.initializer != null)
+            stmt.initializer = rewrite(stmt.initializer);
+        if (!scopes.isEmpty())
+            scopes.peek().add(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(StmtNode.While stmt) {
+        stmt.cond = rewrite(stmt.cond);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(StmtNode.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(StmtNode.Continue stmt) {
+        return null;
+    }
+
+    // endregion
+
+    /**
+     * Functions called, variables read and number of nodes of a function body or an expression.
+     */
+    private static class CallCollector implements StmtNode.Visitor<Void>, ExprNode.Visitor<Void> {
+        final Set<String> calls = new HashSet<>();
+        final Set<String> variables = new HashSet<>();
+        boolean assigns = false;
+        int size = 0;
+
+        Set<String> collect(StmtNode stmt) {
+            stmt.accept(this);
+            return calls;
+        }
+
+        Set<String> collect(ExprNode expr) {
+            size += 1;
+            expr.accept(this);
+            return calls;
+        }
+
+        @Override
+        public Void visitAssignExpr(ExprNode.Assign expr) {
+            assigns = true;
+            collect(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(ExprNode.Binary expr) {
+            collect(expr.left);
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(ExprNode.FunCall expr) {
+            calls.add(expr.name.lexeme);
+            for (ExprNode argument : expr.arguments)
+                collect(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(ExprNode.Grouping expr) {
+            collect(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(ExprNode.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(ExprNode.Logical expr) {
+            collect(expr.left);
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitRelationExpr(ExprNode.Relation expr) {
+            collect(expr.left);
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(ExprNode.Unary expr) {
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(ExprNode.Variable expr) {
+            variables.add(expr.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(StmtNode.Block stmt) {
+            for (StmtNode item : stmt.items)
+                item.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitEmptyStmt(StmtNode.Empty stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(StmtNode.Expression stmt) {
+            collect(stmt.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(StmtNode.Function stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(StmtNode.If stmt) {
+            collect(stmt.cond);
+            stmt.if_body.accept(this);
+            if (stmt.else_body != null)
+                stmt.else_body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(StmtNode.Print stmt) {
+            collect(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(StmtNode.Return stmt) {
+            if (stmt.value != null)
+                collect(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(StmtNode.Var stmt) {
+            if (stmt.initializer != null)
+                collect(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(StmtNode.While stmt) {
+            collect(stmt.cond);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(StmtNode.Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(StmtNode.Continue stmt) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package interpreter;
 
+import compiler.CallProfile;
 import error.ErrorCollector;
 import frontend.DataType;
 import frontend.Token;
@@ -8,39 +9,64 @@ import frontend.TokenType;
 import frontend.ast.ExprNode;
 import frontend.ast.StmtNode;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import static frontend.TokenType.*;
 
-public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visitor<YanObject> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private ErrorCollector errorCollector = ErrorCollector.getInstance();
+public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visitor<Completion> {
+    // largest function body inlined at its calls by default, see Inliner.
+    public static final int INLINE_BUDGET = 20;
+    // calls of a function before it is compiled to JVM bytecode by default, see YanFunction.
+    public static final int JIT_THRESHOLD = 1000;
 
-    private boolean breakloop = false;
-    private boolean exitBlock = false;
+    final Environment globals = new Environment();
+    Environment environment = globals;
+    private final Inliner inliner;
+    // number of calls before a function is compiled to JVM bytecode, negative to never compile.
+    final int jit_threshold;
+    private final SlotResolver slotResolver = new SlotResolver();
+    private final ErrorCollector errorCollector;
+
+    // value of the last return statement, see Completion.RETURN
+    private YanObject returned = null;
+    // arguments of the last tail call, see Completion.TAIL_CALL
+    private List<YanObject> tail_arguments = null;
 
     private final static Map<DataType, YanObject> defalutValue = new HashMap<>();
 
 
     static {
-        defalutValue.put(DataType.INT, new YanObject(0, DataType.INT));
-        defalutValue.put(DataType.FLOAT, new YanObject(0, DataType.FLOAT));
-        defalutValue.put(DataType.STRING, new YanObject(0, DataType.STRING));
-        defalutValue.put(DataType.BOOL, new YanObject(0, DataType.BOOL));
+        defalutValue.put(DataType.INT, YanObject.ofInt(0));
+        defalutValue.put(DataType.FLOAT, YanObject.ofFloat(0));
+        defalutValue.put(DataType.STRING, new YanObject("", DataType.STRING));
+        defalutValue.put(DataType.BOOL, YanObject.FALSE);
     }
 
-    public Interpreter() {
+    public Interpreter(ErrorCollector errorCollector) {
+        this(errorCollector, INLINE_BUDGET, null, JIT_THRESHOLD);
+    }
 
+    /**
+     * @param inline_budget largest function body inlined at its calls, 0 to never inline
+     * @param inline_profile if not null, only the hot call sites of the profile are inlined
+     * @param jit_threshold calls of a function before it is compiled, negative to never compile
+     */
+    public Interpreter(ErrorCollector errorCollector, int inline_budget, CallProfile inline_profile,
+                       int jit_threshold) {
+        this.errorCollector = errorCollector;
+        this.inliner = new Inliner(inline_budget, inline_profile);
+        this.jit_threshold = jit_threshold;
     }
 
 
     // region: Interface
 
     public void interpret(List<StmtNode> statements) {
+        inliner.inline(statements);
+        slotResolver.resolve(statements);
         for (StmtNode statement : statements) {
             try {
                 execute(statement);
@@ -50,54 +76,120 @@ public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visito
         }
     }
 
+    /**
+     * Calls made at every call site not inlined, run with the JIT off to count all of them.
+     */
+    public CallProfile callProfile() {
+        CallProfile profile = new CallProfile();
+        for (Inliner.Site site : inliner.sites)
+            profile.add(site.caller, site.call.name.line, site.call.name.lexeme, site.call.calls);
+        return profile;
+    }
+
     // endregion
 
     // region: Utils
 
-    private YanObject evaluate(ExprNode expr) {
+    YanObject evaluate(ExprNode expr) {
         return expr.accept(this);
     }
 
-    private void execute(StmtNode stmt) {
-        stmt.accept(this);
+    private Completion execute(StmtNode stmt) {
+        return stmt.accept(this);
     }
 
-    public void executeBlock(List<StmtNode> statements, Environment environment) {
+    public Completion executeBlock(List<StmtNode> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (StmtNode statement : statements) {
-                execute(statement);
-                if(exitBlock) break;
-            }
-        } catch (RuntimeException e){
-            throw e;
-        } finally{
+            return executeStatements(statements);
+        } finally {
             this.environment = previous;
         }
     }
 
-    private boolean isTruthy(YanObject o) {
-        if (o.type == DataType.BOOL) return (boolean) o.value;
-        if (o.type == DataType.INT) {
-            Integer tmp = (Integer) o.value;
-            return tmp != 0;
+    private Completion executeStatements(List<StmtNode> statements) {
+        for (StmtNode statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL)
+                return completion;
         }
-        throw new RuntimeError(null,
-                "expression in the condition should be able to evaluate as boolean.");
+        return Completion.NORMAL;
+    }
+
+    // take the value of the last return statement.
+    YanObject takeReturned() {
+        YanObject value = returned;
+        returned = null;
+        return value;
+    }
+
+    // take the arguments of the last tail call.
+    List<YanObject> takeTailArguments() {
+        List<YanObject> arguments = tail_arguments;
+        tail_arguments = null;
+        return arguments;
+    }
+
+    private boolean isTruthy(YanObject o) {
+        return o.asBool();
     }
 
     private String stringify(Object value) {
         return value.toString();
     }
 
-    private boolean checkType(DataType target, DataType... types) {
-        for(DataType type : types) {
-            if(target == type)
-                return true;
+    // endregion
+
+    // region: Typed evaluation
+    // Operators are evaluated by self-specializing ExecNodes cached on the expression, see ExecNode.
+    // Typed callers ask them for primitives, so no YanObject is allocated on the fast path.
+
+    private ExecNode node(ExprNode expr) {
+        ExecNode node = (ExecNode) expr.specialized;
+        return node != null ? node : ExecNode.root(expr);
+    }
+
+    private long evaluateInt(ExprNode expr) {
+        try {
+            return node(expr).executeInt(this);
+        } catch (UnexpectedResultException e) {
+            return e.result.asInt();
+        }
+    }
+
+    private double evaluateFloat(ExprNode expr) {
+        try {
+            return node(expr).executeFloat(this);
+        } catch (UnexpectedResultException e) {
+            return e.result.asFloat();
         }
-        throw new RuntimeError(null,
-                "operand of negative sign should be a number.");
+    }
+
+    private boolean evaluateBool(ExprNode expr) {
+        try {
+            return node(expr).executeBool(this);
+        } catch (UnexpectedResultException e) {
+            return isTruthy(e.result);
+        }
+    }
+
+    // store the value of an assignment without boxing it when the slot is typed.
+    private void assign(ExprNode.Assign expr) {
+        if (expr.depth >= 0 && expr.slot_type != null) {
+            switch (expr.slot_type) {
+                case INT:
+                    environment.setWord(expr.depth, expr.slot, evaluateInt(expr.value));
+                    return;
+                case BOOL:
+                    environment.setWord(expr.depth, expr.slot, evaluateBool(expr.value) ? 1 : 0);
+                    return;
+                case FLOAT:
+                    environment.setWord(expr.depth, expr.slot, Double.doubleToRawLongBits(evaluateFloat(expr.value)));
+                    return;
+            }
+        }
+        evaluate(expr);
     }
 
     // endregion
@@ -107,58 +199,30 @@ public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visito
     @Override
     public YanObject visitAssignExpr(ExprNode.Assign expr) {
         YanObject value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth < 0)
+            globals.assign(expr.name, value);
+        else
+            environment.assignAt(expr.depth, expr.slot, expr.slot_type, value);
         return value;
     }
 
     @Override
     public YanObject visitBinaryExpr(ExprNode.Binary expr) {
-        YanObject left = evaluate(expr.left);
-        YanObject right = evaluate(expr.right);
-        Token op = expr.operator;
-
-        // should be number type.
-        checkType(left.type, DataType.INT, DataType.FLOAT);
-        checkType(right.type, DataType.INT, DataType.FLOAT);
-
-        Double left_value = Double.valueOf(String.valueOf(left.value));
-        Double right_value = Double.valueOf(String.valueOf(right.value));
-        Double result = (double) 0;
-        DataType result_type;
-        if(left.type == DataType.FLOAT || right.type == DataType.FLOAT)
-            result_type = DataType.FLOAT;
-        else
-            result_type = DataType.INT;
-
-        switch (op.type) {
-            case ADD:
-                result = left_value + right_value; break;
-            case SUB:
-                result = left_value - right_value; break;
-            case MULTI:
-                result = left_value * right_value; break;
-            case DIV:
-                result = left_value / right_value; break;
-            default:
-                // unreachable.
-        }
-        if(result_type == DataType.INT)
-            return new YanObject(Integer.valueOf(result.intValue()), DataType.INT);
-        else
-            return new YanObject(result, DataType.FLOAT);
+        return node(expr).execute(this);
     }
 
     @Override
     public YanObject visitCallExpr(ExprNode.FunCall expr) {
-        // check if the function is defined.
-        YanObject func = environment.get(expr.name);
+        // check if the function is defined, functions can only be declared globally.
+        YanObject func = globals.get(expr.name);
+        expr.calls++;
         if(func instanceof YanCallable) {
             // validate args number
             if(((YanCallable) func).arity() != expr.arguments.size())
                 throw new RuntimeError(null,
                         "the number of provided arguments and expected number of arguments are not matched");
             // evaluate args
-            List<YanObject> args = new LinkedList<>();
+            List<YanObject> args = new ArrayList<>(expr.arguments.size());
             for(int i=0; i<expr.arguments.size(); ++i) {
                 YanObject value = evaluate(expr.arguments.get(i));
                 args.add(value);
@@ -179,11 +243,11 @@ public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visito
     public YanObject visitLiteralExpr(ExprNode.Literal expr) {
         YanObject value = null;
         if (expr.value instanceof Integer) {
-            value = new YanObject(expr.value, DataType.INT);
+            value = YanObject.ofInt((Integer) expr.value);
         } else if(expr.value instanceof Boolean) {
-            value = new YanObject(expr.value, DataType.BOOL);
+            value = YanObject.ofBool((Boolean) expr.value);
         } else if(expr.value instanceof Double) {
-            value = new YanObject(expr.value, DataType.FLOAT);
+            value = YanObject.ofFloat((Double) expr.value);
         } else if(expr.value instanceof String) {
             value = new YanObject(expr.value, DataType.STRING);
         } else {
@@ -195,167 +259,139 @@ public class Interpreter implements ExprNode.Visitor<YanObject>, StmtNode.Visito
 
     @Override
     public YanObject visitLogicalExpr(ExprNode.Logical expr) {
-        YanObject left = evaluate(expr.left);
-        YanObject right = evaluate(expr.right);
-        Token op = expr.operator;
-
-        if(left.type != DataType.BOOL || right.type != DataType.BOOL)
-            throw new RuntimeError(expr.operator,
-                    "operands of relation operator should be able to be evaluated as bool");
-        boolean result;
-        switch (op.type) {
-            case REL_AND:
-                result = (Boolean)left.value && (Boolean)right.value;
-                return new YanObject(result, DataType.BOOL);
-            case REL_OR:
-                result = (Boolean)left.value || (Boolean)right.value;
-                return new YanObject(result, DataType.BOOL);
-        }
-        return null;
+        return node(expr).execute(this);
     }
 
     @Override
     public YanObject visitRelationExpr(ExprNode.Relation expr) {
-        YanObject left = evaluate(expr.left);
-        YanObject right = evaluate(expr.right);
-        Token op = expr.operator;
-
-        // should be number type.
-        checkType(left.type, DataType.INT, DataType.FLOAT);
-        checkType(right.type, DataType.INT, DataType.FLOAT);
-
-        Double left_value = Double.valueOf(String.valueOf(left.value));
-        Double right_value = Double.valueOf(String.valueOf(right.value));
-
-        switch (op.type) {
-            case GREATER:
-                return new YanObject(left_value > right_value, DataType.BOOL);
-            case GREATER_EQUAL:
-                return new YanObject(left_value >= right_value, DataType.BOOL);
-            case LESS:
-                return new YanObject(left_value < right_value, DataType.BOOL);
-            case LESS_EQUAL:
-                return new YanObject(left_value <= right_value, DataType.BOOL);
-            case EQUAL:
-                // TODO: compare string
-                return new YanObject(left_value.equals(right_value), DataType.BOOL);
-            case NOT_EQUAL:
-                return new YanObject(!left_value.equals(right_value), DataType.BOOL);
-        }
-
-        return null;
+        return node(expr).execute(this);
     }
 
     @Override
     public YanObject visitUnaryExpr(ExprNode.Unary expr) {
-        YanObject right = evaluate(expr.right);
-        Object value = null;
-        switch (expr.operator.type) {
-            case SUB:
-                if(checkType(right.type, DataType.INT))
-                    value = -(int)right.value;
-                if(checkType(right.type, DataType.FLOAT))
-                    value = -(double)right.value;
-                break;
-            case REL_NOT:
-                value = !(Boolean) right.value;
-                break;
-            default:
-                // unreachable
-                break;
-        }
-        return new YanObject(value, right.type);
+        return node(expr).execute(this);
     }
 
     @Override
     public YanObject visitVariableExpr(ExprNode.Variable expr) {
-        return environment.get(expr.name);
+        if (expr.depth < 0)
+            return globals.get(expr.name);
+        return environment.getAt(expr.depth, expr.slot, expr.slot_type);
     }
     // endregion
 
     // region: Statement
     @Override
-    public YanObject visitBlockStmt(StmtNode.Block stmt) {
-        executeBlock(stmt.items, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(StmtNode.Block stmt) {
+        // a block without declarations shares the frame of the enclosing one.
+        if (stmt.slots == 0)
+            return executeStatements(stmt.items);
+        return executeBlock(stmt.items, new Environment(environment, stmt.slots));
     }
 
     @Override
-    public YanObject visitEmptyStmt(StmtNode.Empty stmt) {
-        return null;
+    public Completion visitEmptyStmt(StmtNode.Empty stmt) {
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitExpressionStmt(StmtNode.Expression stmt) {
-        return evaluate(stmt.expr);
+    public Completion visitExpressionStmt(StmtNode.Expression stmt) {
+        // the value of an assignment statement is not used, no need to box it.
+        if (stmt.expr instanceof ExprNode.Assign)
+            assign((ExprNode.Assign) stmt.expr);
+        else
+            evaluate(stmt.expr);
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitFunctionStmt(StmtNode.Function stmt) {
-        environment.define(stmt.name.lexeme, new YanFunction(stmt));
-        return null;
+    public Completion visitFunctionStmt(StmtNode.Function stmt) {
+        globals.define(stmt.name.lexeme, new YanFunction(stmt));
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitIfStmt(StmtNode.If stmt) {
-        if (isTruthy(evaluate(stmt.cond))) {
-            execute(stmt.if_body);
+    public Completion visitIfStmt(StmtNode.If stmt) {
+        if (evaluateBool(stmt.cond)) {
+            return execute(stmt.if_body);
         } else if (stmt.else_body != null) {
-            execute(stmt.else_body);
+            return execute(stmt.else_body);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitPrintStmt(StmtNode.Print stmt) {
+    public Completion visitPrintStmt(StmtNode.Print stmt) {
         Object value = evaluate(stmt.value);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitReturnStmt(StmtNode.Return stmt) {
-        YanObject value = evaluate(stmt.value);
-        throw new Return(value);
+    public Completion visitReturnStmt(StmtNode.Return stmt) {
+        if (stmt.tail_call) {
+            // the function loops instead of calling itself, the stack doesn't grow.
+            ExprNode.FunCall call = (ExprNode.FunCall) stmt.value;
+            call.calls++;
+            List<YanObject> arguments = new ArrayList<>(call.arguments.size());
+            for (ExprNode argument : call.arguments)
+                arguments.add(evaluate(argument));
+            tail_arguments = arguments;
+            return Completion.TAIL_CALL;
+        }
+        returned = stmt.value != null ? evaluate(stmt.value) : null;
+        return Completion.RETURN;
     }
 
     @Override
-    public YanObject visitVarStmt(StmtNode.Var stmt) {
+    public Completion visitVarStmt(StmtNode.Var stmt) {
+        if (stmt.slot >= 0 && stmt.initializer != null && stmt.type != null) {
+            switch (stmt.type) {
+                case INT:
+                    environment.setWord(0, stmt.slot, evaluateInt(stmt.initializer));
+                    return Completion.NORMAL;
+                case BOOL:
+                    environment.setWord(0, stmt.slot, evaluateBool(stmt.initializer) ? 1 : 0);
+                    return Completion.NORMAL;
+                case FLOAT:
+                    environment.setWord(0, stmt.slot, Double.doubleToRawLongBits(evaluateFloat(stmt.initializer)));
+                    return Completion.NORMAL;
+            }
+        }
+
         YanObject value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         } else {
             value = defalutValue.get(stmt.type);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if (stmt.slot < 0)
+            globals.define(stmt.name.lexeme, value);
+        else
+            environment.defineAt(stmt.slot, stmt.type, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitWhileStmt(StmtNode.While stmt) {
-        while (isTruthy(evaluate(stmt.cond))) {
-            execute(stmt.body);
-            exitBlock = false;
-            if(breakloop)
+    public Completion visitWhileStmt(StmtNode.While stmt) {
+        while (evaluateBool(stmt.cond)) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK)
                 break;
+            if (completion == Completion.RETURN || completion == Completion.TAIL_CALL)
+                return completion;
         }
-        breakloop = false;
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public YanObject visitBreakStmt(StmtNode.Break stmt) {
-        // FIXME: handle nested loop
-        exitBlock = true;
-        breakloop = true;
-        return null;
+    public Completion visitBreakStmt(StmtNode.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public YanObject visitContinueStmt(StmtNode.Continue stmt) {
-        // FIXME: handle nested loop
-        exitBlock = true;
-        return null;
+    public Completion visitContinueStmt(StmtNode.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     // endregion
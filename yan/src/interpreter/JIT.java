@@ -0,0 +1,93 @@
+package interpreter;
+
+import compiler.JVMGen;
+import compiler.jvm.ClassFile;
+import compiler.jvm.Code;
+import compiler.jvm.YanClassLoader;
+import frontend.DataType;
+import frontend.ast.StmtNode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static compiler.jvm.Code.*;
+
+/**
+ * Compile hot functions into JVM classes, see {@link Interpreter#JIT_THRESHOLD}.
+ *
+ * The function and its callees become static methods generated by {@link JVMGen}, the class
+ * also implements {@link CompiledFunction} to unbox the arguments and box the result.
+ */
+final class JIT {
+    // functions compiled so far, by every interpreter, to name their classes
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private JIT() {
+    }
+
+    // null if the function could not be compiled.
+    static CompiledFunction compile(StmtNode.Function function) {
+        String name = "yan/jit/" + function.name.lexeme + "$" + count.getAndIncrement();
+        ClassFile file = new ClassFile(name, "java/lang/Object", "interpreter/CompiledFunction");
+        if (!new JVMGen(file).compile(function))
+            return null;
+
+        Code init = file.method(ClassFile.ACC_PUBLIC, "<init>", "()V");
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+
+        Code call = file.method(ClassFile.ACC_PUBLIC, "call", "(Ljava/util/List;)Linterpreter/YanObject;");
+        for (int i = 0; i < function.types.size(); i++) {
+            call.local(ALOAD, 1);
+            call.iconst(i);
+            call.invoke(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;");
+            call.type(CHECKCAST, "interpreter/YanObject");
+            unbox(call, function.types.get(i));
+        }
+        call.invoke(INVOKESTATIC, name, function.name.lexeme, JVMGen.descriptor(function));
+        box(call, function.return_type);
+        call.op(ARETURN);
+
+        try {
+            Class<?> type = new YanClassLoader(JIT.class.getClassLoader()).define(file);
+            return (CompiledFunction) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // keep interpreting it.
+            return null;
+        }
+    }
+
+    private static void unbox(Code code, DataType type) {
+        switch (type) {
+            case INT:
+                code.invoke(INVOKEVIRTUAL, "interpreter/YanObject", "asInt", "()J");
+                code.op(L2I);
+                break;
+            case FLOAT:
+                code.invoke(INVOKEVIRTUAL, "interpreter/YanObject", "asFloat", "()D");
+                break;
+            case BOOL:
+                code.invoke(INVOKEVIRTUAL, "interpreter/YanObject", "asBool", "()Z");
+                break;
+        }
+    }
+
+    private static void box(Code code, DataType type) {
+        if (type == null) {
+            code.op(ACONST_NULL);
+            return;
+        }
+        switch (type) {
+            case INT:
+                code.op(I2L);
+                code.invoke(INVOKESTATIC, "interpreter/YanObject", "ofInt", "(J)Linterpreter/YanObject;");
+                break;
+            case FLOAT:
+                code.invoke(INVOKESTATIC, "interpreter/YanObject", "ofFloat", "(D)Linterpreter/YanObject;");
+                break;
+            case BOOL:
+                code.invoke(INVOKESTATIC, "interpreter/YanObject", "ofBool", "(Z)Linterpreter/YanObject;");
+                break;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package interpreter;
+
+import frontend.DataType;
+import frontend.ast.ExprNode;
+import frontend.ast.StmtNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Assign every local variable a (depth, slot) pair before execution.
+ *
+ * Scopes here mirror the environments created by the interpreter at runtime:
+ * a function call creates one frame holding parameters and top level locals of the body,
+ * every other block creates a nested frame. Names not found in any scope are
+ * left unresolved (depth = -1) and looked up in the globals by name.
+ * A block without any declaration does not get a frame.
+ *
+ * Slots of variables whose type is known, declared or computed by
+ * {@link compiler.semantic.Resolver}, are typed so the value can be stored unboxed.
+ */
+class SlotResolver implements StmtNode.Visitor<Void>, ExprNode.Visitor<Void> {
+    private static class Frame {
+        final Map<String, Integer> slots = new HashMap<>();
+        final Map<String, DataType> types = new HashMap<>();
+        int size = 0;
+    }
+
+    private Stack<Frame> scopes = new Stack<>();
+    // function whose body is resolved, null at the top level
+    private StmtNode.Function function = null;
+
+    void resolve(List<StmtNode> statements) {
+        for (StmtNode statement : statements)
+            resolve(statement);
+    }
+
+    private void resolve(StmtNode stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(ExprNode expr) {
+        expr.accept(this);
+    }
+
+    // type is the static type of the variable, null if it is unknown.
+    private int declare(String name, DataType type) {
+        if (scopes.isEmpty())
+            return -1;
+        // a redeclaration gets a new slot, later references will see the new one.
+        Frame frame = scopes.peek();
+        frame.slots.put(name, frame.size);
+        frame.types.put(name, type);
+        return frame.size++;
+    }
+
+    // return the frame declaring name, or null if the name is global.
+    private Frame lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).slots.containsKey(name))
+                return scopes.get(i);
+        }
+        return null;
+    }
+
+    private int depth(Frame frame) {
+        return scopes.size() - 1 - scopes.indexOf(frame);
+    }
+
+    // a block only needs its own frame if it declares variables.
+    private static boolean hasFrame(StmtNode.Block block) {
+        for (StmtNode item : block.items)
+            if (item instanceof StmtNode.Var)
+                return true;
+        return false;
+    }
+
+    // region: Expression
+
+    @Override
+    public Void visitAssignExpr(ExprNode.Assign expr) {
+        resolve(expr.value);
+        Frame frame = lookup(expr.name.lexeme);
+        if (frame != null) {
+            expr.depth = depth(frame);
+            expr.slot = frame.slots.get(expr.name.lexeme);
+            expr.slot_type = frame.types.get(expr.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(ExprNode.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(ExprNode.FunCall expr) {
+        for (ExprNode argument : expr.arguments)
+            resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(ExprNode.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(ExprNode.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(ExprNode.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitRelationExpr(ExprNode.Relation expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(ExprNode.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(ExprNode.Variable expr) {
+        Frame frame = lookup(expr.name.lexeme);
+        if (frame != null) {
+            expr.depth = depth(frame);
+            expr.slot = frame.slots.get(expr.name.lexeme);
+            expr.slot_type = frame.types.get(expr.name.lexeme);
+        }
+        return null;
+    }
+
+    // endregion
+
+    // region: Statement
+
+    @Override
+    public Void visitBlockStmt(StmtNode.Block stmt) {
+        if (!hasFrame(stmt)) {
+            resolve(stmt.items);
+            stmt.slots = 0;
+            return null;
+        }
+        scopes.push(new Frame());
+        resolve(stmt.items);
+        stmt.slots = scopes.pop().size;
+        return null;
+    }
+
+    @Override
+    public Void visitEmptyStmt(StmtNode.Empty stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(StmtNode.Expression stmt) {
+        resolve(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(StmtNode.Function stmt) {
+        // function frames are always enclosed by the globals, not by the defining scope.
+        Stack<Frame> enclosing = scopes;
+        StmtNode.Function enclosing_function = function;
+        function = stmt;
+        scopes = new Stack<>();
+        scopes.push(new Frame());
+        for (int i = 0; i < stmt.params.size(); i++)
+            declare(stmt.params.get(i).lexeme, stmt.types.get(i));
+        // body shares the frame with parameters, see YanFunction.call
+        resolve(stmt.body.items);
+        stmt.body.slots = scopes.pop().size;
+        scopes = enclosing;
+        function = enclosing_function;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(StmtNode.If stmt) {
+        resolve(stmt.cond);
+        resolve(stmt.if_body);
+        if (stmt.else_body != null)
+            resolve(stmt.else_body);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(StmtNode.Print stmt) {
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(StmtNode.Return stmt) {
+        if (stmt.value != null)
+            resolve(stmt.value);
+        markTailCall(stmt);
+        return null;
+    }
+
+    // the same as compiler.semantic.Resolver, for the statements of the REPL, which isn't
+    // run there. Calls aren't resolved then, the function is called by its name.
+    private void markTailCall(StmtNode.Return stmt) {
+        if (function == null || stmt.tail_call)
+            return;
+        ExprNode value = stmt.value;
+        while (value instanceof ExprNode.Grouping)
+            value = ((ExprNode.Grouping) value).expression;
+        if (!(value instanceof ExprNode.FunCall))
+            return;
+        ExprNode.FunCall call = (ExprNode.FunCall) value;
+        // a call with the wrong arguments is left to report its error.
+        if (call.name.lexeme.equals(function.name.lexeme) && call.arguments.size() == function.params.size()) {
+            stmt.value = call;
+            stmt.tail_call = true;
+            function.tail_calls = true;
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(StmtNode.Var stmt) {
+        // initializer is resolved before the variable is in scope.
+        if (stmt.initializer != null)
+            resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name.lexeme, stmt.type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(StmtNode.While stmt) {
+        resolve(stmt.cond);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(StmtNode.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(StmtNode.Continue stmt) {
+        return null;
+    }
+
+    // endregion
+}
@@ -0,0 +1,16 @@
+package interpreter;
+
+/**
+ * Thrown by a specialized {@link ExecNode} when the value it computed does not have
+ * the type its caller asked for. The caller then rewrites itself into a generic node.
+ *
+ * It only happens once per node, so no stack trace is captured.
+ */
+class UnexpectedResultException extends Exception {
+    final YanObject result;
+
+    UnexpectedResultException(YanObject result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
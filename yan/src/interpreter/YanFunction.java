@@ -8,6 +8,8 @@ import java.util.List;
 
 public class YanFunction extends YanObject implements YanCallable{
     private final StmtNode.Function function;
+    private int calls = 0;
+    private CompiledFunction compiled = null;
 
     public YanFunction(StmtNode.Function function) {
         super(function.name.lexeme, DataType.FUNCTION);
@@ -16,21 +18,41 @@ public class YanFunction extends YanObject implements YanCallable{
 
     @Override
     public YanObject call(Interpreter interpreter, List<YanObject> arguments) {
-        Environment environment = new Environment(interpreter.globals);
+        checkArguments(arguments);
+        if (compiled == null && interpreter.jit_threshold >= 0 && calls++ == interpreter.jit_threshold)
+            compiled = JIT.compile(function);
+        if (compiled != null) {
+            try {
+                return compiled.call(arguments);
+            } catch (ArithmeticException e) {
+                // the only one thrown by generated code, by idiv and irem.
+                throw new RuntimeError(null, "division by zero.");
+            }
+        }
+
+        while (true) {
+            Environment environment = new Environment(interpreter.globals, function.body.slots);
+            for(int i=0; i<arguments.size(); ++i)
+                environment.defineAt(i, function.types.get(i), arguments.get(i));
+            Completion completion = interpreter.executeBlock(function.body.items, environment);
+            if (completion == Completion.TAIL_CALL) {
+                // the REPL runs without the resolver, nothing checked the types of the arguments.
+                arguments = interpreter.takeTailArguments();
+                checkArguments(arguments);
+                continue;
+            }
+            if (completion == Completion.RETURN)
+                return interpreter.takeReturned();
+            return null;
+        }
+    }
+
+    private void checkArguments(List<YanObject> arguments) {
         for(int i=0; i<arguments.size(); ++i) {
             if(!(checkType(arguments.get(i).type, i)))
                 throw new RuntimeError(null, "type not matched, expected " +
                         function.types.get(i) + ", but got" + arguments.get(i).type);
-            environment.define(function.params.get(i).lexeme, arguments.get(i));
-        }
-        try {
-            interpreter.executeBlock(function.body.items, environment);
-        }catch (RuntimeException e) {
-            if(e instanceof Return)
-                return ((Return) e).value;
-            throw e;
         }
-        return null;
     }
 
     @Override
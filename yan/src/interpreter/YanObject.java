@@ -1,18 +1,114 @@
 package interpreter;
 
 import frontend.DataType;
+import interpreter.error.RuntimeError;
 
+/**
+ * Runtime value, tagged by its type.
+ *
+ * int, float and bool are kept unboxed in their own fields, <code>value</code> is only used
+ * by strings and functions. Instances are immutable, so the common ones are shared.
+ */
 public class YanObject extends Object{
     Object value;
     DataType type;
 
+    final long int_value;
+    final double float_value;
+    final boolean bool_value;
+
+    public static final YanObject TRUE = new YanObject(DataType.BOOL, 1, 1, true, null);
+    public static final YanObject FALSE = new YanObject(DataType.BOOL, 0, 0, false, null);
+
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final YanObject[] int_cache = new YanObject[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < int_cache.length; i++)
+            int_cache[i] = new YanObject(DataType.INT, i + CACHE_LOW, 0, false, null);
+    }
+
     public YanObject(Object value, DataType type) {
         this.value = value;
         this.type = type;
+        if (value instanceof Number) {
+            int_value = ((Number) value).intValue();
+            float_value = ((Number) value).doubleValue();
+        } else {
+            int_value = 0;
+            float_value = 0;
+        }
+        bool_value = value instanceof Boolean && (Boolean) value;
     }
 
+    private YanObject(DataType type, long int_value, double float_value, boolean bool_value, Object value) {
+        this.type = type;
+        this.int_value = int_value;
+        this.float_value = float_value;
+        this.bool_value = bool_value;
+        this.value = value;
+    }
+
+    // region: Factory
+
+    public static YanObject ofInt(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+            return int_cache[(int) value - CACHE_LOW];
+        return new YanObject(DataType.INT, value, 0, false, null);
+    }
+
+    public static YanObject ofFloat(double value) {
+        return new YanObject(DataType.FLOAT, 0, value, false, null);
+    }
+
+    public static YanObject ofBool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    // endregion
+
+    // region: Conversion
+
+    public long asInt() {
+        switch (type) {
+            case INT: return int_value;
+            case BOOL: return bool_value ? 1 : 0;
+            case FLOAT: return (int) float_value;
+            default:
+                throw new RuntimeError(null, "operand should be a number.");
+        }
+    }
+
+    public double asFloat() {
+        switch (type) {
+            case INT: return int_value;
+            case FLOAT: return float_value;
+            case BOOL: return bool_value ? 1 : 0;
+            default:
+                throw new RuntimeError(null, "operand should be a number.");
+        }
+    }
+
+    public boolean asBool() {
+        switch (type) {
+            case BOOL: return bool_value;
+            case INT: return int_value != 0;
+            default:
+                throw new RuntimeError(null,
+                        "expression in the condition should be able to evaluate as boolean.");
+        }
+    }
+
+    // endregion
+
     @Override
     public String toString() {
-        return value.toString();
+        switch (type) {
+            case INT: return String.valueOf(int_value);
+            case FLOAT: return String.valueOf(float_value);
+            case BOOL: return String.valueOf(bool_value);
+            default: return value.toString();
+        }
     }
 }
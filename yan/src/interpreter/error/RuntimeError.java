@@ -6,6 +6,6 @@ import frontend.TokenType;
 
 public class RuntimeError extends BaseError {
     public RuntimeError(Token token, String message) {
-        super(message);
+        super(message, token == null ? -1 : token.line, -1);
     }
 }
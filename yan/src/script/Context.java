@@ -0,0 +1,40 @@
+package script;
+
+import vm.VM;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * State of the runs of a {@link Script}: where it prints, how far it may go, and the globals
+ * left by the last run. A context is used by one thread at a time, give every thread its own.
+ */
+public class Context {
+    PrintWriter out = new PrintWriter(System.out, true);
+    int max_depth = VM.MAX_FRAMES;
+    long max_steps = 0;
+    Map<String, Object> globals = Collections.emptyMap();
+
+    public void setOutput(Writer out) {
+        this.out = out instanceof PrintWriter ? (PrintWriter) out : new PrintWriter(out);
+    }
+
+    // most calls in progress at once, up to VM.MAX_FRAMES.
+    public void setMaxDepth(int max_depth) {
+        this.max_depth = max_depth;
+    }
+
+    // most jumps and calls of a run, the loop iterations and calls, 0 for no limit.
+    public void setMaxSteps(long max_steps) {
+        this.max_steps = max_steps;
+    }
+
+    /**
+     * Globals of the last run by name, as Integer, Double, Boolean or String.
+     */
+    public Map<String, Object> getGlobals() {
+        return globals;
+    }
+}
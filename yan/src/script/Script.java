@@ -0,0 +1,89 @@
+package script;
+
+import compiler.semantic.Resolver;
+import error.BaseError;
+import error.ErrorCollector;
+import frontend.Lexer;
+import frontend.Parser;
+import frontend.SourceBuffer;
+import frontend.TokenStream;
+import frontend.ast.StmtNode;
+import vm.BytecodeCompiler;
+import vm.Program;
+import vm.VM;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Yan program compiled once, to be run any number of times, from any number of threads.
+ *
+ * Compiling goes through the whole front end to bytecode for the {@link VM}, the syntax tree
+ * is dropped afterwards. A script only holds the {@link Program}, which is never changed, and
+ * every run gets a new VM with its own globals, output and limits from its {@link Context}.
+ * <pre>
+ *   Script script = Script.compile("power.yan", source);
+ *   Context context = new Context();
+ *   context.setMaxSteps(1_000_000);
+ *   script.run(context);
+ *   context.getGlobals().get("result");
+ * </pre>
+ */
+public final class Script {
+    private final String name;
+    private final Program program;
+
+    private Script(String name, Program program) {
+        this.name = name;
+        this.program = program;
+    }
+
+    /**
+     * @param name   file name of the source, to report errors
+     * @throws ScriptError with every error found, if the source doesn't compile
+     */
+    public static Script compile(String name, String source) throws ScriptError {
+        ErrorCollector errorCollector = new ErrorCollector(name);
+
+        Lexer lexer = new Lexer(new SourceBuffer(source), errorCollector);
+        List<StmtNode> statements = new Parser(new TokenStream(lexer), errorCollector).parse();
+        check(errorCollector);
+
+        Resolver resolver = new Resolver(errorCollector);
+        for (StmtNode stmt : statements)
+            resolver.execute(stmt);
+        check(errorCollector);
+
+        Program program = new BytecodeCompiler(errorCollector).compile(statements);
+        check(errorCollector);
+        return new Script(name, program);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Run the script in the context, whose globals are replaced by those left by the run,
+     * even if it fails.
+     *
+     * @throws ScriptError if the run fails, is over the limits of the context or its thread
+     *                     is interrupted
+     */
+    public void run(Context context) throws ScriptError {
+        VM vm = new VM(program, context.out, context.max_depth, context.max_steps);
+        try {
+            vm.run();
+        } catch (BaseError error) {
+            throw new ScriptError(name, Collections.singletonList(error));
+        } finally {
+            context.globals = Collections.unmodifiableMap(vm.globals());
+            context.out.flush();
+        }
+    }
+
+    private static void check(ErrorCollector errorCollector) throws ScriptError {
+        if (errorCollector.hasError())
+            throw new ScriptError(errorCollector.getFile_name(), errorCollector.getErrors());
+    }
+}
@@ -0,0 +1,45 @@
+package script;
+
+import error.BaseError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Errors of a script that doesn't compile, or the error that stopped a run.
+ */
+public class ScriptError extends Exception {
+    private final String file_name;
+    private final List<BaseError> errors;
+
+    ScriptError(String file_name, List<BaseError> errors) {
+        super(message(file_name, errors));
+        this.file_name = file_name;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public String getFile_name() {
+        return file_name;
+    }
+
+    // with their line, column and code, see BaseError.
+    public List<BaseError> getErrors() {
+        return errors;
+    }
+
+    // line of the first error, -1 if it is not known.
+    public int getLine() {
+        return errors.isEmpty() ? -1 : errors.get(0).line;
+    }
+
+    private static String message(String file_name, List<BaseError> errors) {
+        StringBuilder builder = new StringBuilder();
+        for (BaseError error : errors) {
+            if (builder.length() > 0)
+                builder.append('\n');
+            builder.append(file_name).append(':').append(error.description);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package script;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Yan through javax.script, found by the name "yan" once the jar is on the class path.
+ *
+ * Every eval runs a {@link Script} in a new {@link Context}: print writes to the writer of the
+ * script context, and the globals left by the script are put in its engine scope, which is
+ * also where the limits are read from, {@link #MAX_STEPS} and {@link #MAX_DEPTH}. Scripts can't
+ * read the bindings, Yan has no way to declare a global from outside.
+ */
+public class YanScriptEngine extends AbstractScriptEngine implements Compilable {
+    public static final String MAX_STEPS = "yan.max_steps";
+    public static final String MAX_DEPTH = "yan.max_depth";
+
+    private final ScriptEngineFactory factory;
+
+    YanScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        Object file_name = get(ScriptEngine.FILENAME);
+        try {
+            return new Compiled(Script.compile(file_name != null ? file_name.toString() : "<eval>", script));
+        } catch (ScriptError error) {
+            throw exception(error);
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try (BufferedReader in = new BufferedReader(reader)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                source.append(buffer, 0, n);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    private static ScriptException exception(ScriptError error) {
+        return new ScriptException(error.getMessage(), error.getFile_name(), error.getLine());
+    }
+
+    private class Compiled extends CompiledScript {
+        private final Script script;
+
+        Compiled(Script script) {
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            Context run = new Context();
+            run.setOutput(context.getWriter());
+            Object max_steps = bindings.get(MAX_STEPS);
+            if (max_steps instanceof Number)
+                run.setMaxSteps(((Number) max_steps).longValue());
+            Object max_depth = bindings.get(MAX_DEPTH);
+            if (max_depth instanceof Number)
+                run.setMaxDepth(((Number) max_depth).intValue());
+
+            try {
+                script.run(run);
+            } catch (ScriptError error) {
+                throw exception(error);
+            } finally {
+                // the default context may be shared by threads running scripts.
+                synchronized (bindings) {
+                    bindings.putAll(run.getGlobals());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return YanScriptEngine.this;
+        }
+    }
+}
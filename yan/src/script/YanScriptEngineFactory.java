@@ -0,0 +1,86 @@
+package script;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Registered in META-INF/services, see {@link YanScriptEngine}.
+ */
+public class YanScriptEngineFactory implements ScriptEngineFactory {
+    private static final String VERSION = "1.0.0";
+
+    @Override
+    public String getEngineName() {
+        return "Yan";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("yan");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Collections.singletonList("text/x-yan");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("yan", "Yan");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Yan";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // every eval has its own globals.
+            case "THREADING": return "THREAD-ISOLATED";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print(\"" + toDisplay.replace("\\", "\\\\").replace("\"", "\\\"") + "\");";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements)
+            program.append(statement).append(";\n");
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new YanScriptEngine(this);
+    }
+}
@@ -0,0 +1,594 @@
+package vm;
+
+import compiler.error.SyntaxError;
+import compiler.error.TypeError;
+import error.BaseError;
+import error.ErrorCollector;
+import frontend.DataType;
+import frontend.ast.ExprNode;
+import frontend.ast.StmtNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import static vm.OpCode.*;
+
+/**
+ * Compile a resolved AST into bytecode for the {@link VM}.
+ *
+ * Types of expressions must have been computed by {@link compiler.semantic.Resolver},
+ * they decide which typed instruction (IADD, FADD, ...) and which conversion is emitted.
+ * All locals of a function, including those of nested blocks, live in a single frame.
+ */
+public class BytecodeCompiler implements StmtNode.Visitor<Void>, ExprNode.Visitor<Void> {
+    private final ErrorCollector errorCollector;
+
+    // region Inner Class
+
+    private static class Variable {
+        final int slot;
+        final DataType type;
+
+        Variable(int slot, DataType type) {
+            this.slot = slot;
+            this.type = type;
+        }
+    }
+
+    private static class Loop {
+        final int start;
+        final List<Integer> breaks = new ArrayList<>();
+
+        Loop(int start) {
+            this.start = start;
+        }
+    }
+
+    // state of the function being compiled.
+    private static class FunctionState {
+        final Chunk chunk;
+        final Stack<Map<String, Variable>> scopes = new Stack<>();
+        final Stack<Loop> loops = new Stack<>();
+        final List<Long> constants = new ArrayList<>();
+        final Map<Long, Integer> constant_index = new HashMap<>();
+
+        int[] code = new int[64];
+        int size = 0;
+        // addresses of the last two instructions, -1 from a jump target on, where nothing fuses.
+        int last = -1;
+        int previous = -1;
+        int next_slot = 0;
+        int depth = 0;
+
+        FunctionState(Chunk chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    // endregion
+
+    private final List<Chunk> functions = new ArrayList<>();
+    private final Map<String, Integer> function_index = new HashMap<>();
+    private final Map<String, Variable> globals = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> string_index = new HashMap<>();
+
+    private FunctionState current;
+
+    public BytecodeCompiler(ErrorCollector errorCollector) {
+        this.errorCollector = errorCollector;
+        // 0 is "", the value of a string global not declared yet, see VM.globals()
+        string("");
+    }
+
+    public Program compile(List<StmtNode> statements) {
+        FunctionState main = new FunctionState(new Chunk("@global", 0, null));
+        functions.add(main.chunk);
+        current = main;
+        for (StmtNode stmt : statements) {
+            try {
+                compile(stmt);
+            } catch (BaseError error) {
+                errorCollector.add(error);
+            }
+        }
+        emit(HALT);
+        finish(main);
+        String[] global_names = new String[globals.size()];
+        DataType[] global_types = new DataType[globals.size()];
+        for (Map.Entry<String, Variable> global : globals.entrySet()) {
+            global_names[global.getValue().slot] = global.getKey();
+            global_types[global.getValue().slot] = global.getValue().type;
+        }
+        return new Program(functions.toArray(new Chunk[0]), strings.toArray(new String[0]), global_names, global_types);
+    }
+
+    // region Utils
+
+    private void compile(StmtNode stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(ExprNode expr) {
+        expr.accept(this);
+    }
+
+    private int emit(int op, int... operands) {
+        int effect = op == CALL ? 1 - operands[1] : effects[op];
+        current.depth += effect;
+        current.chunk.max_stack = Math.max(current.chunk.max_stack, current.depth);
+
+        int address = fuse(op, operands);
+        if (address >= 0)
+            return address;
+        address = current.size;
+        put(address, op, operands);
+        current.previous = current.last;
+        current.last = address;
+        return address;
+    }
+
+    // write the instruction at address, where the code now ends.
+    private void put(int address, int op, int... operands) {
+        current.size = address;
+        if (current.size + operands.length + 1 > current.code.length)
+            current.code = Arrays.copyOf(current.code, current.code.length * 2);
+        current.code[current.size++] = op;
+        for (int operand : operands)
+            current.code[current.size++] = operand;
+    }
+
+    /**
+     * Rewrite the last instructions followed by op into a single one, which the VM dispatches once.
+     *
+     * @return address of the fused instruction, -1 if op doesn't fuse and is still to be written
+     */
+    private int fuse(int op, int[] operands) {
+        int last = current.last;
+        if (last < 0)
+            return -1;
+        int[] code = current.code;
+        switch (op) {
+            case LOAD:
+                if (code[last] != LOAD)
+                    return -1;
+                put(last, LOAD2, code[last + 1], operands[0]);
+                return last;
+            case IADD:
+            case ISUB:
+            case IMUL:
+                if (code[last] != ICONST)
+                    return -1;
+                // subtracting wraps around the same as adding the negation, -MIN_VALUE included.
+                int constant = op == ISUB ? -code[last + 1] : code[last + 1];
+                put(last, op == IMUL ? IMULK : IADDK, constant);
+                return last;
+            case JF:
+                int jump = negation(code[last]);
+                if (jump < 0)
+                    return -1;
+                put(last, jump, operands[0]);
+                return last;
+            case STORE:
+                int previous = current.previous;
+                if (code[last] != IADDK || previous < 0 || code[previous] != LOAD || code[previous + 1] != operands[0])
+                    return -1;
+                put(previous, IINC, operands[0], code[last + 1]);
+                current.last = previous;
+                current.previous = -1;
+                return previous;
+            default:
+                return -1;
+        }
+    }
+
+    // jump taken when the int relation doesn't hold, -1 if op isn't one.
+    private static int negation(int op) {
+        switch (op) {
+            case IEQ: return JINE;
+            case INE: return JIEQ;
+            case ILT: return JIGE;
+            case ILE: return JIGT;
+            case IGT: return JILE;
+            case IGE: return JILT;
+            default: return -1;
+        }
+    }
+
+    // the current position, to be jumped to.
+    private int label() {
+        current.last = -1;
+        current.previous = -1;
+        return current.size;
+    }
+
+    // patch the target of the jump at address to the current position.
+    private void patch(int address) {
+        current.code[address + 1] = label();
+    }
+
+    private int constant(long value) {
+        Integer index = current.constant_index.get(value);
+        if (index == null) {
+            index = current.constants.size();
+            current.constants.add(value);
+            current.constant_index.put(value, index);
+        }
+        return index;
+    }
+
+    private int string(String value) {
+        Integer index = string_index.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            string_index.put(value, index);
+        }
+        return index;
+    }
+
+    private void finish(FunctionState state) {
+        Chunk chunk = state.chunk;
+        chunk.code = Arrays.copyOf(state.code, state.size);
+        chunk.constants = new long[state.constants.size()];
+        for (int i = 0; i < chunk.constants.length; i++)
+            chunk.constants[i] = state.constants.get(i);
+    }
+
+    private boolean isGlobalScope() {
+        return current.chunk == functions.get(0) && current.scopes.isEmpty();
+    }
+
+    private Variable declare(String name, DataType type) {
+        if (isGlobalScope()) {
+            Variable variable = new Variable(globals.size(), type);
+            globals.put(name, variable);
+            return variable;
+        }
+        Variable variable = new Variable(current.next_slot++, type);
+        current.chunk.locals = Math.max(current.chunk.locals, current.next_slot);
+        current.scopes.peek().put(name, variable);
+        return variable;
+    }
+
+    private Variable lookup(String name) {
+        for (int i = current.scopes.size() - 1; i >= 0; i--) {
+            Variable variable = current.scopes.get(i).get(name);
+            if (variable != null)
+                return variable;
+        }
+        return null;
+    }
+
+    private void load(String name) {
+        Variable variable = lookup(name);
+        if (variable != null)
+            emit(LOAD, variable.slot);
+        else
+            emit(GLOAD, globals.get(name).slot);
+    }
+
+    private void store(String name) {
+        Variable variable = lookup(name);
+        if (variable != null)
+            emit(STORE, variable.slot);
+        else
+            emit(GSTORE, globals.get(name).slot);
+    }
+
+    private DataType typeOf(String name) {
+        Variable variable = lookup(name);
+        if (variable == null)
+            variable = globals.get(name);
+        return variable.type;
+    }
+
+    private void beginScope() {
+        current.scopes.push(new HashMap<>());
+    }
+
+    private void endScope() {
+        // slots of the closed scope are reused by following declarations.
+        current.next_slot -= current.scopes.pop().size();
+    }
+
+    private void convert(DataType from, DataType to) {
+        if (from == to)
+            return;
+        if (from == DataType.INT && to == DataType.FLOAT) emit(I2F);
+        else if (from == DataType.BOOL && to == DataType.FLOAT) emit(I2F);
+        else if (from == DataType.FLOAT && to == DataType.INT) emit(F2I);
+        else if (from == DataType.INT && to == DataType.BOOL) emit(I2B);
+        else if (from == DataType.BOOL && to == DataType.INT) return;
+        else throw new TypeError("invalid conversion from " + from + " to " + to);
+    }
+
+    private void condition(ExprNode cond) {
+        compile(cond);
+        if (cond.type != DataType.INT && cond.type != DataType.BOOL)
+            throw new TypeError("expression in the condition should be able to evaluate as boolean.");
+    }
+
+    // endregion
+
+    // region Expression
+
+    @Override
+    public Void visitAssignExpr(ExprNode.Assign expr) {
+        compile(expr.value);
+        // the value of the expression keeps its own type, only the stored copy is converted.
+        emit(DUP);
+        convert(expr.value.type, typeOf(expr.name.lexeme));
+        store(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(ExprNode.Binary expr) {
+        compile(expr.left);
+        convert(expr.left.type, expr.type);
+        compile(expr.right);
+        convert(expr.right.type, expr.type);
+
+        boolean is_float = expr.type == DataType.FLOAT;
+        switch (expr.operator.type) {
+            case ADD: emit(is_float ? FADD : IADD); break;
+            case SUB: emit(is_float ? FSUB : ISUB); break;
+            case MULTI: emit(is_float ? FMUL : IMUL); break;
+            case DIV: emit(is_float ? FDIV : IDIV); break;
+            default:
+                throw new SyntaxError("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(ExprNode.FunCall expr) {
+        StmtNode.Function func = expr.func;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            compile(expr.arguments.get(i));
+            convert(expr.arguments.get(i).type, func.types.get(i));
+        }
+        emit(CALL, function_index.get(expr.name.lexeme), expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(ExprNode.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(ExprNode.Literal expr) {
+        if (expr.value instanceof Integer)
+            emit(ICONST, (Integer) expr.value);
+        else if (expr.value instanceof Boolean)
+            emit(ICONST, (Boolean) expr.value ? 1 : 0);
+        else if (expr.value instanceof Double)
+            emit(LDC, constant(Double.doubleToRawLongBits((Double) expr.value)));
+        else if (expr.value instanceof String)
+            emit(ICONST, string((String) expr.value));
+        else
+            throw new TypeError("type of'" + expr.value + "' is not supported.");
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(ExprNode.Logical expr) {
+        // both operands are evaluated, the same as the interpreter.
+        compile(expr.left);
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case REL_AND: emit(AND); break;
+            case REL_OR: emit(OR); break;
+            default:
+                throw new SyntaxError("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitRelationExpr(ExprNode.Relation expr) {
+        DataType type = DataType.implicitConversion(expr.left.type, expr.right.type);
+        compile(expr.left);
+        convert(expr.left.type, type);
+        compile(expr.right);
+        convert(expr.right.type, type);
+
+        boolean is_float = type == DataType.FLOAT;
+        switch (expr.operator.type) {
+            case EQUAL: emit(is_float ? FEQ : IEQ); break;
+            case NOT_EQUAL: emit(is_float ? FNE : INE); break;
+            case LESS: emit(is_float ? FLT : ILT); break;
+            case LESS_EQUAL: emit(is_float ? FLE : ILE); break;
+            case GREATER: emit(is_float ? FGT : IGT); break;
+            case GREATER_EQUAL: emit(is_float ? FGE : IGE); break;
+            default:
+                throw new SyntaxError("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(ExprNode.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case SUB:
+                if (expr.right.type == DataType.FLOAT) emit(FNEG);
+                else if (expr.right.type == DataType.INT) emit(INEG);
+                else throw new TypeError("operand of negative sign should be a number.");
+                break;
+            case REL_NOT:
+                emit(NOT);
+                break;
+            default:
+                throw new SyntaxError("unsupported operator " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(ExprNode.Variable expr) {
+        load(expr.name.lexeme);
+        return null;
+    }
+
+    // endregion
+
+    // region Statement
+
+    @Override
+    public Void visitBlockStmt(StmtNode.Block stmt) {
+        beginScope();
+        for (StmtNode item : stmt.items)
+            compile(item);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitEmptyStmt(StmtNode.Empty stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(StmtNode.Expression stmt) {
+        // the value of an assignment is left out instead of being duplicated and popped.
+        if (stmt.expr instanceof ExprNode.Assign) {
+            ExprNode.Assign assign = (ExprNode.Assign) stmt.expr;
+            compile(assign.value);
+            convert(assign.value.type, typeOf(assign.name.lexeme));
+            store(assign.name.lexeme);
+            return null;
+        }
+        compile(stmt.expr);
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(StmtNode.Function stmt) {
+        FunctionState enclosing = current;
+        current = new FunctionState(new Chunk(stmt.name.lexeme, stmt.params.size(), stmt.return_type));
+        // registered before the body for recursive calls.
+        function_index.put(stmt.name.lexeme, functions.size());
+        functions.add(current.chunk);
+
+        beginScope();
+        for (int i = 0; i < stmt.params.size(); i++)
+            declare(stmt.params.get(i).lexeme, stmt.types.get(i));
+        for (StmtNode item : stmt.body.items)
+            compile(item);
+        // falling off the end of the function.
+        emit(ICONST, 0);
+        emit(RET);
+        endScope();
+
+        finish(current);
+        current = enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(StmtNode.If stmt) {
+        condition(stmt.cond);
+        int jump_else = emit(JF, 0);
+        compile(stmt.if_body);
+        if (stmt.else_body != null) {
+            int jump_end = emit(JMP, 0);
+            patch(jump_else);
+            compile(stmt.else_body);
+            patch(jump_end);
+        } else {
+            patch(jump_else);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(StmtNode.Print stmt) {
+        if (stmt.value.type == null || stmt.value.type == DataType.FUNCTION)
+            throw new TypeError("expression in print should have a value.");
+        compile(stmt.value);
+        emit(PRINT, stmt.value.type.ordinal());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(StmtNode.Return stmt) {
+        StmtNode.Function func = (StmtNode.Function) stmt.func;
+        if (stmt.tail_call) {
+            // the parameters are the first slots, stored once all the arguments are computed.
+            ExprNode.FunCall call = (ExprNode.FunCall) stmt.value;
+            for (int i = 0; i < call.arguments.size(); i++) {
+                compile(call.arguments.get(i));
+                convert(call.arguments.get(i).type, func.types.get(i));
+            }
+            for (int i = call.arguments.size() - 1; i >= 0; i--)
+                emit(STORE, i);
+            emit(JMP, 0);
+            return null;
+        }
+        if (stmt.value != null) {
+            compile(stmt.value);
+            convert(stmt.value.type, func.return_type);
+        } else {
+            emit(ICONST, 0);
+        }
+        emit(RET);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(StmtNode.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+            convert(stmt.initializer.type, stmt.type);
+        } else if (stmt.type == DataType.STRING) {
+            emit(ICONST, string(""));
+        } else {
+            // 0 is also the raw bits of 0.0
+            emit(ICONST, 0);
+        }
+        // declared after the initializer, so it could refer to a shadowed variable.
+        declare(stmt.name.lexeme, stmt.type);
+        store(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(StmtNode.While stmt) {
+        Loop loop = new Loop(label());
+        current.loops.push(loop);
+
+        condition(stmt.cond);
+        int jump_exit = emit(JF, 0);
+        compile(stmt.body);
+        emit(JMP, loop.start);
+        patch(jump_exit);
+        for (int address : loop.breaks)
+            patch(address);
+
+        current.loops.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(StmtNode.Break stmt) {
+        current.loops.peek().breaks.add(emit(JMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(StmtNode.Continue stmt) {
+        emit(JMP, current.loops.peek().start);
+        return null;
+    }
+
+    // endregion
+}
@@ -0,0 +1,28 @@
+package vm;
+
+import frontend.DataType;
+
+/**
+ * Compiled code of a single function.
+ */
+final class Chunk {
+    final String name;
+    final int arity;
+    final DataType return_type;
+
+    int[] code;
+    long[] constants;
+    int locals;      // size of the frame, parameters included
+    int max_stack;   // maximum depth of the operand stack above the locals
+
+    Chunk(String name, int arity, DataType return_type) {
+        this.name = name;
+        this.arity = arity;
+        this.return_type = return_type;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + " >";
+    }
+}
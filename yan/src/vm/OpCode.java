@@ -0,0 +1,99 @@
+package vm;
+
+/**
+ * Instruction set of the virtual machine.
+ *
+ * An instruction is an opcode followed by its inline operands in the <code>int[]</code> code array.
+ * Every value on the operand stack is a <code>long</code>: int and bool are stored as is,
+ * float as its raw bits, string as an index in the string pool of the program.
+ */
+final class OpCode {
+    // push / pop
+    static final int ICONST = 0;   // value
+    static final int LDC = 1;      // constant index
+    static final int POP = 2;
+    static final int DUP = 3;
+
+    // variables
+    static final int LOAD = 4;     // slot
+    static final int STORE = 5;    // slot
+    static final int GLOAD = 6;    // global index
+    static final int GSTORE = 7;   // global index
+
+    // arithmetic
+    static final int IADD = 8;
+    static final int ISUB = 9;
+    static final int IMUL = 10;
+    static final int IDIV = 11;
+    static final int INEG = 12;
+    static final int FADD = 13;
+    static final int FSUB = 14;
+    static final int FMUL = 15;
+    static final int FDIV = 16;
+    static final int FNEG = 17;
+
+    // relation
+    static final int IEQ = 18;
+    static final int INE = 19;
+    static final int ILT = 20;
+    static final int ILE = 21;
+    static final int IGT = 22;
+    static final int IGE = 23;
+    static final int FEQ = 24;
+    static final int FNE = 25;
+    static final int FLT = 26;
+    static final int FLE = 27;
+    static final int FGT = 28;
+    static final int FGE = 29;
+
+    // logical
+    static final int AND = 30;
+    static final int OR = 31;
+    static final int NOT = 32;
+
+    // type conversion
+    static final int I2F = 33;
+    static final int F2I = 34;
+    static final int I2B = 35;
+
+    // control flow
+    static final int JMP = 36;     // target
+    static final int JF = 37;      // target
+    static final int CALL = 38;    // function index, number of arguments
+    static final int RET = 39;
+
+    static final int PRINT = 40;   // DataType ordinal
+    static final int HALT = 41;
+
+    // fused by the compiler: an int relation and the JF after it, int arithmetic with a constant,
+    // a local stored plus a constant, two locals loaded in a row
+    static final int JIEQ = 42;    // target
+    static final int JINE = 43;    // target
+    static final int JILT = 44;    // target
+    static final int JILE = 45;    // target
+    static final int JIGT = 46;    // target
+    static final int JIGE = 47;    // target
+    static final int IADDK = 48;   // value
+    static final int IMULK = 49;   // value
+    static final int IINC = 50;    // slot, value
+    static final int LOAD2 = 51;   // slot, slot
+
+    // change of the operand stack depth, CALL is computed from its operands.
+    static final int[] effects = {
+            1, 1, -1, 1,
+            1, -1, 1, -1,
+            -1, -1, -1, -1, 0,
+            -1, -1, -1, -1, 0,
+            -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1,
+            -1, -1, 0,
+            0, 0, 0,
+            0, -1, 0, -1,
+            -1, 0,
+            -2, -2, -2, -2, -2, -2,
+            0, 0, 0, 2
+    };
+
+    private OpCode() {
+    }
+}
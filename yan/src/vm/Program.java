@@ -0,0 +1,26 @@
+package vm;
+
+import frontend.DataType;
+
+/**
+ * Output of {@link BytecodeCompiler}, everything the {@link VM} needs to run a source file.
+ *
+ * functions[0] holds the top level statements. A program is never changed once compiled, so
+ * any number of VMs can run it at the same time, each with its own globals.
+ */
+public final class Program {
+    final Chunk[] functions;
+    final String[] strings;
+    final int globals;
+    // name and type of every global by slot, to read them once a run is over
+    final String[] global_names;
+    final DataType[] global_types;
+
+    Program(Chunk[] functions, String[] strings, String[] global_names, DataType[] global_types) {
+        this.functions = functions;
+        this.strings = strings;
+        this.globals = global_names.length;
+        this.global_names = global_names;
+        this.global_types = global_types;
+    }
+}
@@ -0,0 +1,278 @@
+package vm;
+
+import frontend.DataType;
+import interpreter.error.RuntimeError;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static vm.OpCode.*;
+
+/**
+ * Stack based virtual machine executing a compiled {@link Program}.
+ *
+ * Locals of a call frame live at the bottom of its part of the operand stack,
+ * arguments pushed by the caller become the first locals of the callee.
+ *
+ * A run can be limited to a number of steps, the jumps and calls it makes, which are counted
+ * down TICK at a time; every TICK steps the run also stops if its thread was interrupted.
+ */
+public class VM {
+    public static final int MAX_FRAMES = 1 << 16;
+    private static final int MAX_STACK = 1 << 24;
+    private static final int TICK = 1 << 16;
+
+    private final Program program;
+    private final long[] globals;
+    private final PrintWriter out;
+
+    private long[] stack = new long[1024];
+
+    // call frames, saved when calling and restored when returning
+    private final int max_depth;
+    private final int[] frame_function;
+    private final int[] frame_ip;
+    private final int[] frame_bp;
+
+    // steps left after the current tick, unlimited if max_steps is 0
+    private final long max_steps;
+    private long steps_left;
+
+    public VM(Program program) {
+        this(program, new PrintWriter(System.out, true), MAX_FRAMES, 0);
+    }
+
+    /**
+     * @param out       where print writes
+     * @param max_depth most calls in progress at once, at most MAX_FRAMES
+     * @param max_steps most jumps and calls of a run, 0 for no limit
+     */
+    public VM(Program program, PrintWriter out, int max_depth, long max_steps) {
+        this.program = program;
+        this.globals = new long[program.globals];
+        this.out = out;
+        this.max_depth = Math.min(Math.max(max_depth, 1), MAX_FRAMES);
+        this.frame_function = new int[this.max_depth];
+        this.frame_ip = new int[this.max_depth];
+        this.frame_bp = new int[this.max_depth];
+        this.max_steps = max_steps;
+    }
+
+    public void run() {
+        Chunk[] functions = program.functions;
+        int function = 0;
+        Chunk chunk = functions[function];
+        int[] code = chunk.code;
+        long[] constants = chunk.constants;
+        long[] stack = ensureStack(chunk.locals + chunk.max_stack);
+        int fp = 0;
+        int ip = 0;
+        int bp = 0;
+        int sp = chunk.locals;
+        steps_left = max_steps;
+        int ticks = tick();
+
+        while (true) {
+            switch (code[ip++]) {
+                case ICONST: stack[sp++] = code[ip++]; break;
+                case LDC: stack[sp++] = constants[code[ip++]]; break;
+                case POP: sp--; break;
+                case DUP: stack[sp] = stack[sp - 1]; sp++; break;
+
+                case LOAD: stack[sp++] = stack[bp + code[ip++]]; break;
+                case LOAD2:
+                    stack[sp++] = stack[bp + code[ip++]];
+                    stack[sp++] = stack[bp + code[ip++]];
+                    break;
+                case STORE: stack[bp + code[ip++]] = stack[--sp]; break;
+                case GLOAD: stack[sp++] = globals[code[ip++]]; break;
+                case GSTORE: globals[code[ip++]] = stack[--sp]; break;
+
+                case IADD: sp--; stack[sp - 1] = (int) (stack[sp - 1] + stack[sp]); break;
+                case ISUB: sp--; stack[sp - 1] = (int) (stack[sp - 1] - stack[sp]); break;
+                case IMUL: sp--; stack[sp - 1] = (int) stack[sp - 1] * (int) stack[sp]; break;
+                case IDIV:
+                    sp--;
+                    if (stack[sp] == 0)
+                        throw error("division by zero.");
+                    stack[sp - 1] = (int) stack[sp - 1] / (int) stack[sp];
+                    break;
+                case INEG: stack[sp - 1] = -(int) stack[sp - 1]; break;
+
+                case FADD: sp--; stack[sp - 1] = f(d(stack[sp - 1]) + d(stack[sp])); break;
+                case FSUB: sp--; stack[sp - 1] = f(d(stack[sp - 1]) - d(stack[sp])); break;
+                case FMUL: sp--; stack[sp - 1] = f(d(stack[sp - 1]) * d(stack[sp])); break;
+                case FDIV: sp--; stack[sp - 1] = f(d(stack[sp - 1]) / d(stack[sp])); break;
+                case FNEG: stack[sp - 1] = f(-d(stack[sp - 1])); break;
+
+                case IEQ: sp--; stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0; break;
+                case INE: sp--; stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0; break;
+                case ILT: sp--; stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0; break;
+                case ILE: sp--; stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0; break;
+                case IGT: sp--; stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0; break;
+                case IGE: sp--; stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0; break;
+                case FEQ: sp--; stack[sp - 1] = d(stack[sp - 1]) == d(stack[sp]) ? 1 : 0; break;
+                case FNE: sp--; stack[sp - 1] = d(stack[sp - 1]) != d(stack[sp]) ? 1 : 0; break;
+                case FLT: sp--; stack[sp - 1] = d(stack[sp - 1]) < d(stack[sp]) ? 1 : 0; break;
+                case FLE: sp--; stack[sp - 1] = d(stack[sp - 1]) <= d(stack[sp]) ? 1 : 0; break;
+                case FGT: sp--; stack[sp - 1] = d(stack[sp - 1]) > d(stack[sp]) ? 1 : 0; break;
+                case FGE: sp--; stack[sp - 1] = d(stack[sp - 1]) >= d(stack[sp]) ? 1 : 0; break;
+
+                case AND: sp--; stack[sp - 1] = stack[sp - 1] != 0 && stack[sp] != 0 ? 1 : 0; break;
+                case OR: sp--; stack[sp - 1] = stack[sp - 1] != 0 || stack[sp] != 0 ? 1 : 0; break;
+                case NOT: stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0; break;
+
+                case I2F: stack[sp - 1] = f(stack[sp - 1]); break;
+                case F2I: stack[sp - 1] = (int) d(stack[sp - 1]); break;
+                case I2B: stack[sp - 1] = stack[sp - 1] != 0 ? 1 : 0; break;
+
+                case JMP:
+                    if (--ticks == 0)
+                        ticks = tick();
+                    ip = code[ip];
+                    break;
+                case JF:
+                    if (stack[--sp] == 0) ip = code[ip];
+                    else ip++;
+                    break;
+
+                case JIEQ: sp -= 2; ip = stack[sp] == stack[sp + 1] ? code[ip] : ip + 1; break;
+                case JINE: sp -= 2; ip = stack[sp] != stack[sp + 1] ? code[ip] : ip + 1; break;
+                case JILT: sp -= 2; ip = stack[sp] < stack[sp + 1] ? code[ip] : ip + 1; break;
+                case JILE: sp -= 2; ip = stack[sp] <= stack[sp + 1] ? code[ip] : ip + 1; break;
+                case JIGT: sp -= 2; ip = stack[sp] > stack[sp + 1] ? code[ip] : ip + 1; break;
+                case JIGE: sp -= 2; ip = stack[sp] >= stack[sp + 1] ? code[ip] : ip + 1; break;
+                case IADDK: stack[sp - 1] = (int) (stack[sp - 1] + code[ip++]); break;
+                case IMULK: stack[sp - 1] = (int) stack[sp - 1] * code[ip++]; break;
+                case IINC: {
+                    int slot = bp + code[ip++];
+                    stack[slot] = (int) (stack[slot] + code[ip++]);
+                    break;
+                }
+
+                case CALL: {
+                    int callee = code[ip++];
+                    int argc = code[ip++];
+                    if (--ticks == 0)
+                        ticks = tick();
+                    if (fp + 1 == max_depth)
+                        throw error("maximum recursion depth exceeded.");
+                    frame_function[fp] = function;
+                    frame_ip[fp] = ip;
+                    frame_bp[fp] = bp;
+                    fp++;
+
+                    function = callee;
+                    chunk = functions[function];
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    ip = 0;
+                    bp = sp - argc;
+                    sp = bp + chunk.locals;
+                    if (sp + chunk.max_stack > stack.length)
+                        stack = ensureStack(sp + chunk.max_stack);
+                    break;
+                }
+                case RET: {
+                    long value = stack[sp - 1];
+                    sp = bp;
+                    stack[sp++] = value;
+
+                    fp--;
+                    function = frame_function[fp];
+                    ip = frame_ip[fp];
+                    bp = frame_bp[fp];
+                    chunk = functions[function];
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    break;
+                }
+
+                case PRINT:
+                    print(stack[--sp], code[ip++]);
+                    break;
+                case HALT:
+                    return;
+                default:
+                    throw invalid(code[ip - 1], chunk);
+            }
+        }
+    }
+
+    /**
+     * Values of the globals, by name, once the program has run.
+     */
+    public Map<String, Object> globals() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < globals.length; i++) {
+            long value = globals[i];
+            switch (program.global_types[i]) {
+                case INT: values.put(program.global_names[i], (int) value); break;
+                case FLOAT: values.put(program.global_names[i], d(value)); break;
+                case BOOL: values.put(program.global_names[i], value != 0); break;
+                case STRING: values.put(program.global_names[i], program.strings[(int) value]); break;
+                default: values.put(program.global_names[i], value); break;
+            }
+        }
+        return values;
+    }
+
+    // region Utils
+
+    // the rare paths are calls out of run, its compiled dispatch loop only keeps the calls.
+    private static RuntimeError error(String message) {
+        return new RuntimeError(null, message);
+    }
+
+    private static RuntimeError invalid(int op, Chunk chunk) {
+        return error("invalid opcode " + op + " in " + chunk + ".");
+    }
+
+    private void print(long value, int type) {
+        out.println(stringify(value, type));
+    }
+
+    // steps until the next tick, after checking the limit and the interruption of the thread.
+    private int tick() {
+        if (Thread.currentThread().isInterrupted())
+            throw new RuntimeError(null, "interrupted.");
+        if (max_steps == 0)
+            return TICK;
+        if (steps_left == 0)
+            throw new RuntimeError(null, "step limit of " + max_steps + " exceeded.");
+        int steps = (int) Math.min(TICK, steps_left);
+        steps_left -= steps;
+        return steps;
+    }
+
+    private long[] ensureStack(int size) {
+        if (size > stack.length) {
+            if (size > MAX_STACK)
+                throw new RuntimeError(null, "maximum recursion depth exceeded.");
+            stack = Arrays.copyOf(stack, Math.max(size, Math.min(stack.length * 2, MAX_STACK)));
+        }
+        return stack;
+    }
+
+    private static double d(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long f(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    private String stringify(long value, int type) {
+        switch (DataType.values()[type]) {
+            case INT: return String.valueOf((int) value);
+            case FLOAT: return String.valueOf(d(value));
+            case BOOL: return String.valueOf(value != 0);
+            case STRING: return program.strings[(int) value];
+            default: return String.valueOf(value);
+        }
+    }
+
+    // endregion
+}